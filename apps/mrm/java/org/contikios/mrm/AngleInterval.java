@@ -369,6 +369,11 @@ class AngleInterval {
     AngleInterval interval = (AngleInterval) object;
     return (interval.getStartAngle() == this.getStartAngle() && interval.getEndAngle() == this.getEndAngle());
   }
+
+  public int hashCode() {
+    // Adding 0.0 maps -0.0 to 0.0, since the two are equal in equals()
+    return 31*Double.hashCode(getStartAngle() + 0.0) + Double.hashCode(getEndAngle() + 0.0);
+  }
   
   /**
    * Subtracts given interval from all intervals in given vector.
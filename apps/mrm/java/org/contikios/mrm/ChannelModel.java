@@ -38,11 +38,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Vector;
+import java.util.stream.IntStream;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 
@@ -96,12 +99,26 @@ public class ChannelModel {
   private Simulation simulation;
 
   
-  // Ray tracing components temporary vector
-  private Vector<Vector<Line2D>> calculatedVisibleSides = new Vector<Vector<Line2D>>();
-  private Vector<Point2D> calculatedVisibleSidesSources = new Vector<Point2D>();
-  private Vector<Line2D> calculatedVisibleSidesLines = new Vector<Line2D>();
-  private Vector<AngleInterval> calculatedVisibleSidesAngleIntervals = new Vector<AngleInterval>();
-  private static int maxSavedVisibleSides = 30; // Max size of lists above
+  // Ray tracing components, least recently used are removed first
+  private static int maxSavedVisibleSides = 1000; // Max size of map below
+  private LinkedHashMap<VisibleSidesKey,Vector<Line2D>> calculatedVisibleSides =
+    new LinkedHashMap<VisibleSidesKey,Vector<Line2D>>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<VisibleSidesKey,Vector<Line2D>> eldest) {
+        return size() > maxSavedVisibleSides;
+      }
+    };
+
+  // Ray tracing results [total path gain, delay spread, RMS delay spread], least recently used are removed first
+  private static int maxSavedPathData = 10000; // Max size of map below
+  private LinkedHashMap<PathKey,double[]> calculatedPathData =
+    new LinkedHashMap<PathKey,double[]>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<PathKey,double[]> eldest) {
+        return size() > maxSavedPathData;
+      }
+    };
+
+  // Minimum number of transmissions traced in parallel by prepareTransmissions()
+  private static final int PARALLEL_TRACING_THRESHOLD = 8;
 
   /**
    * Notifies observers when this channel model has changed settings.
@@ -131,6 +148,7 @@ public class ChannelModel {
     rt_reflec_coefficient,
     rt_diffr_coefficient,
     rt_scatt_coefficient,
+    rt_cache_resolution,
     obstacle_attenuation,
     captureEffect,
     captureEffectPreambleDuration,
@@ -184,6 +202,8 @@ public class ChannelModel {
         return new Double(-10);
       case rt_scatt_coefficient:
         return new Double(-20);
+      case rt_cache_resolution:
+        return new Double(0);
       case obstacle_attenuation:
         return new Double(-3);
       case captureEffect:
@@ -273,6 +293,7 @@ public class ChannelModel {
       case rt_refrac_coefficient: return "Refraction coefficient (dB)";
       case rt_reflec_coefficient: return "Reflection coefficient (dB)";
       case rt_diffr_coefficient: return "Diffraction coefficient (dB)";
+      case rt_cache_resolution: return "Ray tracer cache resolution (m)";
       case obstacle_attenuation: return "Obstacle attenuation (dB/m)";
       case captureEffect: return "Use Capture Effect";
       case captureEffectPreambleDuration: return "Capture effect preamble (us)";
@@ -327,6 +348,7 @@ public class ChannelModel {
    */
   public void removeAllObstacles() {
     myObstacleWorld.removeAll();
+    clearCalculatedPaths();
     settingsObservable.setChangedAndNotify();
   }
 
@@ -355,6 +377,7 @@ public class ChannelModel {
    */
   public void addRectObstacle(double startX, double startY, double width, double height, boolean notify) {
     myObstacleWorld.addObstacle(startX, startY, width, height);
+    clearCalculatedPaths();
 
     if (notify) {
       settingsObservable.setChangedAndNotify();
@@ -438,6 +461,7 @@ public class ChannelModel {
     // Guessing we need to recalculate input to FSPL+Output power
     needToPrecalculateFSPL = true;
     needToPrecalculateOutputPower = true;
+    clearCalculatedPaths();
 
     settingsObservable.setChangedAndNotify();
   }
@@ -447,8 +471,22 @@ public class ChannelModel {
    * will be notified.
    */
   public void notifySettingsChanged() {
+    clearCalculatedPaths();
     settingsObservable.setChangedAndNotify();
   }
+
+  /**
+   * Forgets all saved ray tracing results.
+   * Called whenever obstacles or parameters change.
+   */
+  private void clearCalculatedPaths() {
+    synchronized (calculatedVisibleSides) {
+      calculatedVisibleSides.clear();
+    }
+    synchronized (calculatedPathData) {
+      calculatedPathData.clear();
+    }
+  }
   
   /**
    * Path loss component from Friis' transmission equation.
@@ -469,90 +507,101 @@ public class ChannelModel {
 
 
   /**
-   * Returns the subset of a given line, that is intersecting the given rectangle.
-   * This method returns null if the line does not intersect the rectangle.
+   * Returns the length of the subset of a given line, that is intersecting the given rectangle.
+   * This method returns a negative value if the line does not intersect the rectangle.
    * The given line is defined by the given (x1, y1) -> (x2, y2).
    *
+   * The rectangle sides are tested without creating any line or point objects,
+   * since this method is called for every refracted ray.
+   *
    * @param x1 Line start point X
    * @param y1 Line start point Y
    * @param x2 Line end point X
    * @param y2 Line epoint Y
    * @param rectangle Rectangle which line may intersect
-   * @return Intersection line of given line and rectangle (or null)
+   * @return Intersection length of given line and rectangle (or negative)
    */
-  private Line2D getIntersectionLine(double x1, double y1, double x2, double y2, Rectangle2D rectangle) {
+  private double getIntersectionLength(double x1, double y1, double x2, double y2, Rectangle2D rectangle) {
 
     // Check if entire line is inside rectangle
     if (rectangle.contains(x1, y1) && rectangle.contains(x2, y2)) {
-      return new Line2D.Double(x1, y1, x2, y2);
-    }
-
-    // Get rectangle and test lines
-    Line2D rectangleLower = new Line2D.Double(rectangle.getMinX(), rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMinY());
-    Line2D rectangleUpper = new Line2D.Double(rectangle.getMinX(), rectangle.getMaxY(), rectangle.getMaxX(), rectangle.getMaxY());
-    Line2D rectangleLeft = new Line2D.Double(rectangle.getMinX(), rectangle.getMinY(), rectangle.getMinX(), rectangle.getMaxY());
-    Line2D rectangleRight = new Line2D.Double(rectangle.getMaxX(), rectangle.getMinY(), rectangle.getMaxX(), rectangle.getMaxY());
-    Line2D testLine = new Line2D.Double(x1, y1, x2, y2);
-
-    // Check which sides of the rectangle the test line passes through
-    Vector<Line2D> intersectedSides = new Vector<Line2D>();
-
-    if (rectangleLower.intersectsLine(testLine)) {
-      intersectedSides.add(rectangleLower);
-    }
-
-    if (rectangleUpper.intersectsLine(testLine)) {
-      intersectedSides.add(rectangleUpper);
-    }
-
-    if (rectangleLeft.intersectsLine(testLine)) {
-      intersectedSides.add(rectangleLeft);
-    }
-
-    if (rectangleRight.intersectsLine(testLine)) {
-      intersectedSides.add(rectangleRight);
+      return Point2D.distance(x1, y1, x2, y2);
     }
 
-    // If no sides are intersected, return null (no intersection)
-    if (intersectedSides.isEmpty()) {
-      return null;
+    double minX = rectangle.getMinX();
+    double minY = rectangle.getMinY();
+    double maxX = rectangle.getMaxX();
+    double maxY = rectangle.getMaxY();
+    double dx1 = x2 - x1;
+    double dy1 = y2 - y1;
+
+    // Check which sides of the rectangle (lower, upper, left, right) the test line
+    // passes through, and calculate the resulting line points (should be 2)
+    int intersectedSides = 0;
+    boolean missingPoint = false;
+    double firstX = 0, firstY = 0, secondX = 0, secondY = 0;
+    for (int side=0; side < 4; side++) {
+      double sideX1 = (side == 3) ? maxX : minX;
+      double sideY1 = (side == 1) ? maxY : minY;
+      double sideX2 = (side == 2) ? minX : maxX;
+      double sideY2 = (side == 0) ? minY : maxY;
+      if (!Line2D.linesIntersect(x1, y1, x2, y2, sideX1, sideY1, sideX2, sideY2)) {
+        continue;
+      }
+      intersectedSides++;
+
+      // Same calculation as getIntersectionPoint(testLine, side)
+      double dx2 = sideX2 - sideX1;
+      double dy2 = sideY2 - sideY1;
+      double det = (dx2*dy1-dy2*dx1);
+      double mu = (det == 0.0) ? -1 : ((x1 - sideX1)*dy1 - (y1 - sideY1)*dx1)/det;
+      if (mu < 0.0 || mu > 1.0) {
+        missingPoint = true;
+      } else if (intersectedSides == 1) {
+        firstX = sideX1 + mu*dx2;
+        firstY = sideY1 + mu*dy2;
+      } else if (intersectedSides == 2) {
+        secondX = sideX1 + mu*dx2;
+        secondY = sideY1 + mu*dy2;
+      }
     }
 
-    // Calculate all resulting line points (should be 2)
-    Vector<Point2D> intersectingLinePoints = new Vector<Point2D>();
-
-    for (int i=0; i < intersectedSides.size(); i++) {
-      intersectingLinePoints.add(
-          getIntersectionPoint(testLine, intersectedSides.get(i))
-      );
+    // If no sides are intersected, there is no intersection
+    if (intersectedSides == 0) {
+      return -1;
     }
 
     // If only one side was intersected, one point must be inside rectangle
-    if (intersectingLinePoints.size() == 1) {
+    if (intersectedSides == 1) {
       if (rectangle.contains(x1, y1)) {
-        intersectingLinePoints.add(new Point2D.Double(x1, y1));
+        secondX = x1;
+        secondY = y1;
       } else if (rectangle.contains(x2, y2)) {
-        intersectingLinePoints.add(new Point2D.Double(x2, y2));
+        secondX = x2;
+        secondY = y2;
       } else {
         // Border case, no intersection line
-        return null;
+        return -1;
       }
+      intersectedSides = 2;
     }
 
-    if (intersectingLinePoints.size() != 2) {
+    if (intersectedSides != 2) {
       // We should have 2 line points!
       logger.warn("Intersecting points != 2");
-      return null;
+      return -1;
     }
 
-    if (intersectingLinePoints.get(0).distance(intersectingLinePoints.get(1)) < 0.001) {
-      return null;
+    if (missingPoint) {
+      // Side passed through but no intersection point within segments
+      return -1;
     }
 
-    return new Line2D.Double(
-        intersectingLinePoints.get(0),
-        intersectingLinePoints.get(1)
-    );
+    double length = Point2D.distance(firstX, firstY, secondX, secondY);
+    if (length < 0.001) {
+      return -1;
+    }
+    return length;
   }
 
   /**
@@ -1010,35 +1059,16 @@ public class ChannelModel {
    * @param lookThrough Line to look through (or null)
    * @return All visible sides
    */
-  synchronized private Vector<Line2D> getAllVisibleSides(double sourceX, double sourceY, AngleInterval angleInterval, Line2D lookThrough) {
-    // synchronized because a race condition happens in this method when MRMVisualizerSkin accesses this module from another thread
+  private Vector<Line2D> getAllVisibleSides(double sourceX, double sourceY, AngleInterval angleInterval, Line2D lookThrough) {
+    // The saved results are synchronized because MRMVisualizerSkin and parallel ray
+    // tracing access this module from other threads. The sides are calculated outside the lock.
     Point2D source = new Point2D.Double(sourceX, sourceY);
+    VisibleSidesKey key = new VisibleSidesKey(sourceX, sourceY, angleInterval, lookThrough);
 
     // Check if results were already calculated earlier
-    for (int i=0; i < calculatedVisibleSidesSources.size(); i++) {
-      if (
-          // Compare sources
-          source.equals(calculatedVisibleSidesSources.get(i)) &&
-
-          // Compare angle intervals
-          (angleInterval == calculatedVisibleSidesAngleIntervals.get(i) ||
-              angleInterval != null && angleInterval.equals(calculatedVisibleSidesAngleIntervals.get(i)) ) &&
-
-              // Compare lines
-              (lookThrough == calculatedVisibleSidesLines.get(i) ||
-                  lookThrough != null && lookThrough.equals(calculatedVisibleSidesLines.get(i)) )
-      ) {
-        // Move to top of list
-        Point2D oldSource = calculatedVisibleSidesSources.remove(i);
-        Line2D oldLine = calculatedVisibleSidesLines.remove(i);
-        AngleInterval oldAngleInterval = calculatedVisibleSidesAngleIntervals.remove(i);
-        Vector<Line2D> oldVisibleLines = calculatedVisibleSides.remove(i);
-
-        calculatedVisibleSidesSources.add(0, oldSource);
-        calculatedVisibleSidesLines.add(0, oldLine);
-        calculatedVisibleSidesAngleIntervals.add(0, oldAngleInterval);
-        calculatedVisibleSides.add(0, oldVisibleLines);
-
+    synchronized (calculatedVisibleSides) {
+      Vector<Line2D> oldVisibleLines = calculatedVisibleSides.get(key);
+      if (oldVisibleLines != null) {
         // Return old results
         return oldVisibleLines;
       }
@@ -1382,23 +1412,78 @@ public class ChannelModel {
     } // End of outer loop
 
     // Save results in order to speed up later calculations
-    int size = calculatedVisibleSides.size();
-    // Crop saved sides vectors
-    if (size >= maxSavedVisibleSides) {
-      calculatedVisibleSides.remove(size-1);
-      calculatedVisibleSidesSources.remove(size-1);
-      calculatedVisibleSidesAngleIntervals.remove(size-1);
-      calculatedVisibleSidesLines.remove(size-1);
+    synchronized (calculatedVisibleSides) {
+      calculatedVisibleSides.put(key, visibleLines);
     }
 
-    calculatedVisibleSides.add(0, visibleLines);
-    calculatedVisibleSidesSources.add(0, source);
-    calculatedVisibleSidesAngleIntervals.add(0, angleInterval);
-    calculatedVisibleSidesLines.add(0, lookThrough);
-
     return visibleLines;
   }
 
+  /**
+   * Key of saved visible sides.
+   * Sources and angle intervals are compared by value, lines looked through by identity.
+   */
+  private static class VisibleSidesKey {
+    private final double sourceX, sourceY;
+    private final AngleInterval angleInterval;
+    private final Line2D lookThrough;
+
+    VisibleSidesKey(double sourceX, double sourceY, AngleInterval angleInterval, Line2D lookThrough) {
+      this.sourceX = sourceX;
+      this.sourceY = sourceY;
+      this.angleInterval = angleInterval;
+      this.lookThrough = lookThrough;
+    }
+
+    public boolean equals(Object object) {
+      if (!(object instanceof VisibleSidesKey)) {
+        return false;
+      }
+      VisibleSidesKey key = (VisibleSidesKey) object;
+      return sourceX == key.sourceX && sourceY == key.sourceY &&
+          (angleInterval == key.angleInterval ||
+              angleInterval != null && key.angleInterval != null && angleInterval.equals(key.angleInterval)) &&
+          lookThrough == key.lookThrough;
+    }
+
+    public int hashCode() {
+      int hash = Double.hashCode(sourceX + 0.0);
+      hash = 31*hash + Double.hashCode(sourceY + 0.0);
+      hash = 31*hash + (angleInterval == null ? 0 : angleInterval.hashCode());
+      return 31*hash + System.identityHashCode(lookThrough);
+    }
+  }
+
+  /**
+   * Key of saved ray tracing results: source and destination positions.
+   */
+  private static class PathKey {
+    private final double sourceX, sourceY, destX, destY;
+
+    PathKey(double sourceX, double sourceY, double destX, double destY) {
+      this.sourceX = sourceX;
+      this.sourceY = sourceY;
+      this.destX = destX;
+      this.destY = destY;
+    }
+
+    public boolean equals(Object object) {
+      if (!(object instanceof PathKey)) {
+        return false;
+      }
+      PathKey key = (PathKey) object;
+      return sourceX == key.sourceX && sourceY == key.sourceY &&
+          destX == key.destX && destY == key.destY;
+    }
+
+    public int hashCode() {
+      int hash = Double.hashCode(sourceX + 0.0);
+      hash = 31*hash + Double.hashCode(sourceY + 0.0);
+      hash = 31*hash + Double.hashCode(destX + 0.0);
+      return 31*hash + Double.hashCode(destY + 0.0);
+    }
+  }
+
   /**
    * Calculates and returns the received signal strength (dBm) of a signal sent
    * from the given source position to the given destination position as a
@@ -1421,12 +1506,72 @@ public class ChannelModel {
   }
   
 
-  // TODO Fix better data type support
-  private double[] getTransmissionData(TxPair txPair, TransmissionData dataType) {
-    Point2D source = txPair.getFrom();
-    Point2D dest = txPair.getTo();
-    double accumulatedVariance = 0;
+  /**
+   * Traces the given transmissions, in parallel, and saves the results.
+   * Later calls to for example {@link #getProbability(TxPair, double)} with
+   * the same transmissions then only add the random and transmitter specific parts.
+   *
+   * Nothing is traced in log mode, since the rays are then logged one by one.
+   *
+   * @param txPairs Transmissions about to be calculated
+   */
+  public void prepareTransmissions(TxPair[] txPairs) {
+    if (logMode || txPairs.length < PARALLEL_TRACING_THRESHOLD) {
+      return;
+    }
 
+    // Precalculate shared state before tracing from several threads
+    getFSPL(1.0);
+    myObstacleWorld.ensureSpatialObstaclesOrganized();
+
+    IntStream.range(0, txPairs.length).parallel().forEach(i -> getPathData(
+        txPairs[i].getFromX(), txPairs[i].getFromY(), txPairs[i].getToX(), txPairs[i].getToY()));
+  }
+
+  /**
+   * Returns the ray tracing results of a signal sent from the given source
+   * position to the given destination position. The results are saved, and
+   * positions are rounded to the resolution given by the
+   * {@link Parameter#rt_cache_resolution} parameter (if positive).
+   *
+   * @return [Total path gain (dB), delay spread, RMS delay spread]
+   */
+  private double[] getPathData(double sourceX, double sourceY, double destX, double destY) {
+    double resolution = getParameterDoubleValue(Parameter.rt_cache_resolution);
+    if (resolution > 0) {
+      sourceX = Math.round(sourceX/resolution) * resolution;
+      sourceY = Math.round(sourceY/resolution) * resolution;
+      destX = Math.round(destX/resolution) * resolution;
+      destY = Math.round(destY/resolution) * resolution;
+    }
+
+    if (logMode) {
+      return calculatePathData(new Point2D.Double(sourceX, sourceY), new Point2D.Double(destX, destY));
+    }
+
+    PathKey key = new PathKey(sourceX, sourceY, destX, destY);
+    synchronized (calculatedPathData) {
+      double[] pathData = calculatedPathData.get(key);
+      if (pathData != null) {
+        return pathData;
+      }
+    }
+
+    double[] pathData = calculatePathData(new Point2D.Double(sourceX, sourceY), new Point2D.Double(destX, destY));
+    synchronized (calculatedPathData) {
+      calculatedPathData.put(key, pathData);
+    }
+    return pathData;
+  }
+
+  /**
+   * Traces all rays from the given source to the given destination.
+   *
+   * @param source Source position
+   * @param dest Destination position
+   * @return [Total path gain (dB), delay spread, RMS delay spread]
+   */
+  private double[] calculatePathData(Point2D source, Point2D dest) {
     // - Get all ray paths from source to destination -
     RayData originRayData = new RayData(
         RayData.RayType.ORIGIN,
@@ -1506,7 +1651,7 @@ public class ChannelModel {
             Rectangle2D obstacle = allPossibleObstacles.get(k);
 
             // Calculate the intersection distance
-            Line2D line = getIntersectionLine(
+            double intersectionLength = getIntersectionLength(
                 subPath.getP1().getX(),
                 subPath.getP1().getY(),
                 subPath.getP2().getX(),
@@ -1514,8 +1659,8 @@ public class ChannelModel {
                 obstacle
             );
 
-            if (line != null) {
-              pathGain[i] += attenuationConstant * line.getP1().distance(line.getP2());
+            if (intersectionLength >= 0) {
+              pathGain[i] += attenuationConstant * intersectionLength;
               break;
             }
           }
@@ -1597,6 +1742,18 @@ public class ChannelModel {
         logInfo.append("RMS delay spread: " + String.format("%2.3f", delaySpreadRMS) + "\n");
     }
 
+    return new double[] {totalPathGain, delaySpread, delaySpreadRMS};
+  }
+
+  // TODO Fix better data type support
+  private double[] getTransmissionData(TxPair txPair, TransmissionData dataType) {
+    double accumulatedVariance = 0;
+
+    double[] pathData = getPathData(txPair.getFromX(), txPair.getFromY(), txPair.getToX(), txPair.getToY());
+    double totalPathGain = pathData[0];
+    double delaySpread = pathData[1];
+    double delaySpreadRMS = pathData[2];
+
     // - Calculate received power -
     // Using formula (dB)
     //  Received power = Output power + System gain + Transmitter gain + Path Loss + Receiver gain
@@ -1882,6 +2039,7 @@ public class ChannelModel {
     }
     needToPrecalculateFSPL = true;
     needToPrecalculateOutputPower = true;
+    clearCalculatedPaths();
     settingsObservable.setChangedAndNotify();
     return true;
   }
@@ -311,6 +311,13 @@ public class FormulaViewer extends org.contikios.cooja.VisPlugin {
         channelModel.getParameterDoubleValue(Parameter.rt_diffr_coefficient)
     );
 
+    addDoubleParameter(
+        Parameter.rt_cache_resolution,
+        Parameter.getDescription(Parameter.rt_cache_resolution),
+        collapsableArea,
+        channelModel.getParameterDoubleValue(Parameter.rt_cache_resolution)
+    );
+
 /*    addDoubleParameter(
         Parameters.rt_scatt_coefficient,
         Parameter.getDescription(Parameters.rt_scatt_coefficient),
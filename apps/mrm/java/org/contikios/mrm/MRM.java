@@ -30,6 +30,7 @@
 
 package org.contikios.mrm;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Hashtable;
 import java.util.Observable;
@@ -164,6 +165,29 @@ public class MRM extends AbstractRadioMedium {
     MRMRadioConnection newConnection = new MRMRadioConnection(sender);
     final Position senderPos = sender.getPosition();
 
+    /* Trace paths to all potential destinations in parallel, results are saved by the channel model */
+    ArrayList<TxPair> txPairs = new ArrayList<TxPair>();
+    for (Radio recv: getRegisteredRadios()) {
+      if (sender == recv) {
+        continue;
+      }
+      if (sender.getChannel() >= 0 &&
+          recv.getChannel() >= 0 &&
+          sender.getChannel() != recv.getChannel()) {
+        continue;
+      }
+      final Radio recvFinal = recv;
+      txPairs.add(new RadioPair() {
+        public Radio getFromRadio() {
+          return sender;
+        }
+        public Radio getToRadio() {
+          return recvFinal;
+        }
+      });
+    }
+    currentChannelModel.prepareTransmissions(txPairs.toArray(new TxPair[txPairs.size()]));
+
     /* TODO Cache potential destination in DGRM */
     /* Loop through all potential destinations */
     for (Radio recv: getRegisteredRadios()) {
@@ -229,11 +253,7 @@ public class MRM extends AbstractRadioMedium {
             recv.interfereAnyReception();
 
             /* Interfere receiver in all other active radio connections */
-            for (RadioConnection conn : getActiveConnections()) {
-              if (conn.isDestination(recv)) {
-                conn.addInterfered(recv);
-              }
-            }
+            interfereActiveConnectionsTo(recv);
           } else {
             /* CAPTURE EFFECT */
             double currSignal = recv.getCurrentSignalStrength();
@@ -252,17 +272,11 @@ public class MRM extends AbstractRadioMedium {
                 recv.interfereAnyReception();
 
                 /* Interfere receiver in all other active radio connections */
-                for (RadioConnection conn : getActiveConnections()) {
-                  if (conn.isDestination(recv)) {
-                    conn.addInterfered(recv);
-                  }
-                }
+                interfereActiveConnectionsTo(recv);
               } else {
                 /* XXX Warning: removing destination from other connections */
-                for (RadioConnection conn : getActiveConnections()) {
-                  if (conn.isDestination(recv)) {
-                    conn.removeDestination(recv);
-                  }
+                for (RadioConnection conn : getActiveConnectionsTo(recv)) {
+                  conn.removeDestination(recv);
                 }
 
                 /* Success: radio starts receiving */
@@ -381,14 +395,9 @@ public class MRM extends AbstractRadioMedium {
 
           /* TODO Interfere with radio connections? */
           if (affectedRadio.isReceiving() && !affectedRadio.isInterfered()) {
-            for (RadioConnection conn : conns) {
-              if (conn.isDestination(affectedRadio)) {
-                /* Intefere with current reception, mark radio as interfered */
-                conn.addInterfered(affectedRadio);
-                if (!affectedRadio.isInterfered()) {
-                  affectedRadio.interfereAnyReception();
-                }
-              }
+            /* Intefere with current reception, mark radio as interfered */
+            if (interfereActiveConnectionsTo(affectedRadio) && !affectedRadio.isInterfered()) {
+              affectedRadio.interfereAnyReception();
             }
           }
         }
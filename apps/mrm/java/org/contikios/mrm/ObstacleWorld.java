@@ -34,6 +34,7 @@ import java.awt.Point;
 import java.awt.geom.*;
 import java.util.Collection;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Vector;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -51,10 +52,13 @@ class ObstacleWorld {
   // All registered obstacles
   private Vector<Rectangle2D> allObstacles = null;
   
-  // All registered obstacles, with spatial information
-  private int spatialResolution = 10;
+  // All registered obstacles, with spatial information.
+  // The grid resolution grows with the number of obstacles (see reorganizeSpatialObstacles)
+  private static final int MIN_SPATIAL_RESOLUTION = 10;
+  private static final int MAX_SPATIAL_RESOLUTION = 64;
+  private int spatialResolution = MIN_SPATIAL_RESOLUTION;
   private Vector<Rectangle2D>[][] allObstaclesSpatial = new Vector[spatialResolution][spatialResolution];
-  private boolean obstaclesOrganized = false;
+  private volatile boolean obstaclesOrganized = false;
   
   // Outer bounds of all obstacles
   private Rectangle2D outerBounds = null;
@@ -118,6 +122,8 @@ class ObstacleWorld {
    * @return All obstacles containing or near center
    */
   public Vector<Rectangle2D> getAllObstaclesNear(Point2D center) {
+    ensureSpatialObstaclesOrganized();
+
     double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
     double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
     double areaStartX = outerBounds.getMinX();
@@ -181,9 +187,8 @@ class ObstacleWorld {
    */
   public Vector<Rectangle2D> getAllObstaclesInAngleInterval(Point2D center, AngleInterval angleInterval) {
     Vector<Rectangle2D> obstaclesToReturn = new Vector<Rectangle2D>();
-    if (!obstaclesOrganized) {
-      reorganizeSpatialObstacles();
-    }
+    HashSet<Rectangle2D> obstaclesAdded = new HashSet<Rectangle2D>();
+    ensureSpatialObstaclesOrganized();
     
     double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
     double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
@@ -270,7 +275,7 @@ class ObstacleWorld {
             boxHeight).contains(center)) {
           hit = true;
           for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
+            if (obstaclesAdded.add(allObstaclesSpatial[x][y].get(i)))
               obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
           }
         }
@@ -289,7 +294,7 @@ class ObstacleWorld {
         if (testInterval.intersects(angleInterval)) {
           hit = true;
           for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
+            if (obstaclesAdded.add(allObstaclesSpatial[x][y].get(i)))
               obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
           }
         }
@@ -308,7 +313,7 @@ class ObstacleWorld {
         if (testInterval.intersects(angleInterval)) {
           hit = true;
           for (int i=0; i < allObstaclesSpatial[x][y].size(); i++) {
-            if (!obstaclesToReturn.contains(allObstaclesSpatial[x][y].get(i)))
+            if (obstaclesAdded.add(allObstaclesSpatial[x][y].get(i)))
               obstaclesToReturn.add(allObstaclesSpatial[x][y].get(i));
           }
         }
@@ -540,34 +545,61 @@ class ObstacleWorld {
     obstaclesOrganized = false;
   }
   
+  /**
+   * Reorganizes all registered obstacles, unless they already are organized.
+   * Synchronized since the ray tracer may search for obstacles from several
+   * threads at once.
+   */
+  public synchronized void ensureSpatialObstaclesOrganized() {
+    if (!obstaclesOrganized) {
+      reorganizeSpatialObstacles();
+    }
+  }
+
   /**
    * Reorganizes all registered obstacles in order to speed up
    * searches for obstacles in spatial areas.
+   * The grid resolution is chosen from the number of obstacles, so that
+   * each box holds about one obstacle in large worlds.
    * This method is run automatically 
    */
   public void reorganizeSpatialObstacles() {
-    // Remove all spatial obstacles
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) 
-        allObstaclesSpatial[x][y].removeAllElements();
+    int resolution = (int) Math.ceil(Math.sqrt(allObstacles.size()));
+    resolution = Math.max(MIN_SPATIAL_RESOLUTION, Math.min(MAX_SPATIAL_RESOLUTION, resolution));
+
+    Vector<Rectangle2D>[][] spatialObstacles = new Vector[resolution][resolution];
+    for (int x=0; x < resolution; x++)
+      for (int y=0; y < resolution; y++) 
+        spatialObstacles[x][y] = new Vector<Rectangle2D>();
     
-    double boxWidth = outerBounds.getWidth() / (double) spatialResolution;
-    double boxHeight = outerBounds.getHeight() / (double) spatialResolution;
+    double boxWidth = outerBounds.getWidth() / (double) resolution;
+    double boxHeight = outerBounds.getHeight() / (double) resolution;
     double currentBoxMinX = outerBounds.getMinX();
     double currentBoxMinY = outerBounds.getMinY();
     
-    // For each box, add obstacles that belong there
-    for (int x=0; x < spatialResolution; x++)
-      for (int y=0; y < spatialResolution; y++) {
-        // Check which obstacles should be in this box
-        Rectangle2D boxToCheck = new Rectangle2D.Double(currentBoxMinX + x*boxWidth, currentBoxMinY + y*boxHeight, boxWidth, boxHeight);
-        for (int i=0; i < allObstacles.size(); i++) {
-          if (allObstacles.get(i).intersects(boxToCheck)) {
-            allObstaclesSpatial[x][y].add(allObstacles.get(i));
+    // For each obstacle, add it to the boxes it intersects.
+    // Only the boxes covered by the obstacle bounds (plus a margin of one box
+    // for rounding errors) are checked.
+    if (boxWidth > 0 && boxHeight > 0) {
+      for (int i=0; i < allObstacles.size(); i++) {
+        Rectangle2D obstacle = allObstacles.get(i);
+        int firstX = Math.max(0, (int) Math.floor((obstacle.getMinX() - currentBoxMinX)/boxWidth) - 1);
+        int lastX = Math.min(resolution-1, (int) Math.floor((obstacle.getMaxX() - currentBoxMinX)/boxWidth) + 1);
+        int firstY = Math.max(0, (int) Math.floor((obstacle.getMinY() - currentBoxMinY)/boxHeight) - 1);
+        int lastY = Math.min(resolution-1, (int) Math.floor((obstacle.getMaxY() - currentBoxMinY)/boxHeight) + 1);
+
+        for (int x=firstX; x <= lastX; x++)
+          for (int y=firstY; y <= lastY; y++) {
+            Rectangle2D boxToCheck = new Rectangle2D.Double(currentBoxMinX + x*boxWidth, currentBoxMinY + y*boxHeight, boxWidth, boxHeight);
+            if (obstacle.intersects(boxToCheck)) {
+              spatialObstacles[x][y].add(obstacle);
+            }
           }
-        }
       }
-    
+    }
+
+    spatialResolution = resolution;
+    allObstaclesSpatial = spatialObstacles;
     obstaclesOrganized = true;
     
     //printObstacleGridToConsole();
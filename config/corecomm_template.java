@@ -30,6 +30,7 @@
 
 package org.contikios.cooja.corecomm;
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import org.contikios.cooja.*;
 
@@ -55,4 +56,5 @@ public class [CLASSNAME] extends CoreComm {
   public native void setReferenceAddress(long addr);
   public native void getMemory(long rel_addr, int length, byte[] mem);
   public native void setMemory(long rel_addr, int length, byte[] mem);
+  public native ByteBuffer getMemoryBuffer(long rel_addr, int length);
 }
@@ -49,6 +49,9 @@ int arr2[10];
 int uvar1;
 int uvar2;
 
+/* Pointer into the library itself, relocated when the library is loaded */
+int *ptr1 = &var1;
+
 /**
  * \brief           Callback on load of library.
  * \param vm        unused
@@ -95,10 +98,19 @@ Java_org_contikios_cooja_corecomm_[CLASS_NAME]_setMemory(JNIEnv *env, jobject ob
   (*env)->ReleaseByteArrayElements(env, mem_arr, mem, 0);
 }
 /*---------------------------------------------------------------------------*/
+JNIEXPORT jobject JNICALL
+Java_org_contikios_cooja_corecomm_[CLASS_NAME]_getMemoryBuffer(JNIEnv *env, jobject obj, jlong rel_addr, jint length)
+{
+  return (*env)->NewDirectByteBuffer(
+      env,
+      (void *) (((intptr_t)rel_addr) + referenceVar),
+      (jlong) length);
+}
+/*---------------------------------------------------------------------------*/
 JNIEXPORT void JNICALL
 Java_org_contikios_cooja_corecomm_[CLASS_NAME]_tick(JNIEnv *env, jobject obj)
 {
-  ++var1;
+  ++*ptr1;
   ++uvar1;
 }
 /*---------------------------------------------------------------------------*/
@@ -0,0 +1,423 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
+
+import org.contikios.cooja.contikimote.ContikiMoteType;
+
+/**
+ * Runs one simulation config with many random seeds, and optionally a sweep
+ * of config parameters, in a single JVM. Each run gets its own non-visualized
+ * simulator, and up to a given number of simulations execute concurrently.
+ *
+ * Usage:
+ * <pre>
+ * -batch=&lt;file.csc&gt; -seeds=1,2,5-10 [-param=&lt;path&gt;=&lt;v1&gt;,&lt;v2&gt;...]... [-threads=N]
+ *   [-batch-results=&lt;file.csv|file.json&gt;]
+ * </pre>
+ *
+ * A parameter path is a slash-separated list of element names below the
+ * config root, such as simulation/radiomedium/transmitting_range. The text of
+ * all matching elements is set to each value in turn, and every combination
+ * of parameter values is run with every seed.
+ *
+ * Simulations are loaded one at a time, since loading may compile firmware
+ * in shared build directories. Firmware is compiled once per mote type
+ * config, later runs load private copies of the compiled library. The test
+ * output of each run is written to COOJA-&lt;seed&gt;.testlog, or
+ * COOJA-&lt;combination&gt;-&lt;seed&gt;.testlog in parameter sweeps.
+ *
+ * @see Cooja#setQuitHandler(java.util.function.IntConsumer)
+ */
+public class BatchRunner {
+  private static final Logger logger = LogManager.getLogger(BatchRunner.class);
+
+  /* Time to wait for a quit after a simulation stopped on its own (ms) */
+  private static final long STOPPED_TIMEOUT = 10000;
+
+  /* Serializes simulation loading */
+  private static final Object loadLock = new Object();
+
+  private static class Result {
+    final long seed;
+    final Map<String, String> params;
+    int exitCode = -1;
+    long simTime = 0;
+    long loadTime = 0; /* Includes any simulation time run while the test script starts */
+    long wallTime = 0; /* After loading */
+    long events = 0;
+
+    Result(long seed, Map<String, String> params) {
+      this.seed = seed;
+      this.params = params;
+    }
+
+    double getEventsPerSecond() {
+      return wallTime > 0 ? 1000.0 * events / wallTime : 0;
+    }
+  }
+
+  /**
+   * Runs all seeds of the given simulation config.
+   *
+   * @param config Simulation config
+   * @param args Command line arguments
+   * @return Exit code: 0 if all runs succeeded
+   */
+  public static int run(final File config, String[] args) {
+    ArrayList<Long> seeds = null;
+    LinkedHashMap<String, String[]> sweep = new LinkedHashMap<String, String[]>();
+    int threads = Runtime.getRuntime().availableProcessors();
+    File resultsFile = new File("COOJA.batch.csv");
+
+    for (String element : args) {
+      if (element.startsWith("-seeds=")) {
+        seeds = parseSeeds(element.substring("-seeds=".length()));
+        if (seeds == null) {
+          return 1;
+        }
+      } else if (element.startsWith("-threads=")) {
+        try {
+          threads = Integer.parseInt(element.substring("-threads=".length()));
+        } catch (NumberFormatException e) {
+          logger.fatal("Bad thread count: " + element);
+          return 1;
+        }
+      } else if (element.startsWith("-param=")) {
+        String param = element.substring("-param=".length());
+        int eq = param.indexOf('=');
+        if (eq <= 0) {
+          logger.fatal("Bad parameter, use -param=<path>=<v1>,<v2>: " + element);
+          return 1;
+        }
+        sweep.put(param.substring(0, eq), param.substring(eq + 1).split(",", -1));
+      } else if (element.startsWith("-batch-results=")) {
+        resultsFile = new File(element.substring("-batch-results=".length()));
+      }
+    }
+    if (!config.exists()) {
+      logger.fatal("No such simulation config: " + config);
+      return 1;
+    }
+    if (seeds == null || seeds.isEmpty()) {
+      logger.fatal("No seeds specified, use -seeds=1,2,5-10");
+      return 1;
+    }
+
+    final Element root;
+    try (InputStream in = config.getName().endsWith(".gz") ?
+        new GZIPInputStream(new FileInputStream(config)) : new FileInputStream(config)) {
+      root = new SAXBuilder().build(in).getRootElement();
+    } catch (JDOMException | IOException e) {
+      logger.fatal("Error when reading simulation config: " + config, e);
+      return 1;
+    }
+    for (String path: sweep.keySet()) {
+      if (findElements(root, path).isEmpty()) {
+        logger.fatal("No config element matches parameter: " + path);
+        return 1;
+      }
+    }
+
+    /* All combinations of parameter values, with all seeds */
+    ArrayList<Map<String, String>> combinations = new ArrayList<Map<String, String>>();
+    combinations.add(new LinkedHashMap<String, String>());
+    for (Map.Entry<String, String[]> param: sweep.entrySet()) {
+      ArrayList<Map<String, String>> next = new ArrayList<Map<String, String>>();
+      for (Map<String, String> combination: combinations) {
+        for (String value: param.getValue()) {
+          LinkedHashMap<String, String> extended = new LinkedHashMap<String, String>(combination);
+          extended.put(param.getKey(), value.trim());
+          next.add(extended);
+        }
+      }
+      combinations = next;
+    }
+    int runs = combinations.size() * seeds.size();
+    threads = Math.max(1, Math.min(threads, runs));
+
+    logger.info("Running " + seeds.size() + " seeds" +
+        (sweep.isEmpty() ? "" : " of " + combinations.size() + " parameter combinations") +
+        " of " + config + " on " + threads + " threads");
+    long startTime = System.currentTimeMillis();
+
+    /* Compile firmware once, not once per run */
+    Cooja.loadExternalToolsSettingsOnce();
+    ContikiMoteType.setReuseFirmware(true);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    ArrayList<Future<Result>> futures = new ArrayList<Future<Result>>();
+    ArrayList<Result> pending = new ArrayList<Result>();
+    for (int c = 0; c < combinations.size(); c++) {
+      final Map<String, String> params = combinations.get(c);
+      final String logPrefix = sweep.isEmpty() ? "COOJA-" : "COOJA-" + c + "-";
+      for (final long seed: seeds) {
+        pending.add(new Result(seed, params));
+        futures.add(executor.submit(() -> runSeed(config, root, params, seed, new File(logPrefix + seed + ".testlog"))));
+      }
+    }
+    executor.shutdown();
+
+    ArrayList<Result> results = new ArrayList<Result>();
+    int failed = 0;
+    for (int i=0; i < futures.size(); i++) {
+      Result result;
+      try {
+        result = futures.get(i).get();
+      } catch (Exception e) {
+        logger.fatal("Batch run failed: seed " + pending.get(i).seed + " " + pending.get(i).params, e);
+        result = pending.get(i);
+      }
+      results.add(result);
+      if (result.exitCode != 0) {
+        failed++;
+      }
+    }
+    logger.info("Batch completed in " + (System.currentTimeMillis() - startTime) + " ms: " +
+        (results.size() - failed) + " OK, " + failed + " failed");
+
+    try {
+      writeResults(resultsFile, new ArrayList<String>(sweep.keySet()), results);
+    } catch (IOException e) {
+      logger.fatal("Error when writing batch results: " + resultsFile, e);
+      return 1;
+    }
+    return failed == 0 ? 0 : 1;
+  }
+
+  private static Result runSeed(File config, Element root, Map<String, String> params, long seed, final File testLog) {
+    final Result result = new Result(seed, params);
+    final CompletableFuture<Integer> quit = new CompletableFuture<Integer>();
+    String run = "Seed " + seed + (params.isEmpty() ? "" : " " + params);
+
+    Element runRoot = (Element) root.clone();
+    for (Map.Entry<String, String> param: params.entrySet()) {
+      for (Element element: findElements(runRoot, param.getKey())) {
+        element.setText(param.getValue());
+      }
+    }
+
+    Simulation sim;
+    long startTime;
+    synchronized (loadLock) {
+      /* Load time excludes waiting for other runs to load */
+      long loadStartTime = System.currentTimeMillis();
+      sim = Cooja.quickStartSimulationConfig(config, runRoot, seed, gui -> {
+        gui.setQuitHandler(code -> quit.complete(code));
+        gui.setTestLogFile(testLog);
+      });
+      if (sim == null) {
+        logger.fatal(run + ": failed to load simulation");
+        return result;
+      }
+      if (!Cooja.startSimulationController(sim.getCooja(), sim, config.getPath())) {
+        sim.getCooja().doQuit(false, 1);
+        result.exitCode = 1;
+        return result;
+      }
+      startTime = System.currentTimeMillis();
+      result.loadTime = startTime - loadStartTime;
+    }
+
+    /* Wait for the test script to quit */
+    long stoppedSince = -1;
+    while (!quit.isDone()) {
+      try {
+        quit.get(1, TimeUnit.SECONDS);
+      } catch (TimeoutException e) {
+        if (sim.isRunning()) {
+          stoppedSince = -1;
+        } else if (stoppedSince < 0) {
+          stoppedSince = System.currentTimeMillis();
+        } else if (System.currentTimeMillis() - stoppedSince > STOPPED_TIMEOUT) {
+          logger.fatal(run + ": simulation stopped without quitting");
+          sim.getCooja().doQuit(false, -1);
+        }
+      } catch (Exception e) {
+        logger.fatal(run + ": " + e.getMessage(), e);
+        break;
+      }
+    }
+
+    result.wallTime = System.currentTimeMillis() - startTime;
+    result.simTime = sim.getSimulationTimeMillis();
+    result.events = sim.getEventsExecuted();
+    result.exitCode = quit.getNow(-1);
+    logger.info(run + ": exit code " + result.exitCode + ", " +
+        result.simTime + " ms simulated in " + result.wallTime + " ms, loaded in " + result.loadTime + " ms");
+    return result;
+  }
+
+  /**
+   * Returns the elements at the given slash-separated path below root.
+   *
+   * @param root Config root
+   * @param path Element names, such as simulation/radiomedium/transmitting_range
+   * @return Matching elements
+   */
+  private static List<Element> findElements(Element root, String path) {
+    List<Element> elements = new ArrayList<Element>();
+    elements.add(root);
+    for (String name: path.split("/")) {
+      if (name.isEmpty()) {
+        continue;
+      }
+      List<Element> children = new ArrayList<Element>();
+      for (Element element: elements) {
+        for (Object child: element.getChildren(name)) {
+          children.add((Element) child);
+        }
+      }
+      elements = children;
+    }
+    return elements;
+  }
+
+  /**
+   * Parses seeds of the form "1,2,5-10".
+   *
+   * @param str Seeds
+   * @return Seeds, or null on error
+   */
+  private static ArrayList<Long> parseSeeds(String str) {
+    ArrayList<Long> seeds = new ArrayList<Long>();
+    try {
+      for (String part: str.split(",")) {
+        part = part.trim();
+        if (part.isEmpty()) {
+          continue;
+        }
+        int dash = part.indexOf('-', 1);
+        if (dash < 0) {
+          seeds.add(Long.parseLong(part));
+        } else {
+          long from = Long.parseLong(part.substring(0, dash).trim());
+          long to = Long.parseLong(part.substring(dash + 1).trim());
+          for (long seed = from; seed <= to; seed++) {
+            seeds.add(seed);
+          }
+        }
+      }
+    } catch (NumberFormatException e) {
+      logger.fatal("Bad seeds: " + str);
+      return null;
+    }
+    return seeds;
+  }
+
+  private static void writeResults(File file, List<String> paramNames, ArrayList<Result> results) throws IOException {
+    boolean json = file.getName().endsWith(".json");
+    try (BufferedWriter out = new BufferedWriter(new FileWriter(file))) {
+      if (json) {
+        out.write("[\n");
+      } else {
+        out.write("seed,");
+        for (String name: paramNames) {
+          out.write(csvField(name) + ",");
+        }
+        out.write("exit_code,sim_time_ms,load_time_ms,wall_time_ms,events,events_per_sec\n");
+      }
+      for (int i=0; i < results.size(); i++) {
+        Result r = results.get(i);
+        String eventsPerSecond = String.format(Locale.ROOT, "%.1f", r.getEventsPerSecond());
+        if (json) {
+          StringBuilder params = new StringBuilder();
+          for (String name: paramNames) {
+            params.append(", ").append(jsonString(name)).append(": ").append(jsonString(r.params.get(name)));
+          }
+          out.write("  {\"seed\": " + r.seed + params +
+              ", \"exit_code\": " + r.exitCode +
+              ", \"sim_time_ms\": " + r.simTime +
+              ", \"load_time_ms\": " + r.loadTime +
+              ", \"wall_time_ms\": " + r.wallTime +
+              ", \"events\": " + r.events +
+              ", \"events_per_sec\": " + eventsPerSecond +
+              "}" + (i < results.size() - 1 ? "," : "") + "\n");
+        } else {
+          out.write(r.seed + ",");
+          for (String name: paramNames) {
+            out.write(csvField(r.params.get(name)) + ",");
+          }
+          out.write(r.exitCode + "," + r.simTime + "," + r.loadTime + "," + r.wallTime + "," +
+              r.events + "," + eventsPerSecond + "\n");
+        }
+      }
+      if (json) {
+        out.write("]\n");
+      }
+    }
+  }
+
+  private static String csvField(String value) {
+    if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+      return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+    return value;
+  }
+
+  private static String jsonString(String value) {
+    StringBuilder sb = new StringBuilder("\"");
+    for (char c: value.toCharArray()) {
+      if (c == '"' || c == '\\') {
+        sb.append('\\').append(c);
+      } else if (c < 0x20) {
+        sb.append(String.format("\\u%04x", (int) c));
+      } else {
+        sb.append(c);
+      }
+    }
+    return sb.append('"').toString();
+  }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja;
+
+import java.util.function.Predicate;
+
+/**
+ * Calendar queue event scheduler (R. Brown, CACM 31(10), 1988).
+ *
+ * Events are hashed by execution time into an array of buckets, each bucket
+ * covering one time slot of a "year" and holding a sorted list of events.
+ * Since most simulation events are scheduled within a few milliseconds of
+ * the current simulation time, insertion and removal are O(1) amortized.
+ * The number of buckets and the bucket width are adapted to the queue
+ * size and to the spacing of the earliest events.
+ */
+final class CalendarEventScheduler implements EventScheduler {
+  private static final int MIN_BUCKETS = 16;
+  private static final int SAMPLE_SIZE = 25;
+
+  private TimeEvent[] heads;
+  private TimeEvent[] tails;
+  private int mask;
+  private long width;
+  private int size = 0;
+
+  /* Current position: bucket and end of its time slot */
+  private int lastBucket;
+  private long bucketTop;
+
+  private final long[] sample = new long[SAMPLE_SIZE];
+
+  CalendarEventScheduler() {
+    allocate(MIN_BUCKETS, Simulation.MILLISECOND);
+    setPosition(0);
+  }
+
+  @Override
+  public void insert(TimeEvent event) {
+    enqueue(event);
+    size++;
+    if (size > 2 * heads.length) {
+      resize(2 * heads.length);
+    }
+  }
+
+  @Override
+  public boolean remove(TimeEvent event) {
+    int bucket = event.queueIndex;
+    if (bucket < 0 || bucket >= heads.length ||
+        (event.prev == null && heads[bucket] != event)) {
+      return false;
+    }
+    unlink(event);
+    size--;
+    return true;
+  }
+
+  @Override
+  public TimeEvent poll() {
+    TimeEvent event = pollFirst();
+    if (event != null && size < heads.length / 2 && heads.length > MIN_BUCKETS) {
+      resize(heads.length / 2);
+    }
+    return event;
+  }
+
+  @Override
+  public TimeEvent peek() {
+    return findFirst();
+  }
+
+  @Override
+  public boolean removeIf(Predicate<TimeEvent> pred) {
+    boolean removed = false;
+    for (int i = 0; i < heads.length; i++) {
+      TimeEvent event = heads[i];
+      while (event != null) {
+        TimeEvent next = event.next;
+        if (pred.test(event)) {
+          unlink(event);
+          size--;
+          removed = true;
+        }
+        event = next;
+      }
+    }
+    return removed;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private TimeEvent pollFirst() {
+    TimeEvent first = findFirst();
+    if (first != null) {
+      unlink(first);
+      size--;
+    }
+    return first;
+  }
+
+  /**
+   * Find first event, and move current position to its bucket.
+   */
+  private TimeEvent findFirst() {
+    if (size == 0) {
+      return null;
+    }
+
+    /* Search one year ahead for the next event */
+    int bucket = lastBucket;
+    long top = bucketTop;
+    for (int n = 0; n < heads.length; n++) {
+      TimeEvent event = heads[bucket];
+      if (event != null && event.time < top) {
+        lastBucket = bucket;
+        bucketTop = top;
+        return event;
+      }
+      bucket = (bucket + 1) & mask;
+      top += width;
+    }
+
+    /* No event within a year: direct search */
+    TimeEvent first = null;
+    for (TimeEvent event: heads) {
+      if (event != null && (first == null || EventQueue.before(event, first))) {
+        first = event;
+      }
+    }
+    setPosition(first.time);
+    return first;
+  }
+
+  private void allocate(int buckets, long width) {
+    heads = new TimeEvent[buckets];
+    tails = new TimeEvent[buckets];
+    mask = buckets - 1;
+    this.width = width;
+  }
+
+  private void setPosition(long time) {
+    long slot = Math.floorDiv(time, width);
+    lastBucket = (int) (slot & mask);
+    bucketTop = (slot + 1) * width;
+  }
+
+  private void enqueue(TimeEvent event) {
+    if (event.time < bucketTop - width) {
+      /* Event precedes current position */
+      setPosition(event.time);
+    }
+
+    int bucket = (int) (Math.floorDiv(event.time, width) & mask);
+    event.queueIndex = bucket;
+
+    /* Most events are inserted after all others in their bucket: search from tail */
+    TimeEvent after = tails[bucket];
+    while (after != null && EventQueue.before(event, after)) {
+      after = after.prev;
+    }
+    event.prev = after;
+    if (after == null) {
+      event.next = heads[bucket];
+      heads[bucket] = event;
+    } else {
+      event.next = after.next;
+      after.next = event;
+    }
+    if (event.next == null) {
+      tails[bucket] = event;
+    } else {
+      event.next.prev = event;
+    }
+  }
+
+  private void unlink(TimeEvent event) {
+    int bucket = event.queueIndex;
+    if (event.prev == null) {
+      heads[bucket] = event.next;
+    } else {
+      event.prev.next = event.next;
+    }
+    if (event.next == null) {
+      tails[bucket] = event.prev;
+    } else {
+      event.next.prev = event.prev;
+    }
+    event.next = null;
+    event.prev = null;
+    event.queueIndex = -1;
+  }
+
+  private void resize(int buckets) {
+    long newWidth = estimateWidth();
+
+    /* Unlink all events, remembering the earliest time */
+    TimeEvent all = null;
+    long earliest = Long.MAX_VALUE;
+    for (TimeEvent event: heads) {
+      while (event != null) {
+        TimeEvent next = event.next;
+        earliest = Math.min(earliest, event.time);
+        event.next = all;
+        all = event;
+        event = next;
+      }
+    }
+
+    allocate(buckets, newWidth);
+    setPosition(earliest == Long.MAX_VALUE ? 0 : earliest);
+    while (all != null) {
+      TimeEvent next = all.next;
+      all.next = null;
+      all.prev = null;
+      enqueue(all);
+      all = next;
+    }
+  }
+
+  /**
+   * Estimate bucket width from the average separation of the earliest
+   * events, ignoring separations larger than twice the average.
+   */
+  private long estimateWidth() {
+    int n = Math.min(size, SAMPLE_SIZE);
+    if (n < 2) {
+      return width;
+    }
+
+    TimeEvent[] earliest = new TimeEvent[n];
+    for (int i = 0; i < n; i++) {
+      earliest[i] = pollFirst();
+      sample[i] = earliest[i].time;
+    }
+    for (TimeEvent event: earliest) {
+      enqueue(event);
+    }
+    size += n;
+
+    long total = sample[n - 1] - sample[0];
+    if (total == 0) {
+      return width;
+    }
+    double average = (double) total / (n - 1);
+    long sum = 0;
+    int count = 0;
+    for (int i = 1; i < n; i++) {
+      long separation = sample[i] - sample[i - 1];
+      if (separation <= 2 * average) {
+        sum += separation;
+        count++;
+      }
+    }
+    return Math.max(1, 3 * sum / count);
+  }
+}
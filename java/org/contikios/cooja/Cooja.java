@@ -70,12 +70,15 @@ import java.security.AccessControlException;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -265,6 +268,8 @@ public class Cooja extends Observable {
     "PATH_OBJCOPY",
     "PATH_JAVAC",
 
+    "BUILD_CACHE_DIR", "BUILD_CACHE_MAX_SIZE",
+
     "CONTIKI_STANDARD_PROCESSES",
 
     "CMD_GREP_PROCESSES", "REGEXP_PARSE_PROCESSES",
@@ -359,6 +364,13 @@ public class Cooja extends Observable {
   }
   private ArrayList<MoteRelation> moteRelations = new ArrayList<MoteRelation>();
 
+  /* Called instead of System.exit() on quit, when several simulations share this JVM */
+  private IntConsumer quitHandler = null;
+  private ShutdownHandler shutdownHandler;
+
+  /* Output file of non-visualized test scripts */
+  private File testLogFile = new File("COOJA.testlog");
+
   /**
    * Creates a new COOJA Simulator GUI.
    *
@@ -383,9 +395,7 @@ public class Cooja extends Observable {
     quickHelpScroll.setVisible(false);
     loadQuickHelp("GETTING_STARTED");
 
-    // Load default and overwrite with user settings (if any)
-    loadExternalToolsDefaultSettings();
-    loadExternalToolsUserSettings();
+    loadExternalToolsSettingsOnce();
 
     final boolean showQuickhelp = getExternalToolsSetting("SHOW_QUICKHELP", "true").equalsIgnoreCase("true");
     if (showQuickhelp) {
@@ -461,7 +471,40 @@ public class Cooja extends Observable {
       }
     }
 
-    Runtime.getRuntime().addShutdownHook(new ShutdownHandler(this));
+    shutdownHandler = new ShutdownHandler(this);
+    Runtime.getRuntime().addShutdownHook(shutdownHandler);
+  }
+
+  /**
+   * Sets a handler called with the exit code when this simulator quits,
+   * instead of exiting the JVM. Used when several simulations run in one JVM.
+   *
+   * @see BatchRunner
+   * @param quitHandler Quit handler, or null to exit the JVM
+   */
+  public void setQuitHandler(IntConsumer quitHandler) {
+    this.quitHandler = quitHandler;
+  }
+
+  /**
+   * @return True if quitting does not exit the JVM
+   */
+  public boolean hasQuitHandler() {
+    return quitHandler != null;
+  }
+
+  /**
+   * @return Output file of non-visualized test scripts
+   */
+  public File getTestLogFile() {
+    return testLogFile;
+  }
+
+  /**
+   * @param testLogFile Output file of non-visualized test scripts
+   */
+  public void setTestLogFile(File testLogFile) {
+    this.testLogFile = testLogFile;
   }
 
 
@@ -1289,11 +1332,27 @@ public class Cooja extends Observable {
   }
 
   public static Simulation quickStartSimulationConfig(File config, boolean vis, Long manualRandomSeed) {
+    return quickStartSimulationConfig(config, vis, manualRandomSeed, null);
+  }
+
+  /**
+   * Creates a simulator and loads the given simulation config.
+   *
+   * @param config Simulation config
+   * @param vis True if visualized
+   * @param manualRandomSeed Random seed, or null to use the config
+   * @param setup Called with the new simulator before the config is loaded, may be null
+   * @return Simulation, or null on failure
+   */
+  static Simulation quickStartSimulationConfig(File config, boolean vis, Long manualRandomSeed, Consumer<Cooja> setup) {
     JDesktopPane desktop = createDesktopPane();
     if (vis) {
       frame = new JFrame(WINDOW_TITLE);
     }
     Cooja gui = new Cooja(desktop);
+    if (setup != null) {
+      setup.accept(gui);
+    }
     if (vis) {
       configureFrame(gui, false);
     }
@@ -1316,6 +1375,48 @@ public class Cooja extends Observable {
     }
   }
 
+  /**
+   * Loads default and overwrites with user settings (if any).
+   * Only loaded once, since batch runs create several instances concurrently.
+   */
+  static void loadExternalToolsSettingsOnce() {
+    synchronized (Cooja.class) {
+      if (currentExternalToolsSettings == null) {
+        loadExternalToolsDefaultSettings();
+        loadExternalToolsUserSettings();
+      }
+    }
+  }
+
+  /**
+   * Creates a non-visualized simulator and loads the given simulation config,
+   * read from the given file and possibly modified.
+   *
+   * @param config Simulation config file, used to resolve relative paths
+   * @param root Simulation config root element
+   * @param manualRandomSeed Random seed, or null to use the config
+   * @param setup Called with the new simulator before the config is loaded, may be null
+   * @return Simulation, or null on failure
+   */
+  static Simulation quickStartSimulationConfig(File config, Element root, Long manualRandomSeed, Consumer<Cooja> setup) {
+    Cooja gui = new Cooja(createDesktopPane());
+    if (setup != null) {
+      setup.accept(gui);
+    }
+
+    try {
+      Simulation newSim = gui.loadSimulationConfig(config, root, true, manualRandomSeed);
+      if (newSim == null) {
+        return null;
+      }
+      gui.setSimulation(newSim, false);
+      return newSim;
+    } catch (Exception e) {
+      logger.fatal("Exception when loading simulation: ", e);
+      return null;
+    }
+  }
+
   /**
    * Allows user to create a simulation with a single mote type.
    *
@@ -2694,6 +2795,17 @@ public class Cooja extends Observable {
       removePlugin((Plugin) plugin, false);
     }
 
+    if (quitHandler != null) {
+      /* Other simulations may still be running in this JVM */
+      try {
+        Runtime.getRuntime().removeShutdownHook(shutdownHandler);
+      } catch (IllegalStateException e) {
+        /* Already shutting down */
+      }
+      quitHandler.accept(exitCode);
+      return;
+    }
+
     /* Store frame size and position */
     if (isVisualizedInFrame()) {
       setExternalToolsSetting("FRAME_SCREEN", frame.getGraphicsConfiguration().getDevice().getIDstring());
@@ -3102,6 +3214,51 @@ public class Cooja extends Observable {
     return null;
   }
 
+  /**
+   * Makes sure that a non-visualized simulation has at least one plugin controlling it.
+   * Old style simulations with an external test script get a test editor started.
+   *
+   * @param gui Simulator
+   * @param sim Simulation
+   * @param config Simulation config path
+   * @return True if the simulation is controlled by a plugin
+   */
+  static boolean startSimulationController(Cooja gui, Simulation sim, String config) {
+    /* Make sure at least one plugin controlling the simulation */
+    boolean hasController = false;
+    for (Plugin startedPlugin : gui.startedPlugins) {
+    	int pluginType = startedPlugin.getClass().getAnnotation(PluginType.class).value();
+    	if (pluginType == PluginType.SIM_CONTROL_PLUGIN) {
+    	  hasController = true;
+    	}
+    }
+
+    /* Backwards compatibility:
+     * simulation has no control plugin, but has external (old style) test script.
+     * We will manually start a test editor from here. */
+    if (!hasController) {
+      File scriptFile = new File(config.substring(0, config.length()-4) + ".js");
+      if (scriptFile.exists()) {
+        logger.info("Detected old simulation test, starting test editor manually from: " + scriptFile);
+        ScriptRunner plugin = (ScriptRunner) gui.tryStartPlugin(ScriptRunner.class, gui, sim, null);
+        if (plugin == null) {
+          return false;
+        }
+        plugin.updateScript(scriptFile);
+        try {
+          plugin.setScriptActive(true);
+        } catch (Exception e) {
+          logger.fatal("Error: " + e.getMessage(), e);
+          return false;
+        }
+      } else {
+        logger.fatal("No plugin controlling simulation, aborting");
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Load configurations and create a GUI.
    *
@@ -3243,38 +3400,14 @@ public class Cooja extends Observable {
       }
       Cooja gui = sim.getCooja();
 
-      /* Make sure at least one plugin controlling the simulation */
-      boolean hasController = false;
-      for (Plugin startedPlugin : gui.startedPlugins) {
-    	int pluginType = startedPlugin.getClass().getAnnotation(PluginType.class).value();
-    	if (pluginType == PluginType.SIM_CONTROL_PLUGIN) {
-    	  hasController = true;
-    	}
+      if (!startSimulationController(gui, sim, config)) {
+        System.exit(1);
       }
+    } else if (args.length > 0 && args[0].startsWith("-batch=")) {
 
-      /* Backwards compatibility:
-       * simulation has no control plugin, but has external (old style) test script.
-       * We will manually start a test editor from here. */
-      if (!hasController) {
-        File scriptFile = new File(config.substring(0, config.length()-4) + ".js");
-        if (scriptFile.exists()) {
-          logger.info("Detected old simulation test, starting test editor manually from: " + scriptFile);
-          ScriptRunner plugin = (ScriptRunner) gui.tryStartPlugin(ScriptRunner.class, gui, sim, null);
-          if (plugin == null) {
-            System.exit(1);
-          }
-          plugin.updateScript(scriptFile);
-          try {
-            plugin.setScriptActive(true);
-          } catch (Exception e) {
-            logger.fatal("Error: " + e.getMessage(), e);
-            System.exit(1);
-          }
-        } else {
-          logger.fatal("No plugin controlling simulation, aborting");
-          System.exit(1);
-        }
-      }
+      /* Run many seeds of a simulation in this JVM */
+      String config = args[0].substring("-batch=".length());
+      System.exit(BatchRunner.run(new File(config), args));
     } else {
       // Frame start-up
       javax.swing.SwingUtilities.invokeLater(new Runnable() {
@@ -3305,11 +3438,7 @@ public class Cooja extends Observable {
    */
   public Simulation loadSimulationConfig(File file, boolean quick, Long manualRandomSeed)
   throws UnsatisfiedLinkError, SimulationCreationException {
-    this.currentConfigFile = file; /* Used to generate config relative paths */
-    try {
-      this.currentConfigFile = this.currentConfigFile.getCanonicalFile();
-    } catch (IOException e) {
-    }
+    setCurrentConfigFile(file);
 
     try {
       SAXBuilder builder = new SAXBuilder();
@@ -3329,6 +3458,29 @@ public class Cooja extends Observable {
     }
   }
 
+  /**
+   * Loads a simulation configuration read from the given file, possibly
+   * modified before loading.
+   *
+   * @param file File the configuration was read from
+   * @param root Configuration root element
+   * @return New simulation or null if recompiling failed or aborted
+   * @see #loadSimulationConfig(File, boolean, Long)
+   */
+  public Simulation loadSimulationConfig(File file, Element root, boolean quick, Long manualRandomSeed)
+  throws SimulationCreationException {
+    setCurrentConfigFile(file);
+    return loadSimulationConfig(root, quick, manualRandomSeed);
+  }
+
+  private void setCurrentConfigFile(File file) {
+    this.currentConfigFile = file; /* Used to generate config relative paths */
+    try {
+      this.currentConfigFile = this.currentConfigFile.getCanonicalFile();
+    } catch (IOException e) {
+    }
+  }
+
   public Simulation loadSimulationConfig(Element root, boolean quick, Long manualRandomSeed)
   throws SimulationCreationException {
     Simulation newSim = null;
@@ -4326,7 +4478,7 @@ public class Cooja extends Observable {
   }
 
   private static JProgressBar PROGRESS_BAR = null;
-  private static ArrayList<String> PROGRESS_WARNINGS = new ArrayList<String>();
+  private static List<String> PROGRESS_WARNINGS = Collections.synchronizedList(new ArrayList<String>());
   public static void setProgressMessage(String msg) {
     setProgressMessage(msg, MessageListUI.NORMAL);
   }
@@ -31,9 +31,13 @@ package org.contikios.cooja;
 import java.io.*;
 import java.lang.reflect.*;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.util.Vector;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.contikios.cooja.MoteType.MoteTypeCreationException;
+import org.contikios.cooja.contikimote.BuildCache;
 import org.contikios.cooja.contikimote.ContikiMoteType;
 import org.contikios.cooja.dialogs.MessageContainer;
 import org.contikios.cooja.dialogs.MessageList;
@@ -55,6 +59,11 @@ import org.contikios.cooja.dialogs.MessageList;
  * same corecomm class without restarting the JVM and thus the entire
  * simulation.
  *
+ * Private copies of a library are loaded from copied library files, each by
+ * its own instance of the library's corecomm class, defined in a separate
+ * class loader. Native methods are bound per class loader, so each copy
+ * gets its own Contiki memory image.
+ *
  * Each implemented CoreComm class needs read access to the following core
  * variables:
  * <ul>
@@ -67,10 +76,16 @@ import org.contikios.cooja.dialogs.MessageList;
  * <li>getReferenceAbsAddr()
  * <li>getMemory(int start, int length, byte[] mem)
  * <li>setMemory(int start, int length, byte[] mem)
+ * </ul>
+ * and optionally:
+ * <ul>
+ * <li>getMemoryBuffer(long start, int length)
+ * </ul>
  *
  * @author Fredrik Osterlind
  */
 public abstract class CoreComm {
+  private static final Logger logger = LogManager.getLogger(CoreComm.class);
 
   // Static pointers to current libraries
   private final static Vector<CoreComm> coreComms = new Vector<CoreComm>();
@@ -110,13 +125,13 @@ public abstract class CoreComm {
   }
 
   /**
-   * Get the class name of next free core communicator class. If null is
+   * Reserve the class name of next free core communicator class. If null is
    * returned, no classes are available.
    *
    * @return Class name
    */
-  public static String getAvailableClassName() {
-    return "Lib" + fileCounter;
+  public static synchronized String getAvailableClassName() {
+    return "Lib" + fileCounter++;
   }
 
   /**
@@ -262,6 +277,10 @@ public abstract class CoreComm {
   /**
    * Loads given Java class file from disk.
    *
+   * The class is defined by a new class loader, also if it is found on the
+   * class path. Native methods bind to the libraries loaded by the class
+   * loader of their class, so every loaded class binds its own library.
+   *
    * @param className Java class name
    * @return Loaded class
    * @throws MoteTypeCreationException If error occurs
@@ -269,12 +288,29 @@ public abstract class CoreComm {
   public static Class<?> loadClassFile(String className)
       throws MoteTypeCreationException {
     Class<?> loadedClass = null;
+    final String fullClassName = "org.contikios.cooja.corecomm." + className;
     try {
       ClassLoader urlClassLoader = new URLClassLoader(
           new URL[] { new File(".").toURI().toURL() },
-          CoreComm.class.getClassLoader());
-      loadedClass = urlClassLoader.loadClass("org.contikios.cooja.corecomm."
-          + className);
+          CoreComm.class.getClassLoader()) {
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+          if (!name.equals(fullClassName)) {
+            return super.loadClass(name, resolve);
+          }
+          synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+              c = findClass(name);
+            }
+            if (resolve) {
+              resolveClass(c);
+            }
+            return c;
+          }
+        }
+      };
+      loadedClass = urlClassLoader.loadClass(fullClassName);
 
     } catch (MalformedURLException e) {
       throw (MoteTypeCreationException) new MoteTypeCreationException(
@@ -307,24 +343,87 @@ public abstract class CoreComm {
       throws MoteTypeCreationException {
     generateLibSourceFile(className);
 
-    compileSourceFile(className);
+    /* Skip javac if an identical class is cached */
+    File sourceFile = new File("org/contikios/cooja/corecomm/" + className + ".java");
+    File classFile = new File("org/contikios/cooja/corecomm/" + className + ".class");
+    String buildKey = null;
+    if (BuildCache.isEnabled()) {
+      try {
+        buildKey = new BuildCache.Key("corecomm")
+            .addFile(sourceFile)
+            .add(System.getProperty("java.specification.version"))
+            .addExecutable(Cooja.getExternalToolsSetting("PATH_JAVAC"), System.getenv("PATH"))
+            .build();
+      } catch (IOException e) {
+        logger.warn("Build cache disabled for " + className + ": " + e.getMessage());
+      }
+    }
+    if (buildKey == null || !BuildCache.restore(buildKey, classFile)) {
+      compileSourceFile(className);
+      if (buildKey != null) {
+        BuildCache.store(buildKey, classFile);
+      }
+    }
 
-    Class newCoreCommClass = loadClassFile(className);
+    return newCoreComm(className, libFile);
+  }
 
+  /**
+   * Creates a core communicator for a private copy of a native library already
+   * loaded by {@link #createCoreComm(String, File)}. The library is copied to
+   * copyFile, and loaded by a new instance of the same corecomm class.
+   *
+   * @param className
+   *          Class name of the core communicator of the original library
+   * @param libFile
+   *          Native library file
+   * @param copyFile
+   *          Library copy file, must not have been loaded before
+   * @return Core Communicator
+   */
+  public static CoreComm createCoreCommCopy(String className, File libFile, File copyFile)
+      throws MoteTypeCreationException {
+    if (hasLibraryFileBeenLoaded(copyFile)) {
+      throw new MoteTypeCreationException("Library copy already loaded: " + copyFile);
+    }
     try {
-      Constructor constr = newCoreCommClass
-          .getConstructor(new Class[] { File.class });
-      CoreComm newCoreComm = (CoreComm) constr
-          .newInstance(new Object[] { libFile });
+      java.nio.file.Files.copy(libFile.toPath(), copyFile.toPath(),
+          java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      throw (MoteTypeCreationException) new MoteTypeCreationException(
+          "Error when copying library: " + copyFile).initCause(e);
+    }
+    copyFile.deleteOnExit();
+
+    /* A new class loader defines a new class, which binds the copy's natives */
+    return newCoreComm(className, copyFile);
+  }
+
+  /**
+   * Loads the given core communicator class, and creates an instance of it
+   * loading the given library.
+   *
+   * @param className
+   *          Class name of core communicator
+   * @param libFile
+   *          Native library file
+   * @return Core Communicator
+   */
+  private static CoreComm newCoreComm(String className, File libFile)
+      throws MoteTypeCreationException {
+    Class<?> newCoreCommClass = loadClassFile(className);
+
+    try {
+      Constructor<?> constr = newCoreCommClass.getConstructor(File.class);
+      CoreComm newCoreComm = (CoreComm) constr.newInstance(libFile);
 
       coreComms.add(newCoreComm);
       coreCommFiles.add(libFile);
-      fileCounter++;
 
       return newCoreComm;
     } catch (Exception e) {
       throw (MoteTypeCreationException) new MoteTypeCreationException(
-          "Error when creating corecomm instance: " + className).initCause(e);
+          "Error when creating corecomm instance: " + className + " for " + libFile).initCause(e);
     }
   }
 
@@ -366,4 +465,20 @@ public abstract class CoreComm {
    */
   public abstract void setMemory(long relAddr, int length, byte[] mem);
 
+  /**
+   * Returns a direct byte buffer over the memory segment identified by start
+   * and length, allowing Java to access the memory without JNI array copies.
+   *
+   * Libraries not exporting this function either return null or throw
+   * UnsatisfiedLinkError, in which case getMemory() and setMemory()
+   * should be used instead.
+   *
+   * @param relAddr Relative memory start address
+   * @param length Length of segment
+   * @return Direct buffer, or null if not supported
+   */
+  public ByteBuffer getMemoryBuffer(long relAddr, int length) {
+    return null;
+  }
+
 }
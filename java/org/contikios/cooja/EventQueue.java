@@ -30,59 +30,73 @@
 
 package org.contikios.cooja;
 
-import java.util.PriorityQueue;
 import java.util.function.Predicate;
 
 /**
+ * Simulation event queue.
+ *
+ * Events are ordered by execution time, with insertion order as tie
+ * breaker. The events are stored in a selectable backend: an indexed binary
+ * heap (default), or a calendar queue suited for simulations where most
+ * events are scheduled in the near future. Both backends execute events in
+ * the same order.
+ *
  * @author Joakim Eriksson (ported to COOJA by Fredrik Osterlind)
  */
 public final class EventQueue {
+  public static final String BACKEND_HEAP = "heap";
+  public static final String BACKEND_CALENDAR = "calendar";
 
   private long count = 0;
 
-  public final class Pair implements Comparable<Pair> {
-    public final TimeEvent event;
-    public final long time;
+  private String backend = BACKEND_HEAP;
+  private EventScheduler scheduler = new HeapEventScheduler();
 
-    private final long uuid;
+  /**
+   * @return Names of available backends
+   */
+  public static String[] getBackends() {
+    return new String[] { BACKEND_HEAP, BACKEND_CALENDAR };
+  }
+
+  /**
+   * @return Current backend name
+   */
+  public String getBackend() {
+    return backend;
+  }
+
+  /**
+   * Change event queue backend.
+   * Already queued events are moved to the new backend.
+   *
+   * Should only be called from simulation thread!
+   *
+   * @param name Backend name
+   * @throws IllegalArgumentException If backend is unknown
+   */
+  public void setBackend(String name) {
+    if (backend.equals(name)) {
+      return;
+    }
 
-    public Pair(TimeEvent event, long time, long uuid) {
-      this.event = event;
-      this.time = time;
-      this.uuid = uuid;
+    EventScheduler newScheduler;
+    if (BACKEND_HEAP.equals(name)) {
+      newScheduler = new HeapEventScheduler();
+    } else if (BACKEND_CALENDAR.equals(name)) {
+      newScheduler = new CalendarEventScheduler();
+    } else {
+      throw new IllegalArgumentException("Unknown event queue backend: " + name);
     }
 
-    @Override
-    public final int compareTo(Pair other) {
-      if (time < other.time)
-      {
-        return -1;
-      }
-      else if (time > other.time)
-      {
-        return +1;
-      }
-      else
-      {
-        // Tie breaker, to prioritise events based on insertion order
-        if (uuid < other.uuid)
-        {
-          return -1;
-        }
-        else if (uuid > other.uuid)
-        {
-          return +1;
-        }
-        else
-        {
-          throw new RuntimeException("Bad compare");
-        }
-      }
+    TimeEvent event;
+    while ((event = scheduler.poll()) != null) {
+      newScheduler.insert(event);
     }
+    scheduler = newScheduler;
+    backend = name;
   }
 
-  private final PriorityQueue<Pair> queue = new PriorityQueue<Pair>();
-
   /**
    * Should only be called from simulation thread!
    *
@@ -100,7 +114,9 @@ public final class EventQueue {
     // Each event is given a monotonically increasing unique id.
     // This is used in a tiebreaker in the queue, so events that are
     // inserted earlier are executed first.
-    queue.add(new Pair(event, time, count++));
+    event.time = time;
+    event.uuid = count++;
+    scheduler.insert(event);
 
     event.setScheduled(true);
   }
@@ -112,9 +128,7 @@ public final class EventQueue {
    * @return True if event was removed
    */
   private boolean removeFromQueue(TimeEvent event) {
-    boolean removed = queue.removeIf((Pair p) -> p.event == event);
-
-    assert removed == event.isQueued();
+    boolean removed = scheduler.remove(event);
 
     if (removed)
     {
@@ -125,7 +139,10 @@ public final class EventQueue {
   }
 
   public void clear() {
-    queue.clear();
+    scheduler.removeIf((TimeEvent event) -> {
+      event.setScheduled(false);
+      return true;
+    });
   }
 
   /**
@@ -133,43 +150,84 @@ public final class EventQueue {
    *
    * @return Event
    */
-  public Pair popFirst() {
-    Pair tmp;
+  public TimeEvent popFirst() {
+    TimeEvent event;
 
-    while (true)
-    {
-      tmp = queue.poll();
+    while ((event = scheduler.poll()) != null) {
+      boolean scheduled = event.isScheduled();
+
+      // No longer scheduled or queued
+      event.setScheduled(false);
 
-      if (tmp == null) {
-        return null;
+      if (scheduled) {
+        return event;
       }
 
-      boolean scheduled = tmp.event.isScheduled();
+      // If not scheduled, then find the next scheduled event
+    }
+    return null;
+  }
 
-      // No longer scheduled or queued
-      tmp.event.setScheduled(false);
+  /**
+   * Should only be called from simulation thread!
+   *
+   * @return First event, which is kept in the queue, or null
+   */
+  public TimeEvent peekFirst() {
+    TimeEvent event;
 
-      if (scheduled)
-      {
-        break;
+    while ((event = scheduler.peek()) != null) {
+      if (event.isScheduled()) {
+        return event;
       }
 
-      // If not scheduled, then find the next scheduled event
+      // Not scheduled: drop it, as popFirst() would
+      scheduler.poll();
+      event.setScheduled(false);
     }
+    return null;
+  }
 
-    return tmp;
+  /**
+   * Puts back an event returned by {@link #popFirst()}, at its previous
+   * position in the queue.
+   *
+   * Should only be called from simulation thread!
+   *
+   * @param event Event
+   */
+  public void reinsert(TimeEvent event) {
+    /* Keeps its time and insertion id */
+    scheduler.insert(event);
+    event.setScheduled(true);
   }
 
   public boolean isEmpty() {
-    return queue.isEmpty();
+    return scheduler.size() == 0;
   }
 
   public boolean removeIf(final Predicate<TimeEvent> pred) {
-    return queue.removeIf((Pair p) -> pred.test(p.event));
+    return scheduler.removeIf((TimeEvent event) -> {
+      if (!pred.test(event)) {
+        return false;
+      }
+      event.setScheduled(false);
+      return true;
+    });
+  }
+
+  /**
+   * @return True if event a is to be executed before event b
+   */
+  static boolean before(TimeEvent a, TimeEvent b) {
+    if (a.time != b.time) {
+      return a.time < b.time;
+    }
+    return a.uuid < b.uuid;
   }
 
   @Override
   public String toString() {
-    return "EventQueue with " + queue.size() + " events";
+    return "EventQueue (" + backend + ") with " + scheduler.size() + " events";
   }
 }
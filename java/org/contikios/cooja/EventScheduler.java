@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja;
+
+import java.util.function.Predicate;
+
+/**
+ * Storage backend of the simulation event queue.
+ *
+ * Implementations order events by execution time, using the insertion id
+ * assigned by {@link EventQueue} as tie breaker. All backends must produce
+ * exactly the same event order, so that simulations are reproducible
+ * regardless of the selected backend.
+ *
+ * @see EventQueue
+ */
+interface EventScheduler {
+
+  /**
+   * Insert event. The execution time and insertion id have already been
+   * assigned to the event.
+   *
+   * @param event Event
+   */
+  void insert(TimeEvent event);
+
+  /**
+   * @param event Event
+   * @return True if event was stored in, and now removed from, this scheduler
+   */
+  boolean remove(TimeEvent event);
+
+  /**
+   * Remove and return first event.
+   *
+   * @return Event or null if empty
+   */
+  TimeEvent poll();
+
+  /**
+   * Return first event, without removing it.
+   *
+   * @return Event or null if empty
+   */
+  TimeEvent peek();
+
+  /**
+   * Remove all events matching the given predicate.
+   *
+   * @param pred Predicate
+   * @return True if any event was removed
+   */
+  boolean removeIf(Predicate<TimeEvent> pred);
+
+  int size();
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja;
+
+import java.util.Arrays;
+import java.util.function.Predicate;
+
+/**
+ * Indexed binary heap event scheduler.
+ *
+ * Each queued event knows its own heap slot, so removing an already queued
+ * event costs O(log n).
+ */
+final class HeapEventScheduler implements EventScheduler {
+  private static final int INITIAL_CAPACITY = 64;
+
+  private TimeEvent[] heap = new TimeEvent[INITIAL_CAPACITY];
+  private int size = 0;
+
+  @Override
+  public void insert(TimeEvent event) {
+    if (size == heap.length) {
+      heap = Arrays.copyOf(heap, size * 2);
+    }
+    siftUp(size++, event);
+  }
+
+  @Override
+  public boolean remove(TimeEvent event) {
+    int index = event.queueIndex;
+    if (index < 0 || index >= size || heap[index] != event) {
+      return false;
+    }
+    removeAt(index);
+    return true;
+  }
+
+  @Override
+  public TimeEvent poll() {
+    if (size == 0) {
+      return null;
+    }
+    TimeEvent first = heap[0];
+    removeAt(0);
+    return first;
+  }
+
+  @Override
+  public TimeEvent peek() {
+    return heap[0];
+  }
+
+  @Override
+  public boolean removeIf(Predicate<TimeEvent> pred) {
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      TimeEvent event = heap[i];
+      if (pred.test(event)) {
+        event.queueIndex = -1;
+      } else {
+        heap[kept++] = event;
+      }
+    }
+    if (kept == size) {
+      return false;
+    }
+    Arrays.fill(heap, kept, size, null);
+    size = kept;
+
+    /* Restore heap property */
+    for (int i = 0; i < size; i++) {
+      heap[i].queueIndex = i;
+    }
+    for (int i = (size >>> 1) - 1; i >= 0; i--) {
+      siftDown(i, heap[i]);
+    }
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  private void removeAt(int index) {
+    heap[index].queueIndex = -1;
+
+    int last = --size;
+    TimeEvent moved = heap[last];
+    heap[last] = null;
+    if (index == last) {
+      return;
+    }
+
+    siftDown(index, moved);
+    if (heap[index] == moved) {
+      siftUp(index, moved);
+    }
+  }
+
+  private void siftUp(int index, TimeEvent event) {
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      TimeEvent p = heap[parent];
+      if (!EventQueue.before(event, p)) {
+        break;
+      }
+      heap[index] = p;
+      p.queueIndex = index;
+      index = parent;
+    }
+    heap[index] = event;
+    event.queueIndex = index;
+  }
+
+  private void siftDown(int index, TimeEvent event) {
+    int half = size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      TimeEvent c = heap[child];
+      int right = child + 1;
+      if (right < size && EventQueue.before(heap[right], c)) {
+        child = right;
+        c = heap[child];
+      }
+      if (!EventQueue.before(c, event)) {
+        break;
+      }
+      heap[index] = c;
+      c.queueIndex = index;
+      index = child;
+    }
+    heap[index] = event;
+    event.queueIndex = index;
+  }
+}
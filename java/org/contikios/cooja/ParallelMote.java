@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja;
+
+/**
+ * A mote whose execution can be split into steps that interact with the
+ * rest of the simulation, and a step that only touches the mote's own state.
+ *
+ * With an approximate parallel lookahead configured, the simulation executes
+ * mote events close in time as one window: all prepare steps in event order,
+ * then the execute steps of different partitions concurrently, and finally
+ * all finish steps in event order. Results then differ from executing the
+ * events one by one.
+ *
+ * @see Simulation#setApproximateParallelLookahead(long)
+ */
+public interface ParallelMote extends Mote {
+
+  /**
+   * @param event Event of this mote
+   * @return True if the event may be executed as prepare, execute and finish steps
+   */
+  public boolean isParallelEvent(TimeEvent event);
+
+  /**
+   * Motes of the same partition share state, and never execute concurrently.
+   *
+   * @return Partition
+   */
+  public Object getPartition();
+
+  /**
+   * Called from the simulation thread before executing.
+   *
+   * @param time Simulation time
+   * @return True if the execute and finish steps should follow
+   */
+  public boolean prepareStep(long time);
+
+  /**
+   * May be called from any thread, concurrently with motes of other
+   * partitions. Must only access the mote itself and its partition.
+   */
+  public void executeStep();
+
+  /**
+   * Called from the simulation thread after executing.
+   */
+  public void finishStep();
+}
@@ -31,6 +31,9 @@
 package org.contikios.cooja;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -50,6 +53,10 @@ import org.contikios.cooja.interfaces.Radio;
  * Typically, however, all destination radios (including those that are interfered)
  * receive the connection data.
  * And the interfered non-destination radios do not receive the connection data.
+ *
+ * Radios are kept in identity hash sets for constant time membership tests.
+ * Insertion order is kept by separate lists of all destinations and all
+ * interfered radios, which the returned arrays are filtered from.
  * 
  * @see RadioMedium
  * @author Fredrik Osterlind
@@ -62,12 +69,14 @@ public class RadioConnection {
 
   private Radio source;
   
-  private ArrayList<Radio> allDestinations = new ArrayList<Radio>();
-  private ArrayList<Long> allDestinationDelays = new ArrayList<Long>();
+  /* All destinations, and their propagation delays */
+  private IdentityHashMap<Radio, Long> allDestinations = new IdentityHashMap<Radio, Long>();
+  private ArrayList<Radio> destinationOrder = new ArrayList<Radio>();
 
-  private ArrayList<Radio> allInterfered = new ArrayList<Radio>();
-  private ArrayList<Radio> onlyInterfered = new ArrayList<Radio>();
-  private ArrayList<Radio> destinationsNonInterfered = new ArrayList<Radio>();
+  private Set<Radio> allInterfered = newRadioSet();
+  private ArrayList<Radio> interferedOrder = new ArrayList<Radio>();
+  private Set<Radio> onlyInterfered = newRadioSet();
+  private Set<Radio> destinationsNonInterfered = newRadioSet();
   
   private long startTime;
 
@@ -83,6 +92,22 @@ public class RadioConnection {
     this.id = ID++;
   }
 
+  private static Set<Radio> newRadioSet() {
+    return Collections.newSetFromMap(new IdentityHashMap<Radio, Boolean>());
+  }
+
+  /* Radios in order that are also members of the given set */
+  private static Radio[] filter(ArrayList<Radio> order, Set<Radio> members) {
+    Radio[] radios = new Radio[members.size()];
+    int n = 0;
+    for (Radio radio: order) {
+      if (members.contains(radio)) {
+        radios[n++] = radio;
+      }
+    }
+    return radios;
+  }
+
   /**
    * @return Radio connection start time
    */
@@ -114,14 +139,12 @@ public class RadioConnection {
    * @param radio Radio
    */
   public void removeDestination(Radio radio) {
-    int idx = allDestinations.indexOf(radio);
-    if (idx < 0) {
+    if (allDestinations.remove(radio) == null) {
       logger.fatal("Radio is not a connection destination: " + radio);
       return;
     }
+    destinationOrder.remove(radio);
     
-    allDestinations.remove(idx);
-    allDestinationDelays.remove(idx);
     destinationsNonInterfered.remove(radio);
     onlyInterfered.remove(radio);
   }
@@ -137,8 +160,9 @@ public class RadioConnection {
       logger.fatal("Radio is already a destination: " + radio);
       return;
     }
-    allDestinations.add(radio);
-    allDestinationDelays.add(delay);
+    if (allDestinations.put(radio, delay) == null) {
+      destinationOrder.add(radio);
+    }
     destinationsNonInterfered.add(radio);
     onlyInterfered.remove(radio);
   }
@@ -148,12 +172,12 @@ public class RadioConnection {
    * @return Radio propagation delay (us)
    */
   public long getDestinationDelay(Radio radio) {
-    int idx = allDestinations.indexOf(radio);
-    if (idx < 0) {
+    Long delay = allDestinations.get(radio);
+    if (delay == null) {
       logger.fatal("Radio is not a connection destination: " + radio);
       return 0;
     }
-    return allDestinationDelays.get(idx);
+    return delay;
 
   }
 
@@ -172,6 +196,7 @@ public class RadioConnection {
     }
 
     allInterfered.add(radio);
+    interferedOrder.add(radio);
     destinationsNonInterfered.remove(radio);
     if (!isDestination(radio)) {
       onlyInterfered.add(radio);
@@ -206,7 +231,7 @@ public class RadioConnection {
    * @return All non-interfered destinations
    */
   public Radio[] getDestinations() {
-    return destinationsNonInterfered.toArray(new Radio[0]);
+    return filter(destinationOrder, destinationsNonInterfered);
   }
 
   /**
@@ -215,18 +240,18 @@ public class RadioConnection {
    * interfered after the connection started.
    */
   public Radio[] getAllDestinations() {
-    return allDestinations.toArray(new Radio[0]);
+    return destinationOrder.toArray(new Radio[0]);
   }
 
   /**
    * @return All radios interfered by this connection, including destinations
    */
   public Radio[] getInterfered() {
-    return allInterfered.toArray(new Radio[0]);
+    return interferedOrder.toArray(new Radio[0]);
   }
 
   public Radio[] getInterferedNonDestinations() {
-    return onlyInterfered.toArray(new Radio[0]);
+    return filter(interferedOrder, onlyInterfered);
   }
 
   @Override
@@ -235,7 +260,7 @@ public class RadioConnection {
       return id + ": Radio connection: " + source.getMote() + " -> none";
     }
     if (destinationsNonInterfered.size() == 1) {
-      return id + ": Radio connection: " + source.getMote() + " -> " + destinationsNonInterfered.get(0).getMote();
+      return id + ": Radio connection: " + source.getMote() + " -> " + getDestinations()[0].getMote();
     }
 
     return id + ": Radio connection: " + source.getMote() + " -> " + destinationsNonInterfered.size() + " motes";
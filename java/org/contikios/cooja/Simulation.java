@@ -28,13 +28,23 @@
 
 package org.contikios.cooja;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Random;
+import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.JOptionPane;
 
@@ -74,6 +84,23 @@ public class Simulation extends Observable implements Runnable {
 
   private long lastStartTime;
   private long currentSimulationTime = 0;
+  private long eventsExecuted = 0;
+
+  /* Approximate parallel execution of mote events: disabled if lookahead is negative */
+  private long approximateParallelLookahead = -1;
+  private int parallelThreads = Runtime.getRuntime().availableProcessors();
+  private ExecutorService parallelExecutor = null;
+  /* Window state, reused between windows */
+  private final ArrayList<ParallelMote> windowMotes = new ArrayList<ParallelMote>();
+  private long[] windowTimes = new long[16];
+  private boolean[] windowExecute = new boolean[16];
+  private final ArrayList<TimeEvent> windowEvents = new ArrayList<TimeEvent>();
+  private final Set<ParallelMote> windowMoteSet = Collections.newSetFromMap(new IdentityHashMap<ParallelMote, Boolean>());
+  private final IdentityHashMap<Object, PartitionTask> windowPartitions = new IdentityHashMap<Object, PartitionTask>();
+  private final ArrayList<PartitionTask> windowTasks = new ArrayList<PartitionTask>();
+  private final ArrayList<PartitionTask> freeTasks = new ArrayList<PartitionTask>();
+  private long windowEnd = -1; /* Time of the last event of the executing window, or -1 */
+  private final Set<TimeEvent> lateEvents = Collections.newSetFromMap(new IdentityHashMap<TimeEvent, Boolean>());
 
   private String title = null;
 
@@ -109,9 +136,10 @@ public class Simulation extends Observable implements Runnable {
   /* Event queue */
   private EventQueue eventQueue = new EventQueue();
 
-  /* Poll requests */
-  private boolean hasPollRequests = false;
-  private ArrayDeque<Runnable> pollRequests = new ArrayDeque<Runnable>();
+  /* Poll requests: posted from any thread, drained by the simulation thread */
+  private final ConcurrentLinkedQueue<Runnable> pollRequests = new ConcurrentLinkedQueue<Runnable>();
+  private final LongAdder pollRequestsPosted = new LongAdder();
+  private final LongAdder pollRequestsDrained = new LongAdder();
 
 
   /**
@@ -119,22 +147,45 @@ public class Simulation extends Observable implements Runnable {
    * Poll requests are prioritized over simulation events, and are
    * executed between each simulation event.
    *
+   * This method is lock-free and may be called from any thread.
+   *
    * @param r Simulation thread action
    */
   public void invokeSimulationThread(Runnable r) {
-    synchronized (pollRequests) {
-      pollRequests.addLast(r);
-      hasPollRequests = true;
-    }
+    pollRequests.offer(r);
+    pollRequestsPosted.increment();
   }
 
-  private Runnable popSimulationInvokes() {
+  /**
+   * Execute all pending poll requests, including requests posted while
+   * draining.
+   */
+  private void executeSimulationInvokes() {
     Runnable r;
-    synchronized (pollRequests) {
-      r = pollRequests.pop();
-      hasPollRequests = !pollRequests.isEmpty();
+    while ((r = pollRequests.poll()) != null) {
+      try {
+        r.run();
+      } finally {
+        /* Also reached from setConfigXML(), possibly off the simulation thread */
+        pollRequestsDrained.increment();
+      }
     }
-    return r;
+  }
+
+  /**
+   * @see #invokeSimulationThread(Runnable)
+   * @return Number of simulation thread requests posted
+   */
+  public long getSimulationInvokesPosted() {
+    return pollRequestsPosted.sum();
+  }
+
+  /**
+   * @see #invokeSimulationThread(Runnable)
+   * @return Number of simulation thread requests executed
+   */
+  public long getSimulationInvokesDrained() {
+    return pollRequestsDrained.sum();
   }
 
   /**
@@ -202,6 +253,10 @@ public class Simulation extends Observable implements Runnable {
       /* TODO Strict scheduling from simulation thread */
       assert isSimulationThread() : "Scheduling event from non-simulation thread: " + e;
     }
+    if (time < windowEnd && time >= currentSimulationTime) {
+      /* Approximate parallel mode: scheduled during a window, before its last event */
+      lateEvents.add(e);
+    }
     eventQueue.addEvent(e, time);
   }
 
@@ -257,6 +312,247 @@ public class Simulation extends Observable implements Runnable {
     }
   };
 
+  /**
+   * Select event queue backend. Already scheduled events are kept.
+   * This method may be called from outside the simulation thread.
+   *
+   * @see EventQueue#getBackends()
+   * @param backend Backend name
+   * @throws IllegalArgumentException If backend is unknown
+   */
+  public void setEventQueueBackend(final String backend) {
+    if (!Arrays.asList(EventQueue.getBackends()).contains(backend)) {
+      throw new IllegalArgumentException("Unknown event queue backend: " + backend);
+    }
+    Runnable r = new Runnable() {
+      @Override
+      public void run() {
+        eventQueue.setBackend(backend);
+      }
+    };
+    if (!isRunning()) {
+      r.run();
+    } else {
+      invokeSimulationThread(r);
+    }
+  }
+
+  /**
+   * @return Event queue backend name
+   */
+  public String getEventQueueBackend() {
+    return eventQueue.getBackend();
+  }
+
+  /**
+   * Enables approximate parallel execution of mote events.
+   *
+   * Mote events at most the lookahead apart form a window, if they belong to
+   * at least two partitions. In a window, the motes first prepare in event
+   * order, then execute concurrently, one task per partition, and finally
+   * finish in event order, each at the time of its own event.
+   *
+   * This is not equivalent to executing the events one by one: a mote does
+   * not observe the effects of earlier motes of the same window, such as
+   * radio transmissions, and events scheduled during a window before its
+   * last event execute late, by less than the lookahead. This holds for any
+   * lookahead, including 0, which only groups mote events at the same time.
+   * Results therefore differ from a sequential run, but event order does not
+   * depend on thread scheduling, so seeded simulations stay deterministic.
+   *
+   * Should only be called when the simulation is not running.
+   *
+   * @see ParallelMote
+   * @param lookahead Lookahead (us), or negative to execute events one by one
+   */
+  public void setApproximateParallelLookahead(long lookahead) {
+    approximateParallelLookahead = lookahead;
+  }
+
+  /**
+   * @return Approximate parallel execution lookahead (us), negative if disabled
+   */
+  public long getApproximateParallelLookahead() {
+    return approximateParallelLookahead;
+  }
+
+  /**
+   * Should only be called when the simulation is not running.
+   *
+   * @param threads Number of threads executing mote events in parallel
+   */
+  public void setParallelThreads(int threads) {
+    parallelThreads = Math.max(1, threads);
+    shutdownParallelExecutor();
+  }
+
+  /**
+   * @return Number of threads executing mote events in parallel
+   */
+  public int getParallelThreads() {
+    return parallelThreads;
+  }
+
+  private void shutdownParallelExecutor() {
+    if (parallelExecutor != null) {
+      parallelExecutor.shutdown();
+      parallelExecutor = null;
+    }
+  }
+
+  private static Object getPartition(ParallelMote mote) {
+    Object partition = mote.getPartition();
+    return partition != null ? partition : mote;
+  }
+
+  private static ParallelMote getParallelMote(TimeEvent event) {
+    if (!(event instanceof MoteTimeEvent)) {
+      return null;
+    }
+    Mote mote = ((MoteTimeEvent) event).getMote();
+    if (!(mote instanceof ParallelMote) || !((ParallelMote) mote).isParallelEvent(event)) {
+      return null;
+    }
+    return (ParallelMote) mote;
+  }
+
+  /**
+   * Executes the given event together with the following mote events within
+   * the approximate parallel lookahead, if they are parallel mote events of
+   * different motes in at least two partitions.
+   *
+   * @param first First event, already removed from the event queue
+   * @return True if executed, false if the event should be executed as usual
+   */
+  private boolean executeParallelWindow(TimeEvent first) {
+    ParallelMote firstMote = getParallelMote(first);
+    if (firstMote == null) {
+      return false;
+    }
+
+    /* Collect window: stop at the first event that must execute on its own */
+    windowMotes.clear();
+    windowEvents.clear();
+    windowMoteSet.clear();
+    addWindowMote(firstMote, currentSimulationTime);
+    Object firstPartition = getPartition(firstMote);
+    boolean partitioned = false;
+    long lookaheadEnd = currentSimulationTime + approximateParallelLookahead;
+    TimeEvent next;
+    while ((next = eventQueue.peekFirst()) != null && next.time <= lookaheadEnd) {
+      ParallelMote mote = getParallelMote(next);
+      if (mote == null || windowMoteSet.contains(mote)) {
+        break;
+      }
+      eventQueue.popFirst();
+      windowEvents.add(next);
+      addWindowMote(mote, Math.max(next.time, currentSimulationTime));
+      if (getPartition(mote) != firstPartition) {
+        partitioned = true;
+      }
+    }
+    if (!partitioned) {
+      /* Nothing to execute concurrently: put the events back */
+      for (TimeEvent event : windowEvents) {
+        eventQueue.reinsert(event);
+      }
+      return false;
+    }
+
+    /* Prepare motes in event order */
+    int count = windowMotes.size();
+    windowEnd = windowTimes[count - 1];
+    for (int i = 0; i < count; i++) {
+      ParallelMote mote = windowMotes.get(i);
+      currentSimulationTime = windowTimes[i];
+      windowExecute[i] = mote.prepareStep(currentSimulationTime);
+      if (windowExecute[i]) {
+        Object partition = getPartition(mote);
+        PartitionTask task = windowPartitions.get(partition);
+        if (task == null) {
+          task = freeTasks.isEmpty() ? new PartitionTask() : freeTasks.remove(freeTasks.size() - 1);
+          windowPartitions.put(partition, task);
+          windowTasks.add(task);
+        }
+        task.motes.add(mote);
+      }
+    }
+
+    /* Execute partitions concurrently, motes of a partition in event order */
+    try {
+      if (windowTasks.size() == 1 || parallelThreads == 1) {
+        for (PartitionTask task : windowTasks) {
+          task.call();
+        }
+      } else {
+        if (parallelExecutor == null) {
+          parallelExecutor = Executors.newFixedThreadPool(parallelThreads, r -> {
+            Thread t = new Thread(r, "parallel motes");
+            t.setDaemon(true);
+            return t;
+          });
+        }
+        try {
+          for (Future<Object> future : parallelExecutor.invokeAll(windowTasks)) {
+            future.get();
+          }
+        } catch (InterruptedException e) {
+          throw new RuntimeException("Interrupted while executing motes", e);
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          }
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    } finally {
+      for (PartitionTask task : windowTasks) {
+        task.motes.clear();
+        freeTasks.add(task);
+      }
+      windowTasks.clear();
+      windowPartitions.clear();
+    }
+
+    /* Finish motes in event order, each at the time of its event */
+    for (int i = 0; i < count; i++) {
+      if (windowExecute[i]) {
+        currentSimulationTime = windowTimes[i];
+        windowMotes.get(i).finishStep();
+      }
+    }
+    currentSimulationTime = windowEnd;
+    windowEnd = -1;
+    eventsExecuted += count;
+    return true;
+  }
+
+  private void addWindowMote(ParallelMote mote, long time) {
+    int index = windowMotes.size();
+    if (index == windowTimes.length) {
+      windowTimes = Arrays.copyOf(windowTimes, 2 * index);
+      windowExecute = Arrays.copyOf(windowExecute, 2 * index);
+    }
+    windowMotes.add(mote);
+    windowMoteSet.add(mote);
+    windowTimes[index] = time;
+  }
+
+  /**
+   * Executes the window motes of one partition, in event order.
+   */
+  private static class PartitionTask implements Callable<Object> {
+    private final ArrayList<ParallelMote> motes = new ArrayList<ParallelMote>();
+
+    @Override
+    public Object call() {
+      for (ParallelMote mote : motes) {
+        mote.executeStep();
+      }
+      return null;
+    }
+  }
+
   public void clearEvents() {
     eventQueue.clear();
     pollRequests.clear();
@@ -267,6 +563,7 @@ public class Simulation extends Observable implements Runnable {
     lastStartTime = System.currentTimeMillis();
     logger.debug("Simulation started, system time: " + lastStartTime);
     isRunning = true;
+    windowEnd = -1; /* In case a parallel window failed */
     speedLimitLastRealtime = System.currentTimeMillis();
     speedLimitLastSimtime = getSimulationTime();
 
@@ -274,26 +571,35 @@ public class Simulation extends Observable implements Runnable {
     this.setChanged();
     this.notifyObservers(this);
 
-    EventQueue.Pair nextEvent = null;
+    TimeEvent nextEvent = null;
     try {
       while (isRunning) {
 
         /* Handle all poll requests */
-        while (hasPollRequests) {
-          popSimulationInvokes().run();
-        }
+        executeSimulationInvokes();
 
         /* Handle one simulation event, and update simulation time */
         nextEvent = eventQueue.popFirst();
         if (nextEvent == null) {
           throw new RuntimeException("No more events");
         }
-        if (nextEvent.time < currentSimulationTime) {
+        if (nextEvent.time >= currentSimulationTime) {
+          currentSimulationTime = nextEvent.time;
+          if (!lateEvents.isEmpty()) {
+            /* Queued late events would precede this one: none are left */
+            lateEvents.clear();
+          }
+        } else if (approximateParallelLookahead < 0 || !lateEvents.remove(nextEvent)) {
           throw new RuntimeException("Next event is in the past: " + nextEvent.time + " < " + currentSimulationTime + ": " + nextEvent);
         }
-        currentSimulationTime = nextEvent.time;
+        /* else: approximate parallel mode only: scheduled during a window,
+         * executes late by less than the lookahead */
+
         /*logger.info("Executing event #" + EVENT_COUNTER++ + " @ " + currentSimulationTime + ": " + nextEvent);*/
-        nextEvent.event.execute(currentSimulationTime);
+        if (approximateParallelLookahead < 0 || !executeParallelWindow(nextEvent)) {
+          nextEvent.execute(currentSimulationTime);
+          eventsExecuted++;
+        }
 
         if (stopSimulation) {
           isRunning = false;
@@ -308,11 +614,22 @@ public class Simulation extends Observable implements Runnable {
     		logger.fatal("Simulation stopped due to error: " + e.getMessage(), e);
     		if (!Cooja.isVisualized()) {
     			/* Quit simulator if in test mode */
-    			System.exit(1);
+    			if (cooja.hasQuitHandler()) {
+    			  /* Other simulations share this JVM: quit from another thread, since
+    			   * removing the simulation waits for this thread to stop */
+    			  new Thread(new Runnable() {
+    			    @Override
+    			    public void run() {
+    			      cooja.doQuit(false, 1);
+    			    }
+    			  }, "quit").start();
+    			} else {
+    			  System.exit(1);
+    			}
     		} else {
     		  String title = "Simulation error";
-    		  if (nextEvent.event instanceof MoteTimeEvent) {
-    		    title += ": " + ((MoteTimeEvent)nextEvent.event).getMote();
+    		  if (nextEvent instanceof MoteTimeEvent) {
+    		    title += ": " + ((MoteTimeEvent)nextEvent).getMote();
     		  }
     		  Cooja.showErrorDialog(Cooja.getTopParentContainer(), title, e, false);
     		}
@@ -501,6 +818,23 @@ public class Simulation extends Observable implements Runnable {
       config.add(element);
     }
 
+    /* Event queue backend */
+    if (!EventQueue.BACKEND_HEAP.equals(eventQueue.getBackend())) {
+      element = new Element("eventqueue");
+      element.setText(eventQueue.getBackend());
+      config.add(element);
+    }
+
+    /* Approximate parallel execution */
+    if (approximateParallelLookahead >= 0) {
+      element = new Element("approximate_parallel_lookahead_us");
+      element.setText(Long.toString(approximateParallelLookahead));
+      config.add(element);
+      element = new Element("parallel_threads");
+      element.setText(Integer.toString(parallelThreads));
+      config.add(element);
+    }
+
     // Random seed
     element = new Element("randomseed");
     if (randomSeedGenerated) {
@@ -601,6 +935,19 @@ public class Simulation extends Observable implements Runnable {
         }
       }
 
+      /* Event queue backend */
+      if (element.getName().equals("eventqueue")) {
+        setEventQueueBackend(element.getText().trim());
+      }
+
+      /* Approximate parallel execution */
+      if (element.getName().equals("approximate_parallel_lookahead_us")) {
+        setApproximateParallelLookahead(Long.parseLong(element.getText().trim()));
+      }
+      if (element.getName().equals("parallel_threads")) {
+        setParallelThreads(Integer.parseInt(element.getText().trim()));
+      }
+
       // Random seed
       if (element.getName().equals("randomseed")) {
         long newSeed;
@@ -770,9 +1117,7 @@ public class Simulation extends Observable implements Runnable {
     notifyObservers(this);
 
     /* Execute simulation thread events now, before simulation starts */
-    while (hasPollRequests) {
-      popSimulationInvokes().run();
-    }
+    executeSimulationInvokes();
 
     return true;
   }
@@ -825,6 +1170,8 @@ public class Simulation extends Observable implements Runnable {
    * This method is called just before the simulation is removed.
    */
   public void removed() {
+    shutdownParallelExecutor();
+
   	/* Remove radio medium */
   	if (currentRadioMedium != null) {
   		currentRadioMedium.removed();
@@ -1102,6 +1449,13 @@ public class Simulation extends Observable implements Runnable {
     return currentSimulationTime / MILLISECOND;
   }
 
+  /**
+   * @return Number of simulation events executed since the simulation was created
+   */
+  public long getEventsExecuted() {
+    return eventsExecuted;
+  }
+
   /**
    * Return the actual time value corresponding to an argument which
    * is a simulation time value in microseconds.
@@ -1163,7 +1517,7 @@ public class Simulation extends Observable implements Runnable {
    * @return True if simulation is runnable
    */
   public boolean isRunnable() {
-    return isRunning || hasPollRequests || !eventQueue.isEmpty();
+    return isRunning || !pollRequests.isEmpty() || !eventQueue.isEmpty();
   }
 
   /**
@@ -38,6 +38,12 @@ public abstract class TimeEvent {
   private boolean isQueued = false;
   private boolean isScheduled = false;
 
+  /* Maintained by EventQueue while the event is queued */
+  long time;
+  long uuid;
+  int queueIndex = -1;
+  TimeEvent prev, next;
+
   public TimeEvent() {
   }
 
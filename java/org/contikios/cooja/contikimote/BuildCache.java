@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja.contikimote;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.contikios.cooja.Cooja;
+
+/**
+ * Persistent on-disk cache of Contiki build artifacts.
+ * <p>
+ * Each entry is a directory named by a content hash, see {@link Key}, holding
+ * copies of the output files of one build: the Contiki library and map file,
+ * or the compiled core communicator class. A hit copies the files back and
+ * lets the caller skip the build entirely.
+ * <p>
+ * The cache is enabled by the external tools setting BUILD_CACHE_DIR. When
+ * the cache grows beyond BUILD_CACHE_MAX_SIZE megabytes, the least recently
+ * used entries are evicted.
+ */
+public class BuildCache {
+  private static final Logger logger = LogManager.getLogger(BuildCache.class);
+
+  private static final long DEFAULT_MAX_SIZE_MB = 512;
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong stores = new AtomicLong();
+  private static final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @return Cache directory, or null if the cache is disabled
+   */
+  public static File getCacheDirectory() {
+    String dir = Cooja.getExternalToolsSetting("BUILD_CACHE_DIR", "");
+    if (dir == null || dir.trim().isEmpty()) {
+      return null;
+    }
+    return new File(dir.trim());
+  }
+
+  /**
+   * @return True if the build cache is enabled
+   */
+  public static boolean isEnabled() {
+    return getCacheDirectory() != null;
+  }
+
+  /**
+   * @return Maximum cache size in bytes
+   */
+  public static long getMaxSize() {
+    String max = Cooja.getExternalToolsSetting("BUILD_CACHE_MAX_SIZE", "" + DEFAULT_MAX_SIZE_MB);
+    try {
+      return Long.parseLong(max.trim()) * 1024 * 1024;
+    } catch (NumberFormatException e) {
+      logger.warn("Bad BUILD_CACHE_MAX_SIZE: '" + max + "', using default");
+      return DEFAULT_MAX_SIZE_MB * 1024 * 1024;
+    }
+  }
+
+  /**
+   * Copies the cached build outputs of the given key to the output files.
+   *
+   * @param key Build key
+   * @param outputs Output files, as given to {@link #store(String, File...)}
+   * @return True at cache hit, false if the build must be performed
+   */
+  public static boolean restore(String key, File... outputs) {
+    File cacheDir = getCacheDirectory();
+    if (cacheDir == null) {
+      return false;
+    }
+
+    File entry = new File(cacheDir, key);
+    if (!entry.isDirectory()) {
+      misses.incrementAndGet();
+      logger.info("Build cache miss: " + key + " (" + getStatistics() + ")");
+      return false;
+    }
+
+    try {
+      for (File output : outputs) {
+        File cached = new File(entry, output.getName());
+        if (!cached.exists()) {
+          /* Optional output, not produced by the cached build */
+          continue;
+        }
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+          parent.mkdirs();
+        }
+        Files.copy(cached.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      /* Entry may have been evicted by a concurrent Cooja instance */
+      misses.incrementAndGet();
+      logger.warn("Build cache entry could not be restored: " + key + ": " + e.getMessage());
+      return false;
+    }
+
+    /* Least recently used order */
+    entry.setLastModified(System.currentTimeMillis());
+
+    hits.incrementAndGet();
+    logger.info("Build cache hit: " + key + " (" + getStatistics() + ")");
+    return true;
+  }
+
+  /**
+   * Stores build outputs in the cache. Missing output files are skipped.
+   * Errors are logged, but never fail the build.
+   *
+   * @param key Build key
+   * @param outputs Output files
+   */
+  public static void store(String key, File... outputs) {
+    File cacheDir = getCacheDirectory();
+    if (cacheDir == null) {
+      return;
+    }
+
+    File entry = new File(cacheDir, key);
+    File tmp = new File(cacheDir, key + ".tmp" + System.nanoTime());
+    try {
+      if (!tmp.mkdirs()) {
+        throw new IOException("Could not create " + tmp);
+      }
+      for (File output : outputs) {
+        if (output.exists()) {
+          Files.copy(output.toPath(), new File(tmp, output.getName()).toPath());
+        }
+      }
+
+      /* Publish complete entries only: other Cooja instances may share the cache */
+      Files.move(tmp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      stores.incrementAndGet();
+      logger.info("Build cache stored: " + key);
+    } catch (IOException e) {
+      if (!entry.isDirectory()) {
+        logger.warn("Build cache entry could not be stored: " + key + ": " + e.getMessage());
+      }
+    } finally {
+      delete(tmp);
+    }
+
+    evict(cacheDir, getMaxSize());
+  }
+
+  /**
+   * Removes the least recently used entries until the cache fits the given
+   * size.
+   *
+   * @param cacheDir Cache directory
+   * @param maxSize Maximum size in bytes
+   */
+  private static void evict(File cacheDir, long maxSize) {
+    File[] entries = cacheDir.listFiles(f -> f.isDirectory() && !f.getName().contains(".tmp"));
+    if (entries == null) {
+      return;
+    }
+
+    long total = 0;
+    long[] sizes = new long[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      sizes[i] = size(entries[i]);
+      total += sizes[i];
+    }
+    if (total <= maxSize) {
+      return;
+    }
+
+    Integer[] order = new Integer[entries.length];
+    long[] modified = new long[entries.length];
+    for (int i = 0; i < entries.length; i++) {
+      order[i] = i;
+      modified[i] = entries[i].lastModified();
+    }
+    Arrays.sort(order, Comparator.comparingLong(i -> modified[i]));
+
+    for (int i = 0; i < order.length && total > maxSize; i++) {
+      File entry = entries[order[i]];
+      delete(entry);
+      total -= sizes[order[i]];
+      evictions.incrementAndGet();
+      logger.info("Build cache evicted: " + entry.getName());
+    }
+  }
+
+  /**
+   * @return Total size of cache entries in bytes
+   */
+  public static long getSize() {
+    File cacheDir = getCacheDirectory();
+    return cacheDir == null ? 0 : size(cacheDir);
+  }
+
+  /**
+   * @return Cache statistics of this session
+   */
+  public static String getStatistics() {
+    return hits.get() + " hits, " + misses.get() + " misses, "
+        + stores.get() + " stores, " + evictions.get() + " evictions";
+  }
+
+  public static long getHits() {
+    return hits.get();
+  }
+
+  public static long getMisses() {
+    return misses.get();
+  }
+
+  public static long getStores() {
+    return stores.get();
+  }
+
+  public static long getEvictions() {
+    return evictions.get();
+  }
+
+  private static long size(File file) {
+    if (!file.isDirectory()) {
+      return file.length();
+    }
+    File[] files = file.listFiles();
+    if (files == null) {
+      return 0;
+    }
+    long size = 0;
+    for (File f : files) {
+      size += size(f);
+    }
+    return size;
+  }
+
+  private static void delete(File file) {
+    File[] files = file.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        delete(f);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Builds a cache key: a SHA-256 hash of everything that affects a build.
+   */
+  public static class Key {
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[8192];
+
+    public Key(String kind) {
+      try {
+        digest = MessageDigest.getInstance("SHA-256");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+      add(kind);
+    }
+
+    /**
+     * Adds a string, such as a compile command or define.
+     *
+     * @param value Value, may be null
+     * @return This key
+     */
+    public Key add(String value) {
+      if (value == null) {
+        value = "<null>";
+      }
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      addLength(bytes.length);
+      digest.update(bytes);
+      return this;
+    }
+
+    /**
+     * Adds the contents of a file, such as a source file.
+     *
+     * @param file File
+     * @return This key
+     * @throws IOException At file read errors
+     */
+    public Key addFile(File file) throws IOException {
+      add(file.getName());
+      if (!file.isFile()) {
+        add("<missing>");
+        return this;
+      }
+      addLength(file.length());
+      try (InputStream in = Files.newInputStream(file.toPath())) {
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+          digest.update(buffer, 0, n);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Adds the contents of all regular files in a directory, not recursing
+     * into sub-directories.
+     *
+     * @param dir Directory
+     * @return This key
+     * @throws IOException At file read errors
+     */
+    public Key addFiles(File dir) throws IOException {
+      File[] files = dir.listFiles(File::isFile);
+      if (files == null) {
+        add("<missing>");
+        return this;
+      }
+      Arrays.sort(files);
+      for (File file : files) {
+        addFile(file);
+      }
+      return this;
+    }
+
+    /**
+     * Adds the path, size and modification time of all files in a directory
+     * tree. Cheaper than hashing file contents, and intended for large trees
+     * such as the Contiki sources.
+     *
+     * @param dir Directory
+     * @return This key
+     */
+    public Key addTree(File dir) {
+      File[] files = dir.listFiles();
+      if (files == null) {
+        add("<missing>");
+        return this;
+      }
+      Arrays.sort(files);
+      for (File file : files) {
+        if (file.isDirectory()) {
+          if (file.getName().equals("build") || file.getName().startsWith(".")) {
+            continue;
+          }
+          add(file.getName() + "/");
+          addTree(file);
+          add("/");
+        } else {
+          add(file.getName());
+          addLength(file.length());
+          addLength(file.lastModified());
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Adds an executable, such as the compiler, searched in the PATH
+     * environment variable if not an existing file.
+     *
+     * @param command Command name or path
+     * @param path PATH environment variable, may be null
+     * @return This key
+     */
+    public Key addExecutable(String command, String path) {
+      add(command);
+      if (command == null || command.trim().isEmpty()) {
+        return this;
+      }
+      String name = command.trim().split("\\s+")[0];
+      ArrayList<File> candidates = new ArrayList<>();
+      candidates.add(new File(name));
+      if (path != null && !name.contains(File.separator)) {
+        for (String dir : path.split(File.pathSeparator)) {
+          candidates.add(new File(dir, name));
+        }
+      }
+      for (File candidate : candidates) {
+        if (candidate.isFile()) {
+          add(candidate.getAbsolutePath());
+          addLength(candidate.length());
+          addLength(candidate.lastModified());
+          break;
+        }
+      }
+      return this;
+    }
+
+    private void addLength(long value) {
+      for (int i = 0; i < 8; i++) {
+        digest.update((byte) (value >>> (8 * i)));
+      }
+    }
+
+    /**
+     * @return Key as hexadecimal string
+     */
+    public String build() {
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    }
+  }
+}
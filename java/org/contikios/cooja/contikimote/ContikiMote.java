@@ -40,8 +40,10 @@ import org.contikios.cooja.Mote;
 import org.contikios.cooja.MoteInterface;
 import org.contikios.cooja.MoteInterfaceHandler;
 import org.contikios.cooja.MoteType;
+import org.contikios.cooja.ParallelMote;
 import org.contikios.cooja.mote.memory.SectionMoteMemory;
 import org.contikios.cooja.Simulation;
+import org.contikios.cooja.TimeEvent;
 import org.contikios.cooja.mote.memory.MemoryInterface;
 import org.contikios.cooja.motes.AbstractWakeupMote;
 
@@ -58,12 +60,16 @@ import org.contikios.cooja.motes.AbstractWakeupMote;
  * memory to the core, lets the Contiki system handle one event,
  * fetches the updated memory and finally polls all interfaces again.
  *
+ * Each mote is bound to one of the mote type's library copies. Motes bound
+ * to different copies may tick concurrently.
+ *
  * @author      Fredrik Osterlind
  */
-public class ContikiMote extends AbstractWakeupMote implements Mote {
+public class ContikiMote extends AbstractWakeupMote implements Mote, ParallelMote {
   private static final Logger logger = LogManager.getLogger(ContikiMote.class);
 
   private ContikiMoteType myType = null;
+  private ContikiMoteType.LibraryCopy myLibrary = null;
   private SectionMoteMemory myMemory = null;
   private MoteInterfaceHandler myInterfaceHandler = null;
 
@@ -78,7 +84,8 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
   public ContikiMote(ContikiMoteType moteType, Simulation sim) {
     setSimulation(sim);
     this.myType = moteType;
-    this.myMemory = moteType.createInitialMemory();
+    this.myLibrary = moteType.bindLibraryCopy();
+    this.myMemory = myLibrary.createInitialMemory();
     this.myInterfaceHandler = new MoteInterfaceHandler(this, moteType.getMoteInterfaceClasses());
 
     requestImmediateWakeup();
@@ -103,7 +110,13 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
     return myMemory;
   }
 
+  /**
+   * @param memory Memory created by the library copy this mote is bound to
+   */
   public void setMemory(SectionMoteMemory memory) {
+    if (myMemory != null && myMemory != memory) {
+      myType.releaseMemory(myMemory);
+    }
     myMemory = memory;
   }
 
@@ -113,7 +126,17 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
   }
 
   public void setType(MoteType type) {
+    if (myType == type) {
+      return;
+    }
+    if (myType != null) {
+      myType.unbindLibraryCopy(myLibrary);
+    }
     myType = (ContikiMoteType) type;
+    myLibrary = myType.bindLibraryCopy();
+
+    /* Memories hold pointers into their library copy */
+    setMemory(myLibrary.createInitialMemory());
   }
 
   /**
@@ -128,6 +151,24 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
    */
   @Override
   public void execute(long simTime) {
+    if (prepareStep(simTime)) {
+      executeStep();
+      finishStep();
+    }
+  }
+
+  @Override
+  public boolean isParallelEvent(TimeEvent event) {
+    return isExecuteEvent(event);
+  }
+
+  @Override
+  public Object getPartition() {
+    return myLibrary;
+  }
+
+  @Override
+  public boolean prepareStep(long simTime) {
 
     /* Poll mote interfaces */
     myInterfaceHandler.doActiveActionsBeforeTick();
@@ -136,17 +177,26 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
     /* Check if pre-boot time */
     if (myInterfaceHandler.getClock().getTime() < 0) {
       scheduleNextWakeup(simTime + -myInterfaceHandler.getClock().getTime());
-      return;
+      return false;
     }
+    return true;
+  }
+
+  @Override
+  public void executeStep() {
 
     /* Copy mote memory to Contiki */
-    myType.setCoreMemory(myMemory);
+    myLibrary.setCoreMemory(myMemory);
 
     /* Handle a single Contiki events */
-    myType.tick();
+    myLibrary.tick();
 
     /* Copy mote memory from Contiki */
-    myType.getCoreMemory(myMemory);
+    myLibrary.getCoreMemory(myMemory);
+  }
+
+  @Override
+  public void finishStep() {
 
     /* Poll mote interfaces */
     myMemory.pollForMemoryChanges();
@@ -183,7 +233,7 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
   @Override
   public boolean setConfigXML(Simulation simulation, Collection<Element> configXML, boolean visAvailable) {
     setSimulation(simulation);
-    myMemory = myType.createInitialMemory();
+    setMemory(myLibrary.createInitialMemory());
     myInterfaceHandler = new MoteInterfaceHandler(this, myType.getMoteInterfaceClasses());
 
     for (Element element: configXML) {
@@ -220,6 +270,14 @@ public class ContikiMote extends AbstractWakeupMote implements Mote {
     return true;
   }
 
+  @Override
+  public void removed() {
+    super.removed();
+    myType.releaseMemory(myMemory);
+    myType.unbindLibraryCopy(myLibrary);
+    myLibrary = null;
+  }
+
   @Override
   public String toString() {
     return "Contiki " + getID();
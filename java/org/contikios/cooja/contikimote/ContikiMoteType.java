@@ -37,14 +37,20 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,6 +69,8 @@ import org.contikios.cooja.Mote;
 import org.contikios.cooja.MoteInterface;
 import org.contikios.cooja.MoteType;
 import org.contikios.cooja.ProjectConfig;
+import org.contikios.cooja.mote.memory.BufferMemory;
+import org.contikios.cooja.mote.memory.CopyOnWriteMemory;
 import org.contikios.cooja.mote.memory.SectionMoteMemory;
 import org.contikios.cooja.Simulation;
 import org.contikios.cooja.dialogs.CompileContiki;
@@ -197,6 +205,26 @@ public class ContikiMoteType implements MoteType {
 
   public String javaClassName = null; /* Loading Java class name: Lib1 */
 
+  /* Library compiled by an earlier mote type, loaded as a private copy, or null */
+  private File reusedLibFile = null;
+
+  /* Firmware compiled in this JVM, by mote type config, see setReuseFirmware() */
+  private static boolean reuseFirmware = false;
+  private static final HashMap<String, CompiledFirmware> compiledFirmware = new HashMap<>();
+  private static int compiledFirmwareCounter = 0;
+
+  private static class CompiledFirmware {
+    final String className;
+    final File libFile;
+    final File mapFile;
+
+    CompiledFirmware(String className, File libFile, File mapFile) {
+      this.className = className;
+      this.libFile = libFile;
+      this.mapFile = mapFile;
+    }
+  }
+
   private String[] coreInterfaces = null;
 
   private ArrayList<Class<? extends MoteInterface>> moteInterfacesClasses = null;
@@ -210,10 +238,16 @@ public class ContikiMoteType implements MoteType {
 
   private CoreComm myCoreComm = null;
 
-  // Initial memory for all motes of this type
+  /* Loaded copies of the Contiki library, the first one using myCoreComm */
+  private int libraryCopiesCount = 1;
+  private final ArrayList<LibraryCopy> libraryCopies = new ArrayList<>();
+
+  // Initial memory of the first library copy, see LibraryCopy for the others
   private SectionMoteMemory initialMemory = null;
+  private final Set<SectionMoteMemory> moteMemories =
+          Collections.newSetFromMap(new WeakHashMap<SectionMoteMemory, Boolean>());
 
-  /** Offset between native (cooja) and contiki address space */
+  /** Offset between native (cooja) and contiki address space, of the first library copy */
   long offset;
 
   /**
@@ -269,6 +303,13 @@ public class ContikiMoteType implements MoteType {
       mapFile = new File(
               contikiApp.getParentFile(),
               output_dir + "/" + getIdentifier() + mapSuffix);
+
+      String firmwareKey = reuseFirmware ? getFirmwareKey() : null;
+      if (firmwareKey != null && reuseCompiledFirmware(firmwareKey)) {
+        doInit();
+        return true;
+      }
+
       javaClassName = CoreComm.getAvailableClassName();
 
       if (javaClassName == null) {
@@ -320,8 +361,12 @@ public class ContikiMoteType implements MoteType {
       if (getCompileCommands() == null) {
         throw new MoteTypeCreationException("No compile commands specified");
       }
+      /* Skip compilation if an identical build is cached */
+      String buildKey = getBuildKey(env);
+      boolean cached = buildKey != null && BuildCache.restore(buildKey, libFile, mapFile);
+
       final MessageList compilationOutput = MessageContainer.createMessageList(visAvailable);
-      String[] arr = getCompileCommands().split("\n");
+      String[] arr = cached ? new String[0] : getCompileCommands().split("\n");
       for (String cmd : arr) {
         if (cmd.trim().isEmpty()) {
           continue;
@@ -363,6 +408,12 @@ public class ContikiMoteType implements MoteType {
               || !getContikiFirmwareFile().exists()) {
         throw new MoteTypeCreationException("Contiki firmware file does not exist: " + getContikiFirmwareFile());
       }
+      if (buildKey != null && !cached) {
+        BuildCache.store(buildKey, libFile, mapFile);
+      }
+      if (firmwareKey != null) {
+        registerCompiledFirmware(firmwareKey);
+      }
     }
 
     /* Load compiled library */
@@ -370,6 +421,150 @@ public class ContikiMoteType implements MoteType {
     return true;
   }
 
+  /**
+   * Enables or disables reuse of firmware compiled in this JVM. Mote types
+   * with the same config, except for the identifier, then share one compiled
+   * library: later mote types load private copies of it instead of compiling.
+   * Used by batch runs, which load the same config many times.
+   *
+   * @param reuse True to reuse compiled firmware
+   * @see org.contikios.cooja.BatchRunner
+   */
+  public static void setReuseFirmware(boolean reuse) {
+    synchronized (compiledFirmware) {
+      reuseFirmware = reuse;
+    }
+  }
+
+  /**
+   * @return Key of the firmware this mote type compiles, independent of its identifier
+   */
+  private String getFirmwareKey() {
+    StringBuilder key = new StringBuilder();
+    key.append(getCompileCommands() == null ? "" : getCompileCommands().replace(getIdentifier(), "$(LIBNAME)"));
+    key.append('\n').append(contikiApp.getAbsolutePath());
+    key.append('\n').append(netStack.getConfig());
+    key.append('\n').append(hasSystemSymbols);
+    String[] coojaSources = myConfig.getStringArrayValue(ContikiMoteType.class, "C_SOURCES");
+    if (coojaSources != null) {
+      key.append('\n').append(String.join(" ", coojaSources));
+    }
+    return key.toString();
+  }
+
+  /**
+   * Uses the firmware already compiled for the given key, if any.
+   *
+   * @param firmwareKey Firmware key
+   * @return True if compiled firmware is reused, and loaded by doInit()
+   */
+  private boolean reuseCompiledFirmware(String firmwareKey) throws MoteTypeCreationException {
+    CompiledFirmware compiled;
+    int n;
+    synchronized (compiledFirmware) {
+      compiled = compiledFirmware.get(firmwareKey);
+      n = compiledFirmwareCounter++;
+    }
+    if (compiled == null) {
+      return false;
+    }
+
+    /* Library is copied when loaded, the map file is only parsed */
+    File dir = compiled.libFile.getParentFile();
+    javaClassName = compiled.className;
+    reusedLibFile = compiled.libFile;
+    mapFile = compiled.mapFile;
+    setContikiFirmwareFile(new File(dir, getIdentifier() + ".reused" + n + librarySuffix));
+    logger.info(getIdentifier() + ": reusing compiled firmware " + compiled.libFile.getName());
+    return true;
+  }
+
+  /**
+   * Keeps the compiled firmware for later mote types with the same key. The
+   * library and map are copied, since their files may be rebuilt by mote
+   * types with the same identifier.
+   *
+   * @param firmwareKey Firmware key
+   */
+  private void registerCompiledFirmware(String firmwareKey) throws MoteTypeCreationException {
+    synchronized (compiledFirmware) {
+      if (compiledFirmware.containsKey(firmwareKey)) {
+        return;
+      }
+      int n = compiledFirmwareCounter++;
+      File dir = libFile.getParentFile();
+      File lib = new File(dir, "firmware" + n + librarySuffix);
+      File map = new File(dir, "firmware" + n + mapSuffix);
+      try {
+        java.nio.file.Files.copy(libFile.toPath(), lib.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        if (mapFile.exists()) {
+          java.nio.file.Files.copy(mapFile.toPath(), map.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        }
+      } catch (IOException e) {
+        throw (MoteTypeCreationException) new MoteTypeCreationException(
+                "Error when keeping compiled firmware: " + lib).initCause(e);
+      }
+      lib.deleteOnExit();
+      map.deleteOnExit();
+      compiledFirmware.put(firmwareKey, new CompiledFirmware(javaClassName, lib, map));
+    }
+  }
+
+  /**
+   * Returns the build cache key of this mote type: the compile commands and
+   * environment, the toolchain, the application directory sources and the
+   * Contiki source tree.
+   *
+   * @param env Compilation environment
+   * @return Build cache key, or null if the build cache is disabled
+   */
+  private String getBuildKey(String[][] env) {
+    if (!BuildCache.isEnabled()) {
+      return null;
+    }
+    try {
+      BuildCache.Key key = new BuildCache.Key("firmware");
+      key.add(getCompileCommands());
+      key.add(contikiApp.getAbsolutePath());
+      key.add(netStack.getConfig());
+
+      String path = null;
+      for (String[] var : env) {
+        key.add(var[0]).add(var[1]);
+        if (var[0].equals("PATH")) {
+          path = var[1];
+        }
+      }
+
+      /* Toolchain */
+      for (String cmd : getCompileCommands().split("\n")) {
+        key.addExecutable(cmd, path);
+      }
+      key.addExecutable(Cooja.getExternalToolsSetting("PATH_C_COMPILER"), path);
+      key.addExecutable(Cooja.getExternalToolsSetting("PATH_LINKER"), path);
+      key.addExecutable(Cooja.getExternalToolsSetting("PATH_AR"), path);
+
+      /* Sources: application directory, project sources and the Contiki tree */
+      key.addFiles(contikiApp.getParentFile());
+      for (String[] var : env) {
+        if (var[0].equals("COOJA_SOURCEDIRS")) {
+          for (String dir : var[1].trim().split("\\s+")) {
+            if (!dir.isEmpty()) {
+              key.addFiles(new File(dir));
+            }
+          }
+        }
+      }
+      File contiki = new File(Cooja.getExternalToolsSetting("PATH_CONTIKI"));
+      key.addTree(new File(contiki, "os"));
+      key.addTree(new File(contiki, "arch"));
+      return key.build();
+    } catch (IOException e) {
+      logger.warn("Build cache disabled for " + getIdentifier() + ": " + e.getMessage());
+      return null;
+    }
+  }
+
   public static File getExpectedFirmwareFile(File source) {
     File parentDir = source.getParentFile();
     String sourceNoExtension = source.getName().substring(0, source.getName().length() - 2);
@@ -394,8 +589,11 @@ public class ContikiMoteType implements MoteType {
               "Core communicator already used: " + myCoreComm.getClass().getName());
     }
 
-    if (getContikiFirmwareFile() == null
-            || !getContikiFirmwareFile().exists()) {
+    if (reusedLibFile != null && !reusedLibFile.exists()) {
+      throw new MoteTypeCreationException("Library file could not be found: " + reusedLibFile);
+    }
+    if (reusedLibFile == null && (getContikiFirmwareFile() == null
+            || !getContikiFirmwareFile().exists())) {
       throw new MoteTypeCreationException("Library file could not be found: " + getContikiFirmwareFile());
     }
 
@@ -405,7 +603,15 @@ public class ContikiMoteType implements MoteType {
 
     // Allocate core communicator class
     logger.debug("Creating core communicator between Java class " + javaClassName + " and Contiki library '" + getContikiFirmwareFile().getPath() + "'");
-    myCoreComm = CoreComm.createCoreComm(this.javaClassName, getContikiFirmwareFile());
+    if (reusedLibFile != null) {
+      /* Same corecomm class as the compiling mote type, for a private copy */
+      myCoreComm = CoreComm.createCoreCommCopy(this.javaClassName, reusedLibFile, getContikiFirmwareFile());
+    } else {
+      myCoreComm = CoreComm.createCoreComm(this.javaClassName, getContikiFirmwareFile());
+    }
+    libraryCopies.clear();
+    LibraryCopy firstCopy = new LibraryCopy(myCoreComm);
+    libraryCopies.add(firstCopy);
 
     /* Parse addresses using map file
      * or output of command specified in external tools settings (e.g. nm -a )
@@ -417,7 +623,6 @@ public class ContikiMoteType implements MoteType {
     SectionParser commonSecParser;
     SectionParser readonlySecParser = null;
 
-    HashMap<String, Symbol> variables = new HashMap<>();
     if (useCommand) {
       /* Parse command output */
       String[] output = loadCommandData(getContikiFirmwareFile());
@@ -475,49 +680,24 @@ public class ContikiMoteType implements MoteType {
 
     }
 
-    /* We first need the value of Contiki's referenceVar, which tells us the
-     * memory offset between Contiki's variable and the relative addresses that
-     * were calculated directly from the library file.
-     *
-     * This offset will be used in Cooja in the memory abstraction to match
-     * Contiki's and Cooja's address spaces */
-    {
-      SectionMoteMemory tmp = new SectionMoteMemory(variables);
-      VarMemory varMem = new VarMemory(tmp);
-      tmp.addMemorySection("tmp.data", dataSecParser.parse(0));
-      tmp.addMemorySection("tmp.bss", bssSecParser.parse(0));
-      tmp.addMemorySection("tmp.common", commonSecParser.parse(0));
-
-      try {
-        long referenceVar = varMem.getVariable("referenceVar").addr;
-        myCoreComm.setReferenceAddress(referenceVar);
-      } catch (UnknownVariableException e) {
-        throw new MoteTypeCreationException("Error setting reference variable: " + e.getMessage(), e);
-      } catch (RuntimeException e) {
-          throw new MoteTypeCreationException("Error setting reference variable: " + e.getMessage(), e);
-      }
-
-      getCoreMemory(tmp);
-
-      offset = varMem.getAddrValueOf("referenceVar");
-      logger.debug(getContikiFirmwareFile().getName()
-              + ": offsetting Cooja mote address space: 0x" + Long.toHexString(offset));
+    /* Each library copy is loaded at its own address, and its initial memory
+     * holds pointers into that copy: motes are initialised from the copy they
+     * are bound to, and stay bound to it */
+    firstCopy.init(dataSecParser, bssSecParser, commonSecParser, readonlySecParser);
+    for (int i = 1; i < libraryCopiesCount; i++) {
+      File copyFile = new File(
+              getContikiFirmwareFile().getParentFile(),
+              getIdentifier() + ".copy" + i + librarySuffix);
+      LibraryCopy copy = new LibraryCopy(CoreComm.createCoreCommCopy(
+              this.javaClassName, getContikiFirmwareFile(), copyFile));
+      copy.init(dataSecParser, bssSecParser, commonSecParser, readonlySecParser);
+      libraryCopies.add(copy);
     }
-
-    /* Create initial memory: data+bss+optional common */
-    initialMemory = new SectionMoteMemory(variables);
-
-    initialMemory.addMemorySection("data", dataSecParser.parse(offset));
-
-    initialMemory.addMemorySection("bss", bssSecParser.parse(offset));
-
-    initialMemory.addMemorySection("common", commonSecParser.parse(offset));
-
-    if (readonlySecParser != null) {
-      initialMemory.addMemorySection("readonly", readonlySecParser.parse(offset));
+    offset = firstCopy.offset;
+    initialMemory = firstCopy.initialMemory;
+    if (libraryCopiesCount > 1) {
+      logger.info(getIdentifier() + ": loaded " + libraryCopiesCount + " Contiki library copies");
     }
-
-    getCoreMemory(initialMemory);
   }
 
   /**
@@ -799,18 +979,51 @@ public class ContikiMoteType implements MoteType {
    * rather via {@link ContikiMote#execute(long)}.
    */
   public void tick() {
-    myCoreComm.tick();
+    libraryCopies.get(0).tick();
   }
 
   /**
    * Creates and returns a copy of this mote type's initial memory (just after
-   * the init function has been run). When a new mote is created it should get
-   * it's memory from here.
+   * the init function has been run), in the first library copy. Motes get
+   * their memory from their library copy instead, see
+   * {@link LibraryCopy#createInitialMemory()}.
    *
    * @return Initial memory of a mote type
    */
   public SectionMoteMemory createInitialMemory() {
-    return initialMemory.clone();
+    return libraryCopies.get(0).createInitialMemory();
+  }
+
+  /**
+   * Called when a memory created by {@link #createInitialMemory()} is no
+   * longer used by its mote.
+   *
+   * @param mem Memory
+   */
+  public void releaseMemory(SectionMoteMemory mem) {
+    moteMemories.remove(mem);
+    for (LibraryCopy copy : libraryCopies) {
+      copy.releaseMemory(mem);
+    }
+  }
+
+  /**
+   * Returns a report of how much of the mote memories of this type is shared
+   * with the initial memory, and how much has been copied on write.
+   *
+   * @return Memory report
+   */
+  public String getMemoryReport() {
+    long shared = 0;
+    long copied = 0;
+    int motes = 0;
+    for (SectionMoteMemory mem : moteMemories) {
+      shared += mem.getSharedBytes();
+      copied += mem.getPrivateBytes();
+      motes++;
+    }
+    return String.format("%d motes, %d bytes shared, %d bytes private (%d per mote), initial memory %d bytes",
+            motes, shared, copied, motes == 0 ? 0 : copied / motes, initialMemory.getTotalSize());
   }
 
   /**
@@ -821,16 +1034,7 @@ public class ContikiMoteType implements MoteType {
    *          Memory to set
    */
   public void getCoreMemory(SectionMoteMemory mem) {
-    for (MemoryInterface section : mem.getSections().values()) {
-      getCoreMemory(
-              section.getStartAddr() - offset,
-              section.getTotalSize(),
-              section.getMemory());
-    }
-  }
-
-  private void getCoreMemory(long relAddr, int length, byte[] data) {
-    myCoreComm.getMemory(relAddr, length, data);
+    libraryCopies.get(0).getCoreMemory(mem);
   }
 
   /**
@@ -841,16 +1045,374 @@ public class ContikiMoteType implements MoteType {
    * New memory
    */
   public void setCoreMemory(SectionMoteMemory mem) {
-    for (MemoryInterface section : mem.getSections().values()) {
-      setCoreMemory(
-              section.getStartAddr() - offset,
-              section.getTotalSize(),
-              section.getMemory());
+    libraryCopies.get(0).setCoreMemory(mem);
+  }
+
+  /**
+   * Sets the number of private copies of the Contiki library to load. Each
+   * copy has its own native memory image, and motes are spread over the
+   * copies. Takes effect when the library is loaded.
+   *
+   * @param copies Number of library copies
+   */
+  public void setLibraryCopies(int copies) {
+    libraryCopiesCount = Math.max(1, copies);
+  }
+
+  /**
+   * @return Number of private copies of the Contiki library
+   */
+  public int getLibraryCopies() {
+    return libraryCopiesCount;
+  }
+
+  /**
+   * Binds a mote to the library copy with the fewest bound motes.
+   *
+   * @see #unbindLibraryCopy(LibraryCopy)
+   * @return Library copy
+   */
+  public LibraryCopy bindLibraryCopy() {
+    LibraryCopy best = null;
+    for (LibraryCopy copy : libraryCopies) {
+      if (best == null || copy.boundMotes < best.boundMotes) {
+        best = copy;
+      }
+    }
+    best.boundMotes++;
+    return best;
+  }
+
+  /**
+   * Releases a library copy bound by {@link #bindLibraryCopy()}.
+   *
+   * @param copy Library copy
+   */
+  public void unbindLibraryCopy(LibraryCopy copy) {
+    if (copy != null && copy.boundMotes > 0) {
+      copy.boundMotes--;
     }
   }
 
-  private void setCoreMemory(long relAddr, int length, byte[] mem) {
-    myCoreComm.setMemory(relAddr, length, mem);
+  /**
+   * A loaded copy of the Contiki library with its own native memory image.
+   *
+   * Each copy is loaded at its own address, so memories of one copy hold
+   * pointers into that copy only. A mote is therefore bound to one copy for
+   * its lifetime, and gets its memory from the copy's initial memory.
+   *
+   * A mote's memory is copied into the library before each tick, unless the
+   * library still holds it since the previous tick. Motes bound to different
+   * copies therefore do not evict each other, and may be ticked concurrently.
+   *
+   * If the library exports its sections as direct buffers, the memory of a
+   * mote alone on its copy is backed by the native sections themselves, and
+   * is never copied. It is detached to a private copy when another memory is
+   * created in the same library copy.
+   */
+  public class LibraryCopy {
+    private final CoreComm coreComm;
+    private int boundMotes = 0;
+
+    /* Offset between native and contiki address space of this copy */
+    private long offset;
+
+    /* Memory just after the init function has been run, shared copy-on-write by the mote memories */
+    private SectionMoteMemory initialMemory = null;
+
+    /* Memory last copied from Contiki: the native image is in sync with it,
+     * except for pages written from Java since */
+    private SectionMoteMemory coreMemoryOwner = null;
+    private byte[] stagingBuffer = new byte[0];
+
+    /* Direct buffers over the native sections, or null if not exported by the library */
+    private Map<String, ByteBuffer> coreBuffers = null;
+
+    /* Memory backed by coreBuffers, used by the only mote bound to this copy */
+    private SectionMoteMemory directMemory = null;
+
+    private LibraryCopy(CoreComm coreComm) {
+      this.coreComm = coreComm;
+    }
+
+    /**
+     * Reads the address offset and the initial memory of this copy.
+     */
+    private void init(SectionParser dataSecParser, SectionParser bssSecParser,
+            SectionParser commonSecParser, SectionParser readonlySecParser)
+            throws MoteTypeCreationException {
+      HashMap<String, Symbol> variables = new HashMap<>();
+
+      /* We first need the value of Contiki's referenceVar, which tells us the
+       * memory offset between Contiki's variable and the relative addresses that
+       * were calculated directly from the library file.
+       *
+       * This offset will be used in Cooja in the memory abstraction to match
+       * Contiki's and Cooja's address spaces */
+      {
+        SectionMoteMemory tmp = new SectionMoteMemory(variables);
+        VarMemory varMem = new VarMemory(tmp);
+        tmp.addMemorySection("tmp.data", dataSecParser.parse(0));
+        tmp.addMemorySection("tmp.bss", bssSecParser.parse(0));
+        tmp.addMemorySection("tmp.common", commonSecParser.parse(0));
+
+        try {
+          coreComm.setReferenceAddress(varMem.getVariable("referenceVar").addr);
+        } catch (UnknownVariableException e) {
+          throw new MoteTypeCreationException("Error setting reference variable: " + e.getMessage(), e);
+        } catch (RuntimeException e) {
+            throw new MoteTypeCreationException("Error setting reference variable: " + e.getMessage(), e);
+        }
+
+        offset = 0;
+        getCoreMemory(tmp);
+
+        offset = varMem.getAddrValueOf("referenceVar");
+        logger.debug(getContikiFirmwareFile().getName()
+                + ": offsetting Cooja mote address space: 0x" + Long.toHexString(offset));
+      }
+
+      /* Create initial memory: data+bss+optional common */
+      variables.clear();
+      SectionMoteMemory mem = new SectionMoteMemory(variables);
+
+      mem.addMemorySection("data", dataSecParser.parse(offset));
+
+      mem.addMemorySection("bss", bssSecParser.parse(offset));
+
+      mem.addMemorySection("common", commonSecParser.parse(offset));
+
+      if (readonlySecParser != null) {
+        mem.addMemorySection("readonly", readonlySecParser.parse(offset));
+      }
+
+      mapCoreMemory(mem);
+      getCoreMemory(mem);
+      coreMemoryOwner = null;
+
+      /* Copy-on-write template for the mote memories */
+      initialMemory = mem.clone();
+    }
+
+    /**
+     * Creates and returns a copy of this library copy's initial memory. Only
+     * motes bound to this copy may use it.
+     *
+     * @return Initial memory of a mote
+     */
+    public SectionMoteMemory createInitialMemory() {
+      if (directMemory != null) {
+        /* The new memory needs the native image */
+        detachDirectMemory();
+      }
+      SectionMoteMemory mem;
+      if (coreBuffers != null && boundMotes == 1) {
+        mem = createDirectMemory();
+      } else {
+        mem = initialMemory.clone();
+      }
+      moteMemories.add(mem);
+      return mem;
+    }
+
+    private SectionMoteMemory createDirectMemory() {
+      /* Reset native image */
+      setCoreMemory(initialMemory);
+
+      SectionMoteMemory mem = new SectionMoteMemory(initialMemory.getSymbolMap());
+      for (Map.Entry<String, MemoryInterface> entry : initialMemory.getSections().entrySet()) {
+        MemoryInterface section = entry.getValue();
+        mem.addMemorySection(entry.getKey(), new BufferMemory(
+                section.getStartAddr(), section.getLayout(),
+                coreBuffers.get(entry.getKey()), section.getSymbolMap()));
+      }
+      directMemory = mem;
+      coreMemoryOwner = mem;
+      return mem;
+    }
+
+    private void detachDirectMemory() {
+      for (MemoryInterface section : directMemory.getSections().values()) {
+        ((BufferMemory) section).detach();
+      }
+      /* Native image still equals the detached copy */
+      directMemory.clearDirtyPages();
+      coreMemoryOwner = directMemory;
+      directMemory = null;
+    }
+
+    /**
+     * Ticks the mote whose memory was last set.
+     */
+    public void tick() {
+      coreComm.tick();
+    }
+
+    private void releaseMemory(SectionMoteMemory mem) {
+      if (mem == directMemory) {
+        detachDirectMemory();
+      }
+      if (mem == coreMemoryOwner) {
+        coreMemoryOwner = null;
+      }
+    }
+
+    /**
+     * Maps the Contiki sections of the given memory to direct byte buffers, if
+     * supported by the loaded library. A mote alone on this copy then uses the
+     * buffers as its memory, and other memories are copied without passing
+     * Java arrays through JNI. Otherwise, the byte array based core
+     * communicator methods are used.
+     *
+     * @param mem Memory with the sections to map
+     */
+    private void mapCoreMemory(SectionMoteMemory mem) {
+      HashMap<String, ByteBuffer> buffers = new HashMap<>();
+      try {
+        for (Map.Entry<String, MemoryInterface> entry : mem.getSections().entrySet()) {
+          MemoryInterface section = entry.getValue();
+          ByteBuffer buffer = coreComm.getMemoryBuffer(
+                  section.getStartAddr() - offset,
+                  section.getTotalSize());
+          if (buffer == null || !buffer.isDirect() || buffer.capacity() != section.getTotalSize()) {
+            logger.debug(getContikiFirmwareFile().getName() + ": no direct buffer for section " + entry.getKey());
+            return;
+          }
+          buffers.put(entry.getKey(), buffer);
+        }
+      } catch (UnsatisfiedLinkError e) {
+        logger.debug(getContikiFirmwareFile().getName() + ": library does not export memory buffers");
+        return;
+      }
+      coreBuffers = buffers;
+    }
+
+    /**
+     * Copy core memory to given memory.
+     *
+     * @param mem
+     *          Memory to set
+     */
+    public void getCoreMemory(SectionMoteMemory mem) {
+      if (mem == directMemory) {
+        /* Already backed by the native sections */
+        mem.clearDirtyPages();
+        return;
+      }
+      for (Map.Entry<String, MemoryInterface> entry : mem.getSections().entrySet()) {
+        MemoryInterface section = entry.getValue();
+        ByteBuffer buffer = coreBuffers == null ? null : coreBuffers.get(entry.getKey());
+
+        /* Copy-on-write sections only copy pages that changed */
+        byte[] data;
+        if (section instanceof CopyOnWriteMemory) {
+          data = getStagingBuffer(section.getTotalSize());
+        } else {
+          data = section.getMemory();
+        }
+
+        if (buffer != null) {
+          buffer.clear();
+          buffer.get(data, 0, section.getTotalSize());
+        } else {
+          coreComm.getMemory(
+                  section.getStartAddr() - offset,
+                  section.getTotalSize(),
+                  data);
+        }
+
+        if (section instanceof CopyOnWriteMemory) {
+          ((CopyOnWriteMemory) section).update(data);
+        }
+      }
+      mem.clearDirtyPages();
+      coreMemoryOwner = mem;
+    }
+
+    /**
+     * Copy given memory to the Contiki system.
+     *
+     * If the Contiki system still holds the given memory since the last
+     * {@link #getCoreMemory(SectionMoteMemory)}, only the pages written from
+     * Java since are copied.
+     *
+     * @param mem
+     * New memory
+     */
+    public void setCoreMemory(SectionMoteMemory mem) {
+      if (mem == directMemory) {
+        mem.clearDirtyPages();
+        return;
+      }
+      if (mem == coreMemoryOwner) {
+        if (mem.hasDirtyPages()) {
+          setDirtyCoreMemory(mem);
+        }
+        return;
+      }
+
+      for (Map.Entry<String, MemoryInterface> entry : mem.getSections().entrySet()) {
+        MemoryInterface section = entry.getValue();
+        setCoreMemory(entry.getKey(), section, 0, section.getTotalSize());
+      }
+      mem.clearDirtyPages();
+      coreMemoryOwner = mem;
+    }
+
+    private void setDirtyCoreMemory(SectionMoteMemory mem) {
+      for (Map.Entry<String, MemoryInterface> entry : mem.getSections().entrySet()) {
+        MemoryInterface section = entry.getValue();
+        BitSet pages = mem.getDirtyPages(entry.getKey());
+
+        int page = pages.nextSetBit(0);
+        while (page >= 0) {
+          int end = pages.nextClearBit(page);
+          int from = page * SectionMoteMemory.DIRTY_PAGE_SIZE;
+          int length = Math.min(end * SectionMoteMemory.DIRTY_PAGE_SIZE, section.getTotalSize()) - from;
+          setCoreMemory(entry.getKey(), section, from, length);
+          page = pages.nextSetBit(end);
+        }
+      }
+      mem.clearDirtyPages();
+    }
+
+    private void setCoreMemory(String name, MemoryInterface section, int from, int length) {
+      byte[] data;
+      int pos;
+      if (section instanceof CopyOnWriteMemory) {
+        data = getStagingBuffer(length);
+        ((CopyOnWriteMemory) section).read(from, data, 0, length);
+        pos = 0;
+      } else {
+        data = section.getMemory();
+        pos = from;
+      }
+
+      ByteBuffer buffer = coreBuffers == null ? null : coreBuffers.get(name);
+      if (buffer != null) {
+        buffer.clear();
+        buffer.position(from);
+        buffer.put(data, pos, length);
+        return;
+      }
+
+      if (pos == 0) {
+        coreComm.setMemory(section.getStartAddr() - offset + from, length, data);
+        return;
+      }
+
+      /* Core communicator copies from start of array */
+      byte[] staging = getStagingBuffer(length);
+      System.arraycopy(data, pos, staging, 0, length);
+      coreComm.setMemory(section.getStartAddr() - offset + from, length, staging);
+    }
+
+    private byte[] getStagingBuffer(int length) {
+      if (stagingBuffer.length < length) {
+        stagingBuffer = new byte[length];
+      }
+      return stagingBuffer;
+    }
   }
 
   @Override
@@ -1100,7 +1662,7 @@ public class ContikiMoteType implements MoteType {
    * @param reservedIdentifiers Already reserved identifiers, may be null
    * @return Unique mote type ID.
    */
-  public static String generateUniqueMoteTypeID(MoteType[] existingTypes, Collection reservedIdentifiers) {
+  public static synchronized String generateUniqueMoteTypeID(MoteType[] existingTypes, Collection reservedIdentifiers) {
     String testID = "";
     boolean okID = false;
 
@@ -1139,11 +1701,19 @@ public class ContikiMoteType implements MoteType {
       if (libraryFile.exists() || CoreComm.hasLibraryFileBeenLoaded(libraryFile)) {
         okID = false;
       }
+
+      // Check if identifier was handed out earlier, but its library is not yet built
+      if (okID && !generatedIdentifiers.add(testID)) {
+        okID = false;
+      }
     }
 
     return testID;
   }
 
+  /* Identifiers generated in this JVM, possibly by concurrently loading simulations */
+  private static final Set<String> generatedIdentifiers = new HashSet<String>();
+
   /**
    * Returns a panel with interesting data for this mote type.
    *
@@ -1172,6 +1742,18 @@ public class ContikiMoteType implements MoteType {
     sb.append("<tr><td>JNI library</td><td>")
             .append(this.javaClassName).append("</td></tr>");
 
+    /* Library copies */
+    if (getLibraryCopies() > 1) {
+      sb.append("<tr><td>Library copies</td><td>")
+              .append(getLibraryCopies()).append("</td></tr>");
+    }
+
+    /* Mote memory */
+    if (initialMemory != null) {
+      sb.append("<tr><td>Mote memory</td><td>")
+              .append(getMemoryReport()).append("</td></tr>");
+    }
+
     /* Contiki sensors */
     sb.append("<tr><td valign=\"top\">Contiki sensors</td><td>");
     for (String sensor : sensors) {
@@ -1236,6 +1818,12 @@ public class ContikiMoteType implements MoteType {
       config.add(element);
     }
 
+    if (getLibraryCopies() > 1) {
+      element = new Element("librarycopies");
+      element.setText(Integer.toString(getLibraryCopies()));
+      config.add(element);
+    }
+
     return config;
   }
 
@@ -1284,6 +1872,9 @@ public class ContikiMoteType implements MoteType {
         case "netstack":
           netStack = NetworkStack.parseConfig(element.getText());
           break;
+        case "librarycopies":
+          setLibraryCopies(Integer.parseInt(element.getText().trim()));
+          break;
         case "moteinterface":
           String intfClass = element.getText().trim();
           /* Backwards compatibility: se.sics -> org.contikios */
@@ -50,6 +50,7 @@ import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.interfaces.Beeper;
 import org.contikios.cooja.interfaces.PolledAfterActiveTicks;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Beeper mote interface.
@@ -73,6 +74,7 @@ import org.contikios.cooja.mote.memory.VarMemory;
 public class ContikiBeeper extends Beeper implements ContikiMoteInterface, PolledAfterActiveTicks {
   private Mote mote = null;
   private VarMemory moteMem = null;
+  private VarMemory.Handle simBeeped;
   private static final Logger logger = LogManager.getLogger(ContikiBeeper.class);
 
   /**
@@ -86,11 +88,12 @@ public class ContikiBeeper extends Beeper implements ContikiMoteInterface, Polle
   public ContikiBeeper(Mote mote) {
     this.mote = mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simBeeped = moteMem.handle("simBeeped", DataType.BYTE);
   }
 
   @Override
   public boolean isBeeping() {
-    return moteMem.getByteValueOf("simBeeped") == 1;
+    return simBeeped.getByte() == 1;
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -99,11 +102,11 @@ public class ContikiBeeper extends Beeper implements ContikiMoteInterface, Polle
 
   @Override
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simBeeped") == 1) {
+    if (simBeeped.getByte() == 1) {
       this.setChanged();
       this.notifyObservers(mote);
 
-      moteMem.setByteValueOf("simBeeped", (byte) 0);
+      simBeeped.setByte((byte) 0);
     }
   }
 
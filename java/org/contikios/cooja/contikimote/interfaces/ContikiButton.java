@@ -38,6 +38,7 @@ import org.contikios.cooja.contikimote.ContikiMote;
 import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.interfaces.Button;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Button mote interface.
@@ -61,6 +62,9 @@ import org.contikios.cooja.mote.memory.VarMemory;
  */
 public class ContikiButton extends Button implements ContikiMoteInterface {
   private final VarMemory moteMem;
+  private VarMemory.Handle simButtonIsDown;
+  private VarMemory.Handle simButtonIsActive;
+  private VarMemory.Handle simButtonChanged;
   private final ContikiMote mote;
 
   private static final Logger logger = LogManager.getLogger(ContikiButton.class);
@@ -76,6 +80,9 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
     super(mote);
     this.mote = (ContikiMote) mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simButtonIsDown = moteMem.handle("simButtonIsDown", DataType.BYTE);
+    this.simButtonIsActive = moteMem.handle("simButtonIsActive", DataType.BYTE);
+    this.simButtonChanged = moteMem.handle("simButtonChanged", DataType.BYTE);
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -84,10 +91,10 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
 
   @Override
   protected void doReleaseButton() {
-    moteMem.setByteValueOf("simButtonIsDown", (byte) 0);
+    simButtonIsDown.setByte((byte) 0);
 
-    if (moteMem.getByteValueOf("simButtonIsActive") == 1) {
-      moteMem.setByteValueOf("simButtonChanged", (byte) 1);
+    if (simButtonIsActive.getByte() == 1) {
+      simButtonChanged.setByte((byte) 1);
 
       /* If mote is inactive, wake it up */
       mote.requestImmediateWakeup();
@@ -99,10 +106,10 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
 
   @Override
   protected void doPressButton() {
-    moteMem.setByteValueOf("simButtonIsDown", (byte) 1);
+    simButtonIsDown.setByte((byte) 1);
 
-    if (moteMem.getByteValueOf("simButtonIsActive") == 1) {
-      moteMem.setByteValueOf("simButtonChanged", (byte) 1);
+    if (simButtonIsActive.getByte() == 1) {
+      simButtonChanged.setByte((byte) 1);
 
       /* If mote is inactive, wake it up */
       mote.requestImmediateWakeup();
@@ -114,7 +121,7 @@ public class ContikiButton extends Button implements ContikiMoteInterface {
 
   @Override
   public boolean isPressed() {
-    return moteMem.getByteValueOf("simButtonIsDown") == 1;
+    return simButtonIsDown.getByte() == 1;
   }
 
 }
@@ -45,6 +45,7 @@ import org.contikios.cooja.*;
 import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.interfaces.PolledAfterActiveTicks;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Contiki FileSystem (CFS) interface (such as external flash).
@@ -74,6 +75,11 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
   public int FILESYSTEM_SIZE = 4000; /* Configure CFS size here and in cfs-cooja.c */
   private Mote mote = null;
   private VarMemory moteMem = null;
+  private VarMemory.Handle simCFSChanged;
+  private VarMemory.Handle simCFSRead;
+  private VarMemory.Handle simCFSWritten;
+  private VarMemory.Handle simCFSData;
+  private VarMemory.Handle simCFSSize;
 
   private int lastRead = 0;
   private int lastWritten = 0;
@@ -88,6 +94,11 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
   public ContikiCFS(Mote mote) {
     this.mote = mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simCFSChanged = moteMem.handle("simCFSChanged", DataType.BYTE);
+    this.simCFSRead = moteMem.handle("simCFSRead", DataType.INT);
+    this.simCFSWritten = moteMem.handle("simCFSWritten", DataType.INT);
+    this.simCFSData = moteMem.handle("simCFSData", DataType.BYTE);
+    this.simCFSSize = moteMem.handle("simCFSSize", DataType.INT);
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -96,13 +107,13 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
 
   @Override
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simCFSChanged") == 1) {
-      lastRead = moteMem.getIntValueOf("simCFSRead");
-      lastWritten = moteMem.getIntValueOf("simCFSWritten");
+    if (simCFSChanged.getByte() == 1) {
+      lastRead = simCFSRead.getInt();
+      lastWritten = simCFSWritten.getInt();
 
-      moteMem.setIntValueOf("simCFSRead", 0);
-      moteMem.setIntValueOf("simCFSWritten", 0);
-      moteMem.setByteValueOf("simCFSChanged", (byte) 0);
+      simCFSRead.setInt(0);
+      simCFSWritten.setInt(0);
+      simCFSChanged.setByte((byte) 0);
 
       this.setChanged();
       this.notifyObservers(mote);
@@ -121,8 +132,8 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
       return false;
     }
 
-    moteMem.setByteArray("simCFSData", data);
-    moteMem.setIntValueOf("simCFSSize", data.length);
+    simCFSData.setByteArray(data);
+    simCFSSize.setInt(data.length);
     return true;
   }
 
@@ -132,8 +143,8 @@ public class ContikiCFS extends MoteInterface implements ContikiMoteInterface, P
    * @return Filesystem data
    */
   public byte[] getFilesystemData() {
-    int size = moteMem.getIntValueOf("simCFSSize");
-    return moteMem.getByteArray("simCFSData", size);
+    int size = simCFSSize.getInt();
+    return simCFSData.getByteArray(size);
   }
 
   /**
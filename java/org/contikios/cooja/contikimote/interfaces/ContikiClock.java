@@ -46,6 +46,7 @@ import org.contikios.cooja.interfaces.Clock;
 import org.contikios.cooja.interfaces.PolledAfterAllTicks;
 import org.contikios.cooja.interfaces.PolledBeforeActiveTicks;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Clock mote interface. Controls Contiki time.
@@ -77,6 +78,13 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   private Simulation simulation;
   private ContikiMote mote;
   private VarMemory moteMem;
+  private VarMemory.Handle simCurrentTime;
+  private VarMemory.Handle simRtimerCurrentTicks;
+  private VarMemory.Handle simRtimerPending;
+  private VarMemory.Handle simRtimerNextExpirationTime;
+  private VarMemory.Handle simProcessRunValue;
+  private VarMemory.Handle simEtimerPending;
+  private VarMemory.Handle simEtimerNextExpirationTime;
 
   private long moteTime; /* Microseconds */
   private long timeDrift; /* Microseconds */
@@ -91,6 +99,13 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
     this.simulation = mote.getSimulation();
     this.mote = (ContikiMote) mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simCurrentTime = moteMem.handle("simCurrentTime", DataType.INT);
+    this.simRtimerCurrentTicks = moteMem.handle("simRtimerCurrentTicks", DataType.INT64);
+    this.simRtimerPending = moteMem.handle("simRtimerPending", DataType.INT);
+    this.simRtimerNextExpirationTime = moteMem.handle("simRtimerNextExpirationTime", DataType.INT64);
+    this.simProcessRunValue = moteMem.handle("simProcessRunValue", DataType.INT);
+    this.simEtimerPending = moteMem.handle("simEtimerPending", DataType.INT);
+    this.simEtimerNextExpirationTime = moteMem.handle("simEtimerNextExpirationTime", DataType.INT32);
     timeDrift = 0;
     moteTime = 0;
   }
@@ -103,7 +118,7 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
   public void setTime(long newTime) {
     moteTime = newTime;
     if (moteTime > 0) {
-      moteMem.setIntValueOf("simCurrentTime", (int)(newTime/1000));
+      simCurrentTime.setInt((int)(newTime/1000));
     }
   }
 
@@ -138,7 +153,7 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
     /* Update time */
     long currentSimulationTime = simulation.getSimulationTime();
     setTime(currentSimulationTime + timeDrift);
-    moteMem.setInt64ValueOf("simRtimerCurrentTicks", currentSimulationTime);
+    simRtimerCurrentTicks.setLong(currentSimulationTime);
   }
 
   @Override
@@ -146,26 +161,26 @@ public class ContikiClock extends Clock implements ContikiMoteInterface, PolledB
     long currentSimulationTime = mote.getSimulation().getSimulationTime();
 
     /* Always schedule for Rtimer if anything pending */
-    if (moteMem.getIntValueOf("simRtimerPending") != 0) {
-      mote.scheduleNextWakeup(moteMem.getInt64ValueOf("simRtimerNextExpirationTime"));
+    if (simRtimerPending.getInt() != 0) {
+      mote.scheduleNextWakeup(simRtimerNextExpirationTime.getLong());
     }
 
     /* Request next tick for remaining events / timers */
-    int processRunValue = moteMem.getIntValueOf("simProcessRunValue");
+    int processRunValue = simProcessRunValue.getInt();
     if (processRunValue != 0) {
       /* Handle next Contiki event in one millisecond */
       mote.scheduleNextWakeup(currentSimulationTime + Simulation.MILLISECOND);
       return;
     }
 
-    int etimersPending = moteMem.getIntValueOf("simEtimerPending");
+    int etimersPending = simEtimerPending.getInt();
     if (etimersPending == 0) {
       /* No timers */
       return;
     }
 
     /* Request tick next wakeup time for Etimer */
-    long etimerNextExpirationTime = (long)moteMem.getInt32ValueOf("simEtimerNextExpirationTime") * Simulation.MILLISECOND;
+    long etimerNextExpirationTime = (long)simEtimerNextExpirationTime.getInt() * Simulation.MILLISECOND;
     long etimerTimeToNextExpiration = etimerNextExpirationTime - moteTime;
     if (etimerTimeToNextExpiration <= 0) {
       /* logger.warn(mote.getID() + ": Event timer already expired, but has been delayed: " + etimerTimeToNextExpiration); */
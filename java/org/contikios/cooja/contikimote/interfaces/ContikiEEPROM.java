@@ -46,6 +46,7 @@ import org.contikios.cooja.*;
 import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.interfaces.PolledAfterActiveTicks;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Contiki EEPROM interface
@@ -75,6 +76,10 @@ public class ContikiEEPROM extends MoteInterface implements ContikiMoteInterface
   public int EEPROM_SIZE = 1024; /* Configure EEPROM size here and in eeprom.c. Should really be multiple of 16 */
   private Mote mote = null;
   private VarMemory moteMem = null;
+  private VarMemory.Handle simEEPROMChanged;
+  private VarMemory.Handle simEEPROMRead;
+  private VarMemory.Handle simEEPROMWritten;
+  private VarMemory.Handle simEEPROMData;
 
   private int lastRead = 0;
   private int lastWritten = 0;
@@ -89,6 +94,10 @@ public class ContikiEEPROM extends MoteInterface implements ContikiMoteInterface
   public ContikiEEPROM(Mote mote) {
     this.mote = mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simEEPROMChanged = moteMem.handle("simEEPROMChanged", DataType.BYTE);
+    this.simEEPROMRead = moteMem.handle("simEEPROMRead", DataType.INT);
+    this.simEEPROMWritten = moteMem.handle("simEEPROMWritten", DataType.INT);
+    this.simEEPROMData = moteMem.handle("simEEPROMData", DataType.BYTE);
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -97,13 +106,13 @@ public class ContikiEEPROM extends MoteInterface implements ContikiMoteInterface
 
   @Override
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simEEPROMChanged") == 1) {
-      lastRead = moteMem.getIntValueOf("simEEPROMRead");
-      lastWritten = moteMem.getIntValueOf("simEEPROMWritten");
+    if (simEEPROMChanged.getByte() == 1) {
+      lastRead = simEEPROMRead.getInt();
+      lastWritten = simEEPROMWritten.getInt();
 
-      moteMem.setIntValueOf("simEEPROMRead", 0);
-      moteMem.setIntValueOf("simEEPROMWritten", 0);
-      moteMem.setByteValueOf("simEEPROMChanged", (byte) 0);
+      simEEPROMRead.setInt(0);
+      simEEPROMWritten.setInt(0);
+      simEEPROMChanged.setByte((byte) 0);
 
       this.setChanged();
       this.notifyObservers(mote);
@@ -122,7 +131,7 @@ public class ContikiEEPROM extends MoteInterface implements ContikiMoteInterface
       return false;
     }
 
-    moteMem.setByteArray("simEEPROMData", data);
+    simEEPROMData.setByteArray(data);
     return true;
   }
 
@@ -132,7 +141,7 @@ public class ContikiEEPROM extends MoteInterface implements ContikiMoteInterface
    * @return Filesystem data
    */
   public byte[] getEEPROMData() {
-    return moteMem.getByteArray("simEEPROMData", EEPROM_SIZE);
+    return simEEPROMData.getByteArray(EEPROM_SIZE);
   }
 
   /**
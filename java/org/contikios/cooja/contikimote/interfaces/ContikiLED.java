@@ -42,6 +42,7 @@ import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.interfaces.LED;
 import org.contikios.cooja.interfaces.PolledAfterActiveTicks;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * LEDs mote interface.
@@ -67,6 +68,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
 
   private Mote mote = null;
   private VarMemory moteMem = null;
+  private VarMemory.Handle simLedsValue;
   private byte currentLedValue = 0;
 
   private static final byte LEDS_GREEN = 1;
@@ -94,6 +96,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
   public ContikiLED(Mote mote) {
     this.mote = mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simLedsValue = moteMem.handle("simLedsValue", DataType.BYTE);
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -124,7 +127,7 @@ public class ContikiLED extends LED implements ContikiMoteInterface, PolledAfter
   public void doActionsAfterTick() {
     boolean ledChanged;
 
-    byte newLedsValue = moteMem.getByteValueOf("simLedsValue");
+    byte newLedsValue = simLedsValue.getByte();
     if (newLedsValue != currentLedValue) {
       ledChanged = true;
     } else {
@@ -40,6 +40,7 @@ import org.contikios.cooja.*;
 import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.interfaces.MoteID;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Mote ID interface: 'node_id'.
@@ -63,6 +64,9 @@ import org.contikios.cooja.mote.memory.VarMemory;
  */
 public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
   private VarMemory moteMem = null;
+  private VarMemory.Handle simMoteID;
+  private VarMemory.Handle simMoteIDChanged;
+  private VarMemory.Handle simRandomSeed;
   private static final Logger logger = LogManager.getLogger(ContikiMoteID.class);
 
   private int moteID = 0;
@@ -80,6 +84,9 @@ public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
   public ContikiMoteID(Mote mote) {
     this.mote = mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simMoteID = moteMem.handle("simMoteID", DataType.INT);
+    this.simMoteIDChanged = moteMem.handle("simMoteIDChanged", DataType.BYTE);
+    this.simRandomSeed = moteMem.handle("simRandomSeed", DataType.INT);
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -94,9 +101,9 @@ public class ContikiMoteID extends MoteID implements ContikiMoteInterface {
   @Override
   public void setMoteID(int newID) {
     moteID = newID;
-    moteMem.setIntValueOf("simMoteID", moteID);
-    moteMem.setByteValueOf("simMoteIDChanged", (byte) 1);
-    moteMem.setIntValueOf("simRandomSeed", (int) (mote.getSimulation().getRandomSeed() + newID));
+    simMoteID.setInt(moteID);
+    simMoteIDChanged.setByte((byte) 1);
+    simRandomSeed.setInt((int) (mote.getSimulation().getRandomSeed() + newID));
     setChanged();
     notifyObservers();
   }
@@ -42,6 +42,7 @@ import org.contikios.cooja.contikimote.ContikiMote;
 import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.interfaces.PIR;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Passive IR sensor mote interface.
@@ -67,6 +68,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
 
   private ContikiMote mote;
   private VarMemory moteMem;
+  private VarMemory.Handle simPirIsActive;
+  private VarMemory.Handle simPirChanged;
 
   /**
    * Creates an interface to the PIR at mote.
@@ -79,6 +82,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
   public ContikiPIR(Mote mote) {
     this.mote = (ContikiMote) mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simPirIsActive = moteMem.handle("simPirIsActive", DataType.BYTE);
+    this.simPirChanged = moteMem.handle("simPirChanged", DataType.BYTE);
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -99,8 +104,8 @@ public class ContikiPIR extends PIR implements ContikiMoteInterface {
   }
 
   public void doTriggerChange() { 
-    if (moteMem.getByteValueOf("simPirIsActive") == 1) {
-      moteMem.setByteValueOf("simPirChanged", (byte) 1);
+    if (simPirIsActive.getByte() == 1) {
+      simPirChanged.setByte((byte) 1);
 
       mote.requestImmediateWakeup();
     }
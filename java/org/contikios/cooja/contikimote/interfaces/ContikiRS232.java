@@ -40,6 +40,7 @@ import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.dialogs.SerialUI;
 import org.contikios.cooja.interfaces.PolledAfterActiveTicks;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Contiki mote serial port and log interfaces.
@@ -71,6 +72,12 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
 
   private ContikiMote mote = null;
   private VarMemory moteMem = null;
+  private VarMemory.Handle simLoggedFlag;
+  private VarMemory.Handle simLoggedLength;
+  private VarMemory.Handle simLoggedData;
+  private VarMemory.Handle simSerialReceivingLength;
+  private VarMemory.Handle simSerialReceivingData;
+  private VarMemory.Handle simSerialReceivingFlag;
 
   static final int SERIAL_BUF_SIZE = 16 * 1024; /* rs232.c:40 */
 
@@ -85,6 +92,12 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
   public ContikiRS232(Mote mote) {
     this.mote = (ContikiMote) mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simLoggedFlag = moteMem.handle("simLoggedFlag", DataType.BYTE);
+    this.simLoggedLength = moteMem.handle("simLoggedLength", DataType.INT);
+    this.simLoggedData = moteMem.handle("simLoggedData", DataType.BYTE);
+    this.simSerialReceivingLength = moteMem.handle("simSerialReceivingLength", DataType.INT);
+    this.simSerialReceivingData = moteMem.handle("simSerialReceivingData", DataType.BYTE);
+    this.simSerialReceivingFlag = moteMem.handle("simSerialReceivingFlag", DataType.BYTE);
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -93,12 +106,12 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
 
   @Override
   public void doActionsAfterTick() {
-    if (moteMem.getByteValueOf("simLoggedFlag") == 1) {
-      int len = moteMem.getIntValueOf("simLoggedLength");
-      byte[] bytes = moteMem.getByteArray("simLoggedData", len);
+    if (simLoggedFlag.getByte() == 1) {
+      int len = simLoggedLength.getInt();
+      byte[] bytes = simLoggedData.getByteArray(len);
 
-      moteMem.setByteValueOf("simLoggedFlag", (byte) 0);
-      moteMem.setIntValueOf("simLoggedLength", 0);
+      simLoggedFlag.setByte((byte) 0);
+      simLoggedLength.setInt(0);
 
       for (byte b: bytes) {
         dataReceived(b);
@@ -114,24 +127,24 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
       @Override
       public void run() {
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
         if (newSize > SERIAL_BUF_SIZE) {
         	logger.fatal("ContikiRS232: dropping rs232 data #1, buffer full: " + oldSize + " -> " + newSize);
         	mote.requestImmediateWakeup();
         	return;
         }
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
-        byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
+        byte[] oldData = simSerialReceivingData.getByteArray(oldSize);
         byte[] newData = new byte[newSize];
 
         System.arraycopy(oldData, 0, newData, 0, oldData.length);
         System.arraycopy(dataToAppend, 0, newData, oldSize, dataToAppend.length);
 
-        moteMem.setByteArray("simSerialReceivingData", newData);
+        simSerialReceivingData.setByteArray(newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
         mote.requestImmediateWakeup();
       }
     });
@@ -172,24 +185,24 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
         }
 
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
         if (newSize > SERIAL_BUF_SIZE) {
         	logger.fatal("ContikiRS232: dropping rs232 data #2, buffer full: " + oldSize + " -> " + newSize);
         	mote.requestImmediateWakeup();
         	return;
         }
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
-        byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
+        byte[] oldData = simSerialReceivingData.getByteArray(oldSize);
         byte[] newData = new byte[newSize];
 
         System.arraycopy(oldData, 0, newData, 0, oldData.length);
         System.arraycopy(dataToAppend, 0, newData, oldSize, dataToAppend.length);
 
-        moteMem.setByteArray("simSerialReceivingData", newData);
+        simSerialReceivingData.setByteArray(newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
 
         /* Reschedule us if more bytes are available */
         mote.getSimulation().scheduleEvent(this, t);
@@ -233,24 +246,24 @@ public class ContikiRS232 extends SerialUI implements ContikiMoteInterface, Poll
         }
 
         /* Append to existing buffer */
-        int oldSize = moteMem.getIntValueOf("simSerialReceivingLength");
+        int oldSize = simSerialReceivingLength.getInt();
         int newSize = oldSize + dataToAppend.length;
         if (newSize > SERIAL_BUF_SIZE) {
         	logger.fatal("ContikiRS232: dropping rs232 data #3, buffer full: " + oldSize + " -> " + newSize);
         	mote.requestImmediateWakeup();
         	return;
         }
-        moteMem.setIntValueOf("simSerialReceivingLength", newSize);
+        simSerialReceivingLength.setInt(newSize);
 
-        byte[] oldData = moteMem.getByteArray("simSerialReceivingData", oldSize);
+        byte[] oldData = simSerialReceivingData.getByteArray(oldSize);
         byte[] newData = new byte[newSize];
 
         System.arraycopy(oldData, 0, newData, 0, oldData.length);
         System.arraycopy(dataToAppend, 0, newData, oldSize, dataToAppend.length);
 
-        moteMem.setByteArray("simSerialReceivingData", newData);
+        simSerialReceivingData.setByteArray(newData);
 
-        moteMem.setByteValueOf("simSerialReceivingFlag", (byte) 1);
+        simSerialReceivingFlag.setByte((byte) 1);
 
         /* Reschedule us if more bytes are available */
         mote.getSimulation().scheduleEvent(this, t);
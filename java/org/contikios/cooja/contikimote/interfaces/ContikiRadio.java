@@ -48,6 +48,7 @@ import org.contikios.cooja.interfaces.PolledAfterActiveTicks;
 import org.contikios.cooja.interfaces.Position;
 import org.contikios.cooja.interfaces.Radio;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 import org.contikios.cooja.radiomediums.UDGM;
 import org.contikios.cooja.util.CCITT_CRC;
 /**
@@ -93,6 +94,17 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
   private ContikiMote mote;
 
   private VarMemory myMoteMemory;
+  private VarMemory.Handle simRadioHWOn;
+  private VarMemory.Handle simReceiving;
+  private VarMemory.Handle simRadioChannel;
+  private VarMemory.Handle simLastPacketTimestamp;
+  private VarMemory.Handle simInSize;
+  private VarMemory.Handle simInDataBuffer;
+  private VarMemory.Handle simPower;
+  private VarMemory.Handle simSignalStrength;
+  private VarMemory.Handle simLQI;
+  private VarMemory.Handle simOutSize;
+  private VarMemory.Handle simOutDataBuffer;
 
   private static final Logger logger = LogManager.getLogger(ContikiRadio.class);
 
@@ -136,8 +148,19 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
     this.mote = (ContikiMote) mote;
     this.myMoteMemory = new VarMemory(mote.getMemory());
-
-    radioOn = myMoteMemory.getByteValueOf("simRadioHWOn") == 1;
+    this.simRadioHWOn = myMoteMemory.handle("simRadioHWOn", DataType.BYTE);
+    this.simReceiving = myMoteMemory.handle("simReceiving", DataType.BYTE);
+    this.simRadioChannel = myMoteMemory.handle("simRadioChannel", DataType.INT);
+    this.simLastPacketTimestamp = myMoteMemory.handle("simLastPacketTimestamp", DataType.INT64);
+    this.simInSize = myMoteMemory.handle("simInSize", DataType.INT);
+    this.simInDataBuffer = myMoteMemory.handle("simInDataBuffer", DataType.BYTE);
+    this.simPower = myMoteMemory.handle("simPower", DataType.BYTE);
+    this.simSignalStrength = myMoteMemory.handle("simSignalStrength", DataType.INT);
+    this.simLQI = myMoteMemory.handle("simLQI", DataType.INT);
+    this.simOutSize = myMoteMemory.handle("simOutSize", DataType.INT);
+    this.simOutDataBuffer = myMoteMemory.handle("simOutDataBuffer", DataType.BYTE);
+
+    radioOn = simRadioHWOn.getByte() == 1;
   }
 
   /* Contiki mote interface support */
@@ -174,7 +197,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
   @Override
   public boolean isReceiving() {
-    return myMoteMemory.getByteValueOf("simReceiving") == 1;
+    return simReceiving.getByte() == 1;
   }
 
   @Override
@@ -184,7 +207,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
   @Override
   public int getChannel() {
-    return myMoteMemory.getIntValueOf("simRadioChannel");
+    return simRadioChannel.getInt();
   }
 
   @Override
@@ -195,13 +218,13 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
       return;
     }
 
-    myMoteMemory.setByteValueOf("simReceiving", (byte) 1);
+    simReceiving.setByte((byte) 1);
     mote.requestImmediateWakeup();
 
     lastEventTime = mote.getSimulation().getSimulationTime();
     lastEvent = RadioEvent.RECEPTION_STARTED;
 
-    myMoteMemory.setInt64ValueOf("simLastPacketTimestamp", lastEventTime);
+    simLastPacketTimestamp.setLong(lastEventTime);
 
     this.setChanged();
     this.notifyObservers();
@@ -212,13 +235,13 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     if (isInterfered || packetToMote == null) {
       isInterfered = false;
       packetToMote = null;
-      myMoteMemory.setIntValueOf("simInSize", 0);
+      simInSize.setInt(0);
     } else {
-      myMoteMemory.setIntValueOf("simInSize", packetToMote.getPacketData().length - 2);
-      myMoteMemory.setByteArray("simInDataBuffer", packetToMote.getPacketData());
+      simInSize.setInt(packetToMote.getPacketData().length - 2);
+      simInDataBuffer.setByteArray(packetToMote.getPacketData());
     }
 
-    myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
+    simReceiving.setByte((byte) 0);
     mote.requestImmediateWakeup();
     lastEventTime = mote.getSimulation().getSimulationTime();
     lastEvent = RadioEvent.RECEPTION_FINISHED;
@@ -259,17 +282,17 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
   @Override
   public int getCurrentOutputPowerIndicator() {
-    return myMoteMemory.getByteValueOf("simPower");
+    return simPower.getByte();
   }
 
   @Override
   public double getCurrentSignalStrength() {
-    return myMoteMemory.getIntValueOf("simSignalStrength");
+    return simSignalStrength.getInt();
   }
 
   @Override
   public void setCurrentSignalStrength(double signalStrength) {
-    myMoteMemory.setIntValueOf("simSignalStrength", (int) signalStrength);
+    simSignalStrength.setInt((int) signalStrength);
   }
 
   /** Set LQI to a value between 0 and 255.
@@ -284,12 +307,12 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     else if(lqi>0xff) {
       lqi=0xff;
     }
-    myMoteMemory.setIntValueOf("simLQI", lqi);
+    simLQI.setInt(lqi);
   }
 
   @Override
   public int getLQI(){
-    return myMoteMemory.getIntValueOf("simLQI");
+    return simLQI.getInt();
   }
 
   @Override
@@ -302,13 +325,13 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     long now = mote.getSimulation().getSimulationTime();
 
     /* Check if radio hardware status changed */
-    if (radioOn != (myMoteMemory.getByteValueOf("simRadioHWOn") == 1)) {
+    if (radioOn != (simRadioHWOn.getByte() == 1)) {
       radioOn = !radioOn;
 
       if (!radioOn) {
-        myMoteMemory.setByteValueOf("simReceiving", (byte) 0);
-        myMoteMemory.setIntValueOf("simInSize", 0);
-        myMoteMemory.setIntValueOf("simOutSize", 0);
+        simReceiving.setByte((byte) 0);
+        simInSize.setInt(0);
+        simOutSize.setInt(0);
         isTransmitting = false;
         lastEvent = RadioEvent.HW_OFF;
       } else {
@@ -324,8 +347,8 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     /* Check if radio output power changed */
-    if (myMoteMemory.getByteValueOf("simPower") != oldOutputPowerIndicator) {
-      oldOutputPowerIndicator = myMoteMemory.getByteValueOf("simPower");
+    if (simPower.getByte() != oldOutputPowerIndicator) {
+      oldOutputPowerIndicator = simPower.getByte();
       lastEvent = RadioEvent.UNKNOWN;
       this.setChanged();
       this.notifyObservers();
@@ -341,7 +364,7 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
 
     /* Ongoing transmission */
     if (isTransmitting && now >= transmissionEndTime) {
-      myMoteMemory.setIntValueOf("simOutSize", 0);
+      simOutSize.setInt(0);
       isTransmitting = false;
       mote.requestImmediateWakeup();
 
@@ -353,13 +376,13 @@ public class ContikiRadio extends Radio implements ContikiMoteInterface, PolledA
     }
 
     /* New transmission */
-    int size = myMoteMemory.getIntValueOf("simOutSize");
+    int size = simOutSize.getInt();
     if (!isTransmitting && size > 0) {
-      packetFromMote = new COOJARadioPacket(myMoteMemory.getByteArray("simOutDataBuffer", size + 2));
+      packetFromMote = new COOJARadioPacket(simOutDataBuffer.getByteArray(size + 2));
 
       if (packetFromMote.getPacketData() == null || packetFromMote.getPacketData().length == 0) {
         logger.warn("Skipping zero sized Contiki packet (no buffer)");
-        myMoteMemory.setIntValueOf("simOutSize", 0);
+        simOutSize.setInt(0);
         mote.requestImmediateWakeup();
         return;
       }
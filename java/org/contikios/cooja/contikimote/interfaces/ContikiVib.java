@@ -43,6 +43,7 @@ import org.contikios.cooja.mote.memory.SectionMoteMemory;
 import org.contikios.cooja.contikimote.ContikiMote;
 import org.contikios.cooja.contikimote.ContikiMoteInterface;
 import org.contikios.cooja.mote.memory.VarMemory;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Vibration sensor mote interface.
@@ -69,6 +70,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
 
   private ContikiMote mote;
   private VarMemory moteMem;
+  private VarMemory.Handle simVibIsActive;
+  private VarMemory.Handle simVibChanged;
 
   /**
    * Creates an interface to the vibration sensor at mote.
@@ -81,6 +84,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
   public ContikiVib(Mote mote) {
     this.mote = (ContikiMote) mote;
     this.moteMem = new VarMemory(mote.getMemory());
+    this.simVibIsActive = moteMem.handle("simVibIsActive", DataType.BYTE);
+    this.simVibChanged = moteMem.handle("simVibChanged", DataType.BYTE);
   }
 
   public static String[] getCoreInterfaceDependencies() {
@@ -100,8 +105,8 @@ public class ContikiVib extends MoteInterface implements ContikiMoteInterface {
   }
   
   public void doTriggerChange() { 
-    if (moteMem.getByteValueOf("simVibIsActive") == 1) {
-      moteMem.setByteValueOf("simVibChanged", (byte) 1);
+    if (simVibIsActive.getByte() == 1) {
+      simVibChanged.setByte((byte) 1);
 
       mote.requestImmediateWakeup();
     }
@@ -49,6 +49,8 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.io.PrintStream;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -67,6 +69,7 @@ import javax.swing.JScrollPane;
 import org.contikios.cooja.CoreComm;
 import org.contikios.cooja.Cooja;
 import org.contikios.cooja.MoteType.MoteTypeCreationException;
+import org.contikios.cooja.mote.memory.MemoryLayout;
 import org.contikios.cooja.mote.memory.SectionMoteMemory;
 import org.contikios.cooja.contikimote.ContikiMoteType;
 import org.contikios.cooja.contikimote.ContikiMoteType.SectionParser;
@@ -182,6 +185,11 @@ public class ConfigurationWizard extends JDialog {
       return false;
     }
 
+    /* Test 5 - Library copies */
+    if (!doLibraryCopiesTest((JFrame)parentContainer, gui)) {
+      return false;
+    }
+
     return true;
   }
 
@@ -207,7 +215,7 @@ public class ConfigurationWizard extends JDialog {
   }
 
   public static boolean doCompileCTest(JFrame parent, Cooja gui) {
-    final String testDescription = "Step 1/4 - Compile and link Contiki library";
+    final String testDescription = "Step 1/5 - Compile and link Contiki library";
     String value = OPTION_RUN_TEST;
     while (value.equals(OPTION_RUN_TEST)) {
       value = showStepDialog(
@@ -262,7 +270,7 @@ public class ConfigurationWizard extends JDialog {
   }
 
   public static boolean doLoadLibraryTest(JFrame parent, Cooja gui) {
-    final String testDescription = "Step 2/4 - Load Contiki library in Java";
+    final String testDescription = "Step 2/5 - Load Contiki library in Java";
     String value = OPTION_RUN_TEST;
     while (value.equals(OPTION_RUN_TEST)) {
       value = showStepDialog(
@@ -318,7 +326,7 @@ public class ConfigurationWizard extends JDialog {
   }
 
   public static boolean doAddressParsingTest(JFrame parent, Cooja gui) {
-    final String testDescription = "Step 3/4 - Library memory addresses";
+    final String testDescription = "Step 3/5 - Library memory addresses";
     String value = OPTION_RUN_TEST;
     while (value.equals(OPTION_RUN_TEST)) {
       value = showStepDialog(
@@ -375,13 +383,67 @@ public class ConfigurationWizard extends JDialog {
   }
 
   public static boolean doMemoryReplacementTest(JFrame parent, Cooja gui) {
-    final String testDescription = "Step 4/4 - Memory replacement test";
+    final String testDescription = "Step 4/5 - Memory replacement test";
     String value = OPTION_RUN_TEST;
     while (value.equals(OPTION_RUN_TEST)) {
       value = showStepDialog(
           parent,
           "Tests copying memory sections between Contiki and Cooja.\n" +
-          "Variable values are both altered in Contiki and in Cooja.\n" +
+          "Variable values are both altered in Contiki and in Cooja.\n",
+          testDescription,
+          null,
+          false
+      );
+
+      if (value == null) {
+        return false;
+      }
+
+      if (value.equals(OPTION_NEXT_TEST)) {
+        return true;
+      }
+
+      if (!value.equals(OPTION_RUN_TEST)) {
+        return false;
+      }
+
+      prepareShowTestProgress(parent, testDescription);
+
+      /* Start test */
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          testCounter++;
+          PrintStream normalStream = new PrintStream(output.getInputStream(MessageList.NORMAL));
+          PrintStream errorStream = new PrintStream(output.getInputStream(MessageList.ERROR));
+          boolean success = performMemoryReplacementTest(output, normalStream, errorStream);
+          normalStream.close();
+          errorStream.close();
+
+          if (success) {
+            output.addMessage("### Test OK", MessageList.NORMAL);
+          } else {
+            output.addMessage("### Test failed", MessageList.ERROR);
+          }
+          button.setEnabled(true);
+          progressBar.setIndeterminate(false);
+        }
+      }).start();
+
+      showTestProgress(parent);
+    }
+
+    return false;
+  }
+  public static boolean doLibraryCopiesTest(JFrame parent, Cooja gui) {
+    final String testDescription = "Step 5/5 - Library copies test";
+    String value = OPTION_RUN_TEST;
+    while (value.equals(OPTION_RUN_TEST)) {
+      value = showStepDialog(
+          parent,
+          "Tests loading a private copy of a Contiki library, as used by mote types\n" +
+          "with several library copies. The copy must get its own memory at its own\n" +
+          "addresses, and motes in the library and in the copy must progress independently.\n" +
           "\n" +
           "This is the final test!\n",
           testDescription,
@@ -410,7 +472,7 @@ public class ConfigurationWizard extends JDialog {
           testCounter++;
           PrintStream normalStream = new PrintStream(output.getInputStream(MessageList.NORMAL));
           PrintStream errorStream = new PrintStream(output.getInputStream(MessageList.ERROR));
-          boolean success = performMemoryReplacementTest(output, normalStream, errorStream);
+          boolean success = performLibraryCopiesTest(output, normalStream, errorStream);
           normalStream.close();
           errorStream.close();
 
@@ -430,6 +492,7 @@ public class ConfigurationWizard extends JDialog {
     return false;
   }
 
+
   private static void prepareShowTestProgress(JFrame parent, String desc) {
     output = new MessageListUI();
     output.addPopupMenuItem(null, true);
@@ -1103,4 +1166,108 @@ public class ConfigurationWizard extends JDialog {
     return true;
   }
 
+  public static boolean performLibraryCopiesTest(MessageListUI testOutput, PrintStream normalStream, PrintStream errorStream) {
+    MessageListUI dummy = new MessageListUI();
+    PrintStream dummyStream = dummy.getInputStream(MessageList.NORMAL);
+    if (!performCompileCTest(dummy, dummyStream, errorStream)) {
+      return false;
+    }
+    if (!performLoadTest(dummy, dummyStream, errorStream)) {
+      return false;
+    }
+    boolean parseWithCommand = Boolean.parseBoolean(Cooja.getExternalToolsSetting("PARSE_WITH_COMMAND", "false"));
+    if (parseWithCommand) {
+      if (!performCommandAddressTest(dummy, dummyStream, errorStream)) {
+        return false;
+      }
+    } else {
+      if (!performMapAddressTest(dummy, dummyStream, errorStream)) {
+        return false;
+      }
+    }
+    dummyStream.close();
+
+    testOutput.addMessage("### Testing Contiki library copies");
+    for (String varName : new String[] { "referenceVar", "var1", "uvar1", "ptr1" }) {
+      if (!addresses.containsKey(varName)) {
+        testOutput.addMessage("Could not find address of: " + varName, MessageList.ERROR);
+        return false;
+      }
+    }
+    Symbol refSymbol = addresses.get("referenceVar");
+    Symbol dataSymbol = addresses.get("var1");
+    Symbol bssSymbol = addresses.get("uvar1");
+    Symbol ptrSymbol = addresses.get("ptr1");
+    MemoryLayout layout = MemoryLayout.getNative();
+
+    File copyFile = new File(ContikiMoteType.tempOutputDirectory, cLibraryName + ".copy1" + ContikiMoteType.librarySuffix);
+    testOutput.addMessage("### Loading library copy: " + copyFile);
+    CoreComm copy;
+    try {
+      copy = CoreComm.createCoreCommCopy(javaLibraryName, cLibraryFile, copyFile);
+    } catch (MoteTypeCreationException e) {
+      e.printStackTrace(errorStream);
+      testOutput.addMessage("### Error: " + e.getMessage(), MessageList.ERROR);
+      return false;
+    }
+    CoreComm[] libraries = new CoreComm[] { javaLibrary, copy };
+
+    testOutput.addMessage("### Configuring library and copy using parsed reference address");
+    long[] offsets = new long[libraries.length];
+    for (int i = 0; i < libraries.length; i++) {
+      libraries[i].setReferenceAddress(refSymbol.addr);
+      offsets[i] = readLibraryValue(libraries[i], refSymbol, layout.addrSize);
+      testOutput.addMessage("Library " + i + " address offset: 0x" + Long.toHexString(offsets[i]));
+    }
+    if (offsets[0] == offsets[1]) {
+      testOutput.addMessage("### Library and copy share addresses", MessageList.ERROR);
+      return false;
+    }
+
+    testOutput.addMessage("### Checking that pointers in each library point into that library");
+    for (int i = 0; i < libraries.length; i++) {
+      long pointer = readLibraryValue(libraries[i], ptrSymbol, layout.addrSize);
+      if (pointer - offsets[i] != dataSymbol.addr) {
+        testOutput.addMessage("### Library " + i + " pointer mismatch (0x" + Long.toHexString(pointer) +
+            " != 0x" + Long.toHexString(dataSymbol.addr + offsets[i]) + ")", MessageList.ERROR);
+        return false;
+      }
+    }
+
+    testOutput.addMessage("### Ticking mote in library 3 times, mote in copy once");
+    long[] dataCounters = new long[libraries.length];
+    long[] bssCounters = new long[libraries.length];
+    for (int i = 0; i < libraries.length; i++) {
+      dataCounters[i] = readLibraryValue(libraries[i], dataSymbol, layout.intSize);
+      bssCounters[i] = readLibraryValue(libraries[i], bssSymbol, layout.intSize);
+    }
+    javaLibrary.tick(); dataCounters[0]++; bssCounters[0]++;
+    copy.tick(); dataCounters[1]++; bssCounters[1]++;
+    javaLibrary.tick(); dataCounters[0]++; bssCounters[0]++;
+    javaLibrary.tick(); dataCounters[0]++; bssCounters[0]++;
+
+    testOutput.addMessage("### Fetching memory, comparing counters");
+    for (int i = 0; i < libraries.length; i++) {
+      long contikiDataCounter = readLibraryValue(libraries[i], dataSymbol, layout.intSize);
+      long contikiBSSCounter = readLibraryValue(libraries[i], bssSymbol, layout.intSize);
+      if (contikiDataCounter != dataCounters[i]) {
+        testOutput.addMessage("### Library " + i + " data section mismatch (" + contikiDataCounter + " != " + dataCounters[i] + ")", MessageList.ERROR);
+        return false;
+      }
+      if (contikiBSSCounter != bssCounters[i]) {
+        testOutput.addMessage("### Library " + i + " BSS section mismatch (" + contikiBSSCounter + " != " + bssCounters[i] + ")", MessageList.ERROR);
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static long readLibraryValue(CoreComm library, Symbol symbol, int size) {
+    byte[] data = new byte[size];
+    library.getMemory(symbol.addr, size, data);
+    ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.nativeOrder());
+    return size == 8 ? buffer.getLong() : buffer.getInt();
+  }
+
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja.mote.memory;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A memory section backed by a direct buffer over native memory, such as a
+ * section of a loaded Contiki library. Reads and writes go straight to the
+ * native memory, so it need not be copied in and out around native calls.
+ * <p>
+ * A section may be detached from its buffer, after which it keeps a private
+ * copy of the buffer content in a Java array. Detached sections are copied
+ * to and from native memory like any other section.
+ */
+public class BufferMemory implements MemoryInterface {
+  private final long startAddress;
+  private final int size;
+  private final MemoryLayout layout;
+  private final Map<String, Symbol> symbols;
+
+  private ByteBuffer buffer; /* null when detached */
+  private byte[] memory = null; /* null when attached */
+
+  /**
+   * @param address Start address
+   * @param layout Memory layout
+   * @param buffer Direct buffer with the section content, capacity is section size
+   * @param symbols Symbols
+   */
+  public BufferMemory(long address, MemoryLayout layout, ByteBuffer buffer, Map<String, Symbol> symbols) {
+    this.startAddress = address;
+    this.size = buffer.capacity();
+    this.layout = layout;
+    this.buffer = buffer.duplicate();
+    this.symbols = symbols;
+  }
+
+  /**
+   * @return True if reads and writes go to the native buffer
+   */
+  public boolean isAttached() {
+    return buffer != null;
+  }
+
+  /**
+   * Copies the buffer content to a private array, and stops using the buffer.
+   */
+  public void detach() {
+    if (buffer == null) {
+      return;
+    }
+    memory = new byte[size];
+    buffer.clear();
+    buffer.get(memory);
+    buffer = null;
+  }
+
+  /**
+   * Reads byte at given offset.
+   *
+   * @param offset Offset in section
+   * @return Value
+   */
+  public byte get(int offset) {
+    return buffer != null ? buffer.get(offset) : memory[offset];
+  }
+
+  /**
+   * Writes byte at given offset.
+   *
+   * @param offset Offset in section
+   * @param value Value
+   */
+  public void set(int offset, byte value) {
+    if (buffer != null) {
+      buffer.put(offset, value);
+    } else {
+      memory[offset] = value;
+    }
+  }
+
+  /**
+   * Copies data from this memory.
+   *
+   * @param offset Offset in section
+   * @param dst Destination array
+   * @param dstOffset Offset in destination array
+   * @param length Number of bytes
+   */
+  public void read(int offset, byte[] dst, int dstOffset, int length) {
+    if (buffer != null) {
+      buffer.clear();
+      buffer.position(offset);
+      buffer.get(dst, dstOffset, length);
+    } else {
+      System.arraycopy(memory, offset, dst, dstOffset, length);
+    }
+  }
+
+  /**
+   * Copies data to this memory.
+   *
+   * @param offset Offset in section
+   * @param src Source array
+   * @param srcOffset Offset in source array
+   * @param length Number of bytes
+   */
+  public void write(int offset, byte[] src, int srcOffset, int length) {
+    if (buffer != null) {
+      buffer.clear();
+      buffer.position(offset);
+      buffer.put(src, srcOffset, length);
+    } else {
+      System.arraycopy(src, srcOffset, memory, offset, length);
+    }
+  }
+
+  /**
+   * Compares data of this memory with the given array.
+   *
+   * @param offset Offset in section
+   * @param other Array to compare with
+   * @param otherOffset Offset in array
+   * @param length Number of bytes
+   * @return True if equal
+   */
+  public boolean equals(int offset, byte[] other, int otherOffset, int length) {
+    for (int i = 0; i < length; i++) {
+      if (get(offset + i) != other[otherOffset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the private array of a detached section, or a copy of the
+   * buffer content of an attached section.
+   */
+  @Override
+  public byte[] getMemory() {
+    if (buffer == null) {
+      return memory;
+    }
+    byte[] data = new byte[size];
+    read(0, data, 0, size);
+    return data;
+  }
+
+  @Override
+  public byte[] getMemorySegment(long addr, int size) throws MoteMemoryException {
+    byte[] ret = new byte[size];
+    read((int) (addr - startAddress), ret, 0, size);
+    return ret;
+  }
+
+  @Override
+  public void setMemorySegment(long addr, byte[] data) throws MoteMemoryException {
+    write((int) (addr - startAddress), data, 0, data.length);
+  }
+
+  @Override
+  public void clearMemory() {
+    write(0, new byte[size], 0, size);
+  }
+
+  @Override
+  public long getStartAddr() {
+    return startAddress;
+  }
+
+  @Override
+  public int getTotalSize() {
+    return size;
+  }
+
+  @Override
+  public Map<String, Symbol> getSymbolMap() {
+    return symbols;
+  }
+
+  @Override
+  public MemoryLayout getLayout() {
+    return layout;
+  }
+
+  @Override
+  public boolean addSegmentMonitor(SegmentMonitor.EventType flag, long address, int size, SegmentMonitor monitor) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
+  @Override
+  public boolean removeSegmentMonitor(long address, int size, SegmentMonitor monitor) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja.mote.memory;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A memory section split into pages, sharing pages with the memories it was
+ * cloned from or to. A shared page is copied the first time it is written,
+ * so identical content of many motes is only stored once.
+ *
+ * Shared pages are never written. Both the source and the clone give up
+ * ownership of their pages when cloning.
+ *
+ * @see SectionMoteMemory#clone()
+ */
+public class CopyOnWriteMemory implements MemoryInterface {
+  public static final int PAGE_SHIFT = 9;
+  public static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+  private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+  private final long startAddress;
+  private final int size;
+  private final MemoryLayout layout;
+  private final Map<String, Symbol> symbols;
+
+  private final byte[][] pages;
+  private final boolean[] owned;
+  private int ownedPages = 0;
+
+  /**
+   * Creates memory with a private copy of the given data.
+   *
+   * @param address Start address
+   * @param layout Memory layout
+   * @param data Initial data
+   * @param symbols Symbols
+   */
+  public CopyOnWriteMemory(long address, MemoryLayout layout, byte[] data, Map<String, Symbol> symbols) {
+    this(address, data.length, layout, new byte[(data.length + PAGE_MASK) >> PAGE_SHIFT][], symbols);
+    for (int i = 0; i < pages.length; i++) {
+      pages[i] = Arrays.copyOfRange(data, i << PAGE_SHIFT, (i << PAGE_SHIFT) + PAGE_SIZE);
+    }
+    Arrays.fill(owned, true);
+    ownedPages = pages.length;
+  }
+
+  private CopyOnWriteMemory(long address, int size, MemoryLayout layout, byte[][] pages, Map<String, Symbol> symbols) {
+    this.startAddress = address;
+    this.size = size;
+    this.layout = layout;
+    this.pages = pages;
+    this.owned = new boolean[pages.length];
+    this.symbols = symbols;
+  }
+
+  /**
+   * Returns a memory sharing all pages with this memory.
+   *
+   * @return Clone
+   */
+  public CopyOnWriteMemory share() {
+    Arrays.fill(owned, false);
+    ownedPages = 0;
+    return new CopyOnWriteMemory(startAddress, size, layout, pages.clone(), symbols);
+  }
+
+  /**
+   * @return Number of pages
+   */
+  public int getPageCount() {
+    return pages.length;
+  }
+
+  /**
+   * @return Bytes in pages owned by this memory
+   */
+  public int getPrivateBytes() {
+    return Math.min(ownedPages * PAGE_SIZE, size);
+  }
+
+  /**
+   * @return Bytes in pages shared with other memories
+   */
+  public int getSharedBytes() {
+    return size - getPrivateBytes();
+  }
+
+  /**
+   * Returns page for reading. The returned array must not be modified.
+   *
+   * @param page Page index
+   * @return Page data, PAGE_SIZE bytes
+   */
+  public byte[] getPage(int page) {
+    return pages[page];
+  }
+
+  /**
+   * Returns page for writing, copying it first if shared.
+   *
+   * @param page Page index
+   * @return Page data, PAGE_SIZE bytes
+   */
+  public byte[] getWritablePage(int page) {
+    if (!owned[page]) {
+      pages[page] = pages[page].clone();
+      owned[page] = true;
+      ownedPages++;
+    }
+    return pages[page];
+  }
+
+  /**
+   * Reads byte at given offset.
+   *
+   * @param offset Offset in section
+   * @return Value
+   */
+  public byte get(int offset) {
+    return pages[offset >> PAGE_SHIFT][offset & PAGE_MASK];
+  }
+
+  /**
+   * Writes byte at given offset.
+   *
+   * @param offset Offset in section
+   * @param value Value
+   */
+  public void set(int offset, byte value) {
+    getWritablePage(offset >> PAGE_SHIFT)[offset & PAGE_MASK] = value;
+  }
+
+  /**
+   * Copies data from this memory.
+   *
+   * @param offset Offset in section
+   * @param dst Destination array
+   * @param dstOffset Offset in destination array
+   * @param length Number of bytes
+   */
+  public void read(int offset, byte[] dst, int dstOffset, int length) {
+    while (length > 0) {
+      int inPage = offset & PAGE_MASK;
+      int n = Math.min(length, PAGE_SIZE - inPage);
+      System.arraycopy(pages[offset >> PAGE_SHIFT], inPage, dst, dstOffset, n);
+      offset += n;
+      dstOffset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Copies data to this memory, copying written pages if shared.
+   *
+   * @param offset Offset in section
+   * @param src Source array
+   * @param srcOffset Offset in source array
+   * @param length Number of bytes
+   */
+  public void write(int offset, byte[] src, int srcOffset, int length) {
+    while (length > 0) {
+      int inPage = offset & PAGE_MASK;
+      int n = Math.min(length, PAGE_SIZE - inPage);
+      System.arraycopy(src, srcOffset, getWritablePage(offset >> PAGE_SHIFT), inPage, n);
+      offset += n;
+      srcOffset += n;
+      length -= n;
+    }
+  }
+
+  /**
+   * Copies data to this memory, but only into pages whose content differs.
+   * Unchanged pages stay shared.
+   *
+   * @param src Source array, containing the whole section
+   */
+  public void update(byte[] src) {
+    for (int page = 0; page < pages.length; page++) {
+      int from = page << PAGE_SHIFT;
+      int n = Math.min(PAGE_SIZE, size - from);
+      if (Arrays.mismatch(pages[page], 0, n, src, from, from + n) >= 0) {
+        System.arraycopy(src, from, getWritablePage(page), 0, n);
+      }
+    }
+  }
+
+  /**
+   * Compares data of this memory with the given array.
+   *
+   * @param offset Offset in section
+   * @param other Array to compare with
+   * @param otherOffset Offset in array
+   * @param length Number of bytes
+   * @return True if equal
+   */
+  public boolean equals(int offset, byte[] other, int otherOffset, int length) {
+    while (length > 0) {
+      int inPage = offset & PAGE_MASK;
+      int n = Math.min(length, PAGE_SIZE - inPage);
+      if (Arrays.mismatch(pages[offset >> PAGE_SHIFT], inPage, inPage + n,
+                          other, otherOffset, otherOffset + n) >= 0) {
+        return false;
+      }
+      offset += n;
+      otherOffset += n;
+      length -= n;
+    }
+    return true;
+  }
+
+  /**
+   * Returns a copy of the entire memory.
+   */
+  @Override
+  public byte[] getMemory() {
+    byte[] data = new byte[size];
+    read(0, data, 0, size);
+    return data;
+  }
+
+  @Override
+  public byte[] getMemorySegment(long addr, int size) throws MoteMemoryException {
+    byte[] ret = new byte[size];
+    read((int) (addr - startAddress), ret, 0, size);
+    return ret;
+  }
+
+  @Override
+  public void setMemorySegment(long addr, byte[] data) throws MoteMemoryException {
+    write((int) (addr - startAddress), data, 0, data.length);
+  }
+
+  @Override
+  public void clearMemory() {
+    for (int i = 0; i < pages.length; i++) {
+      pages[i] = new byte[PAGE_SIZE];
+    }
+    Arrays.fill(owned, true);
+    ownedPages = pages.length;
+  }
+
+  @Override
+  public long getStartAddr() {
+    return startAddress;
+  }
+
+  @Override
+  public int getTotalSize() {
+    return size;
+  }
+
+  @Override
+  public Map<String, Symbol> getSymbolMap() {
+    return symbols;
+  }
+
+  @Override
+  public MemoryLayout getLayout() {
+    return layout;
+  }
+
+  @Override
+  public boolean addSegmentMonitor(SegmentMonitor.EventType flag, long address, int size, SegmentMonitor monitor) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+
+  @Override
+  public boolean removeSegmentMonitor(long address, int size, SegmentMonitor monitor) {
+    throw new UnsupportedOperationException("Not supported yet.");
+  }
+}
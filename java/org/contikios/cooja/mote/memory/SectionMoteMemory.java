@@ -28,8 +28,8 @@
 
 package org.contikios.cooja.mote.memory;
 
-import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -52,8 +52,22 @@ public class SectionMoteMemory implements MemoryInterface {
   private static final Logger logger = LogManager.getLogger(SectionMoteMemory.class);
   private static final boolean DEBUG = logger.isDebugEnabled();
 
+  /** Granularity of write tracking [bytes] */
+  public static final int DIRTY_PAGE_SIZE = 64;
+
   private Map<String, MemoryInterface> sections = new HashMap<>();
 
+  /* Address index: sections sorted by start address, with end addresses (exclusive) */
+  private String[] indexNames = new String[0];
+  private MemoryInterface[] indexSections = new MemoryInterface[0];
+  private long[] indexStarts = new long[0];
+  private long[] indexEnds = new long[0];
+  private int lastIndexHit = 0;
+
+  /* Pages written via setMemorySegment(), per section */
+  private final Map<String, BitSet> dirtyPages = new HashMap<>();
+  private boolean dirty = false;
+
   private final Map<String, Symbol> symbols;
   private MemoryLayout memLayout;
   private long startAddr = Long.MAX_VALUE;
@@ -99,6 +113,8 @@ public class SectionMoteMemory implements MemoryInterface {
     }
 
     sections.put(name, section);
+    dirtyPages.put(name, new BitSet());
+    addToIndex(name, section);
     if (section.getSymbolMap() != null) {
       for (String s : section.getSymbolMap().keySet()) {
         // XXX how to handle double names here?
@@ -116,6 +132,76 @@ public class SectionMoteMemory implements MemoryInterface {
     return true;
   }
 
+  private void addToIndex(String name, MemoryInterface section) {
+    int n = indexSections.length;
+    int pos = 0;
+    while (pos < n && indexStarts[pos] < section.getStartAddr()) {
+      pos++;
+    }
+
+    String[] names = new String[n + 1];
+    MemoryInterface[] secs = new MemoryInterface[n + 1];
+    long[] starts = new long[n + 1];
+    long[] ends = new long[n + 1];
+    System.arraycopy(indexNames, 0, names, 0, pos);
+    System.arraycopy(indexSections, 0, secs, 0, pos);
+    System.arraycopy(indexStarts, 0, starts, 0, pos);
+    System.arraycopy(indexEnds, 0, ends, 0, pos);
+    names[pos] = name;
+    secs[pos] = section;
+    starts[pos] = section.getStartAddr();
+    ends[pos] = section.getStartAddr() + section.getTotalSize();
+    System.arraycopy(indexNames, pos, names, pos + 1, n - pos);
+    System.arraycopy(indexSections, pos, secs, pos + 1, n - pos);
+    System.arraycopy(indexStarts, pos, starts, pos + 1, n - pos);
+    System.arraycopy(indexEnds, pos, ends, pos + 1, n - pos);
+
+    indexNames = names;
+    indexSections = secs;
+    indexStarts = starts;
+    indexEnds = ends;
+    lastIndexHit = 0;
+  }
+
+  /**
+   * Looks up the section containing the whole segment given by address and
+   * size. The last matching section is checked first, otherwise the sorted
+   * section index is binary searched.
+   *
+   * @param address Start address of segment
+   * @param size Size of segment
+   * @return Index of section in address index, or -1 if no single section
+   * contains the segment
+   */
+  private int indexOf(long address, int size) {
+    long[] starts = indexStarts;
+    long[] ends = indexEnds;
+
+    int hit = lastIndexHit;
+    if (hit < starts.length && address >= starts[hit] && address + size <= ends[hit]) {
+      return hit;
+    }
+
+    /* Find last section starting at or before address */
+    int low = 0;
+    int high = starts.length - 1;
+    int found = -1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (starts[mid] <= address) {
+        found = mid;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (found < 0 || address + size > ends[found]) {
+      return -1;
+    }
+    lastIndexHit = found;
+    return found;
+  }
+
   /**
    * Returns the total number of sections in this memory.
    *
@@ -131,14 +217,11 @@ public class SectionMoteMemory implements MemoryInterface {
    * @return memory section
    */
   public MemoryInterface getSection(String name) {
-    for (String memsec : sections.keySet()) {
-      if (memsec.equals(name)) {
-        return sections.get(name);
-      }
+    MemoryInterface section = sections.get(name);
+    if (section == null) {
+      logger.warn("Section '" + name + "' not found");
     }
-
-    logger.warn("Section '" + name + "' not found");
-    return null;
+    return section;
   }
 
   /**
@@ -180,6 +263,13 @@ public class SectionMoteMemory implements MemoryInterface {
   @Override
   public void clearMemory() {
     sections.clear();
+    indexNames = new String[0];
+    indexSections = new MemoryInterface[0];
+    indexStarts = new long[0];
+    indexEnds = new long[0];
+    lastIndexHit = 0;
+    dirtyPages.clear();
+    dirty = false;
   }
 
   @Override
@@ -206,11 +296,21 @@ public class SectionMoteMemory implements MemoryInterface {
    */
   @Override
   public byte[] getMemorySegment(long address, int size) throws MoteMemoryException {
+    return findSection(address, size).getMemorySegment(address, size);
+  }
 
-    for (MemoryInterface section : sections.values()) {
-      if (includesAddr(section, address) && includesAddr(section, address + size - 1)) {
-        return section.getMemorySegment(address, size);
-      }
+  /**
+   * Returns section containing the whole segment given by address and size.
+   *
+   * @param address start address of segment
+   * @param size size of segment
+   * @return Section
+   * @throws MoteMemoryException if no single section containing the given address range was found
+   */
+  private MemoryInterface findSection(long address, int size) throws MoteMemoryException {
+    int index = indexOf(address, size);
+    if (index >= 0) {
+      return indexSections[index];
     }
 
     throw new MoteMemoryException(
@@ -228,22 +328,92 @@ public class SectionMoteMemory implements MemoryInterface {
   @Override
   public void setMemorySegment(long address, byte[] data) throws MoteMemoryException {
 
-    for (MemoryInterface section : sections.values()) {
-      if (inSection(section, address, data.length)) {
-        section.setMemorySegment(address, data);
-        if (DEBUG) {
-          logger.debug(String.format(
-                  "Wrote memory segment [0x%x,0x%x]",
-                  address, address + data.length - 1));
-        }
-        return;
+    int index = indexOf(address, data.length);
+    if (index >= 0) {
+      MemoryInterface section = indexSections[index];
+      section.setMemorySegment(address, data);
+      markDirty(indexNames[index], section, address, data.length);
+      if (DEBUG) {
+        logger.debug(String.format(
+                "Wrote memory segment [0x%x,0x%x]",
+                address, address + data.length - 1));
       }
+      return;
     }
     throw new MoteMemoryException(
             "Writing memory segment [0x%x,0x%x] failed: No section available",
             address, address + data.length - 1);
   }
 
+  /**
+   * Returns section containing the whole segment given by address and size.
+   *
+   * @param address Start address of segment
+   * @param size Size of segment
+   * @return Section
+   * @throws MoteMemoryException if no single section containing the given address range was found
+   */
+  public MemoryInterface getSectionAt(long address, int size) throws MoteMemoryException {
+    return findSection(address, size);
+  }
+
+  /**
+   * Records that a segment was written directly in its section array.
+   *
+   * @param address Start address of segment
+   * @param size Size of segment
+   */
+  void segmentWritten(long address, int size) {
+    int index = indexOf(address, size);
+    if (index >= 0) {
+      markDirty(indexNames[index], indexSections[index], address, size);
+    }
+  }
+
+  private void markDirty(String name, MemoryInterface section, long address, int size) {
+    if (size <= 0) {
+      return;
+    }
+    int first = (int) (address - section.getStartAddr()) / DIRTY_PAGE_SIZE;
+    int last = (int) (address + size - 1 - section.getStartAddr()) / DIRTY_PAGE_SIZE;
+    dirtyPages.get(name).set(first, last + 1);
+    dirty = true;
+  }
+
+  /**
+   * @return True if any section was written via setMemorySegment() since
+   * the write tracking was last cleared
+   * @see #clearDirtyPages()
+   */
+  public boolean hasDirtyPages() {
+    return dirty;
+  }
+
+  /**
+   * Returns the pages of the given section written via setMemorySegment()
+   * since the write tracking was last cleared. Page i covers section offsets
+   * [i*DIRTY_PAGE_SIZE, (i+1)*DIRTY_PAGE_SIZE).
+   *
+   * @param name Name of section
+   * @return Written pages, or null if section does not exist
+   */
+  public BitSet getDirtyPages(String name) {
+    return dirtyPages.get(name);
+  }
+
+  /**
+   * Clears write tracking of all sections.
+   */
+  public void clearDirtyPages() {
+    if (!dirty) {
+      return;
+    }
+    for (BitSet pages : dirtyPages.values()) {
+      pages.clear();
+    }
+    dirty = false;
+  }
+
   @Override
   public long getStartAddr() {
     return startAddr;
@@ -260,25 +430,38 @@ public class SectionMoteMemory implements MemoryInterface {
   }
 
   @Override
-  public boolean addSegmentMonitor(SegmentMonitor.EventType flag, long address, int size, SegmentMonitor monitor) {
+  public synchronized boolean addSegmentMonitor(SegmentMonitor.EventType flag, long address, int size, SegmentMonitor monitor) {
     PolledMemorySegments t = new PolledMemorySegments(monitor, address, size);
-    polledMemories.add(t);
+
+    /* Copy-on-write: polling iterates the current array without locking or copying */
+    PolledMemorySegments[] monitors = Arrays.copyOf(polledMemories, polledMemories.length + 1);
+    monitors[monitors.length - 1] = t;
+    polledMemories = monitors;
     return true;
   }
 
   @Override
-  public boolean removeSegmentMonitor(long address, int size, SegmentMonitor monitor) {
-    for (PolledMemorySegments mcm: polledMemories) {
+  public synchronized boolean removeSegmentMonitor(long address, int size, SegmentMonitor monitor) {
+    PolledMemorySegments[] monitors = polledMemories;
+    for (int i = 0; i < monitors.length; i++) {
+      PolledMemorySegments mcm = monitors[i];
       if (mcm.mm != monitor || mcm.address != address || mcm.size != size) {
         continue;
       }
-      polledMemories.remove(mcm);
+      PolledMemorySegments[] newMonitors = new PolledMemorySegments[monitors.length - 1];
+      System.arraycopy(monitors, 0, newMonitors, 0, i);
+      System.arraycopy(monitors, i + 1, newMonitors, i, monitors.length - i - 1);
+      polledMemories = newMonitors;
       return true;
     }
     return false;
   }
 
-  /** Copies seciton memory to new (array backed) one
+  /**
+   * Copies section memory to a new copy-on-write memory.
+   * Sections that already are copy-on-write share their pages with the
+   * clone, other sections are copied.
+   *
    * @return Cloned memory
    */
   @Override
@@ -287,18 +470,42 @@ public class SectionMoteMemory implements MemoryInterface {
     SectionMoteMemory clone = new SectionMoteMemory(symbols);
 
     for (String secname : sections.keySet()) {
-      // Copy section memory to new ArrayMemory
       MemoryInterface section = sections.get(secname);
-      MemoryInterface cpmem = new ArrayMemory(section.getStartAddr(), section.getLayout(), section.getMemory().clone(), section.getSymbolMap());
+      MemoryInterface cpmem;
+      if (section instanceof CopyOnWriteMemory) {
+        cpmem = ((CopyOnWriteMemory) section).share();
+      } else {
+        cpmem = new CopyOnWriteMemory(section.getStartAddr(), section.getLayout(), section.getMemory(), section.getSymbolMap());
+      }
       clone.addMemorySection(secname, cpmem);
     }
 
     return clone;
   }
 
-  private ArrayList<PolledMemorySegments> polledMemories = new ArrayList<PolledMemorySegments>();
+  /**
+   * @return Bytes of copy-on-write sections shared with other memories
+   */
+  public int getSharedBytes() {
+    int shared = 0;
+    for (MemoryInterface section : sections.values()) {
+      if (section instanceof CopyOnWriteMemory) {
+        shared += ((CopyOnWriteMemory) section).getSharedBytes();
+      }
+    }
+    return shared;
+  }
+
+  /**
+   * @return Bytes not shared with other memories
+   */
+  public int getPrivateBytes() {
+    return getTotalSize() - getSharedBytes();
+  }
+
+  private volatile PolledMemorySegments[] polledMemories = new PolledMemorySegments[0];
   public void pollForMemoryChanges() {
-    for (PolledMemorySegments mem: polledMemories.toArray(new PolledMemorySegments[0])) {
+    for (PolledMemorySegments mem: polledMemories) {
       mem.notifyIfChanged();
     }
   }
@@ -307,24 +514,44 @@ public class SectionMoteMemory implements MemoryInterface {
     public final SegmentMonitor mm;
     public final long address;
     public final int size;
-    private byte[] oldMem;
+
+    /* Section containing the segment, and segment offset in section */
+    private final MemoryInterface section;
+    private final int offset;
+    private final byte[] oldMem;
 
     public PolledMemorySegments(SegmentMonitor mm, long address, int size) {
       this.mm = mm;
       this.address = address;
       this.size = size;
-      
+
       oldMem = getMemorySegment(address, size);
+      section = findSection(address, size);
+      offset = (int) (address - section.getStartAddr());
     }
 
     private void notifyIfChanged() {
-      byte[] newMem = getMemorySegment(address, size);
-      if (Arrays.equals(oldMem, newMem)) {
-        return;
+      if (section instanceof CopyOnWriteMemory) {
+        CopyOnWriteMemory cow = (CopyOnWriteMemory) section;
+        if (cow.equals(offset, oldMem, 0, size)) {
+          return;
+        }
+        cow.read(offset, oldMem, 0, size);
+      } else if (section instanceof BufferMemory) {
+        BufferMemory buf = (BufferMemory) section;
+        if (buf.equals(offset, oldMem, 0, size)) {
+          return;
+        }
+        buf.read(offset, oldMem, 0, size);
+      } else {
+        byte[] mem = section.getMemory();
+        if (Arrays.mismatch(oldMem, 0, size, mem, offset, offset + size) < 0) {
+          return;
+        }
+        System.arraycopy(mem, offset, oldMem, 0, size);
       }
-      
+
       mm.memoryChanged(SectionMoteMemory.this, SegmentMonitor.EventType.WRITE, address);
-      oldMem = newMem;
     }
   }
 
@@ -29,12 +29,14 @@
  */
 package org.contikios.cooja.mote.memory;
 
+import java.nio.ByteOrder;
 import java.util.Collection;
 import java.util.Set;
 
 import org.contikios.cooja.mote.memory.MemoryInterface.Symbol;
 import org.contikios.cooja.mote.memory.MemoryInterface.SegmentMonitor;
 import org.contikios.cooja.mote.memory.MemoryInterface.SegmentMonitor.EventType;
+import org.contikios.cooja.mote.memory.MemoryLayout.DataType;
 
 /**
  * Represents memory that can be accessed with names of variables.
@@ -45,6 +47,9 @@ public class VarMemory extends Memory {
 
   private MemoryInterface memIntf;
 
+  /* Incremented when associated memory changes, invalidating resolved handles */
+  private int generation = 0;
+
   /**
    * Creates new VarMemory.
    *
@@ -62,6 +67,7 @@ public class VarMemory extends Memory {
    */
   public void associateMemory(MemoryInterface intf) {
     memIntf = intf;
+    generation++;
   }
 
   /**
@@ -384,4 +390,213 @@ public class VarMemory extends Memory {
   public void removeVarMonitor(String varName, SegmentMonitor mm) {
     memIntf.removeSegmentMonitor(getVariable(varName).addr, getVariable(varName).size, mm);
   }
+
+  /**
+   * Returns a handle to the variable with given name.
+   *
+   * The variable address and size are resolved at first access, and are then
+   * reused for all further accesses. For section memories, values are read
+   * and written directly in the section array or pages without allocating.
+   *
+   * @param varName Variable name
+   * @param type Variable type
+   * @return Variable handle
+   */
+  public Handle handle(String varName, DataType type) {
+    return new Handle(varName, type);
+  }
+
+  /**
+   * Resolved accessor of a single variable.
+   *
+   * @see VarMemory#handle(String, DataType)
+   */
+  public final class Handle {
+    private final String varName;
+    private final DataType type;
+
+    private int resolvedGeneration = -1;
+    private long address;
+    private int size;
+    private boolean bigEndian;
+
+    /* Backing section, or null if memory is not a section memory */
+    private SectionMoteMemory sectionMemory;
+    private MemoryInterface section;
+    private int offset;
+
+    private Handle(String varName, DataType type) {
+      this.varName = varName;
+      this.type = type;
+    }
+
+    private void resolve() throws UnknownVariableException {
+      address = getVariableAddress(varName);
+      MemoryLayout layout = memIntf.getLayout();
+      bigEndian = layout.order == ByteOrder.BIG_ENDIAN;
+      switch (type) {
+        case INT:
+          size = layout.intSize;
+          break;
+        case POINTER:
+          size = layout.addrSize;
+          break;
+        default:
+          size = type.getSize();
+          break;
+      }
+
+      if (memIntf instanceof SectionMoteMemory) {
+        sectionMemory = (SectionMoteMemory) memIntf;
+        section = sectionMemory.getSectionAt(address, size);
+        offset = (int) (address - section.getStartAddr());
+      } else {
+        sectionMemory = null;
+        section = null;
+      }
+      resolvedGeneration = generation;
+    }
+
+    /**
+     * @return Variable address
+     */
+    public long getAddress() throws UnknownVariableException {
+      if (resolvedGeneration != generation) {
+        resolve();
+      }
+      return address;
+    }
+
+    /**
+     * Reads variable as sign-extended integer.
+     *
+     * @return Value
+     */
+    public long getLong() throws UnknownVariableException {
+      if (resolvedGeneration != generation) {
+        resolve();
+      }
+      if (section instanceof CopyOnWriteMemory) {
+        CopyOnWriteMemory cow = (CopyOnWriteMemory) section;
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+          int b = cow.get(offset + (bigEndian ? i : size - 1 - i)) & 0xFF;
+          value = (value << 8) | b;
+        }
+        int shift = 64 - 8 * size;
+        return (value << shift) >> shift;
+      }
+      if (section instanceof BufferMemory) {
+        BufferMemory buf = (BufferMemory) section;
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+          int b = buf.get(offset + (bigEndian ? i : size - 1 - i)) & 0xFF;
+          value = (value << 8) | b;
+        }
+        int shift = 64 - 8 * size;
+        return (value << shift) >> shift;
+      }
+
+      byte[] mem;
+      int pos;
+      if (section != null) {
+        mem = section.getMemory();
+        pos = offset;
+      } else {
+        mem = memIntf.getMemorySegment(address, size);
+        pos = 0;
+      }
+
+      long value = 0;
+      for (int i = 0; i < size; i++) {
+        int b = mem[pos + (bigEndian ? i : size - 1 - i)] & 0xFF;
+        value = (value << 8) | b;
+      }
+      int shift = 64 - 8 * size;
+      return (value << shift) >> shift;
+    }
+
+    /**
+     * Writes the lowest bytes of value to variable.
+     *
+     * @param value Value
+     */
+    public void setLong(long value) throws UnknownVariableException {
+      if (resolvedGeneration != generation) {
+        resolve();
+      }
+      if (section instanceof CopyOnWriteMemory) {
+        CopyOnWriteMemory cow = (CopyOnWriteMemory) section;
+        for (int i = 0; i < size; i++) {
+          cow.set(offset + (bigEndian ? size - 1 - i : i), (byte) value);
+          value >>= 8;
+        }
+        sectionMemory.segmentWritten(address, size);
+        return;
+      }
+      if (section instanceof BufferMemory) {
+        BufferMemory buf = (BufferMemory) section;
+        for (int i = 0; i < size; i++) {
+          buf.set(offset + (bigEndian ? size - 1 - i : i), (byte) value);
+          value >>= 8;
+        }
+        sectionMemory.segmentWritten(address, size);
+        return;
+      }
+
+      byte[] mem = new byte[size];
+      for (int i = 0; i < size; i++) {
+        mem[bigEndian ? size - 1 - i : i] = (byte) value;
+        value >>= 8;
+      }
+
+      if (section != null) {
+        /* Via the section, which rejects writes to readonly memory */
+        section.setMemorySegment(address, mem);
+        sectionMemory.segmentWritten(address, size);
+      } else {
+        memIntf.setMemorySegment(address, mem);
+      }
+    }
+
+    public int getInt() throws UnknownVariableException {
+      return (int) getLong();
+    }
+
+    public void setInt(int value) throws UnknownVariableException {
+      setLong(value);
+    }
+
+    public byte getByte() throws UnknownVariableException {
+      return (byte) getLong();
+    }
+
+    public void setByte(byte value) throws UnknownVariableException {
+      setLong(value);
+    }
+
+    /**
+     * Reads byte array starting at variable address.
+     *
+     * @param length Number of bytes to read
+     * @return Data
+     */
+    public byte[] getByteArray(int length) throws UnknownVariableException {
+      return VarMemory.this.getByteArray(getAddress(), length);
+    }
+
+    /**
+     * Writes byte array starting at variable address.
+     *
+     * @param data Data to write
+     */
+    public void setByteArray(byte[] data) throws UnknownVariableException {
+      VarMemory.this.setByteArray(getAddress(), data);
+    }
+
+    @Override
+    public String toString() {
+      return varName + " (" + type + ")";
+    }
+  }
 }
@@ -111,6 +111,14 @@ public abstract class AbstractWakeupMote implements Mote {
     return nextWakeupTime;
   }
   
+  /**
+   * @param event Event
+   * @return True if the given event executes this mote's software
+   */
+  public boolean isExecuteEvent(TimeEvent event) {
+    return event == executeMoteEvent;
+  }
+
   /**
    * Execute mote software at given time, or earlier.
    * 
@@ -300,11 +300,11 @@ public class DGRMConfigurator extends VisPlugin {
 			return;
 		}
 
-		doRemoveLink(radioMedium.getEdges()[firstIndex]);
+		doRemoveLink(radioMedium.getEdge(firstIndex));
 	}
 	private void doImportFromFile() {
 		/* Delete existing edges */
-    if (radioMedium.getEdges().length > 0) {
+    if (radioMedium.getEdgeCount() > 0) {
       String[] options = new String[] { "Remove", "Cancel" };
       int n = JOptionPane.showOptionDialog(
           Cooja.getTopParentContainer(),
@@ -418,7 +418,7 @@ public class DGRMConfigurator extends VisPlugin {
     }
     @Override
     public int getRowCount() {
-      return radioMedium.getEdges().length;
+      return radioMedium.getEdgeCount();
     }
     @Override
     public int getColumnCount() {
@@ -426,13 +426,13 @@ public class DGRMConfigurator extends VisPlugin {
     }
     @Override
     public Object getValueAt(int row, int column) {
-      if (row < 0 || row >= radioMedium.getEdges().length) {
+      if (row < 0 || row >= radioMedium.getEdgeCount()) {
         return "";
       }
       if (column < 0 || column >= COLUMN_NAMES.length) {
         return "";
       }
-      DirectedGraphMedium.Edge edge = radioMedium.getEdges()[row];
+      DirectedGraphMedium.Edge edge = radioMedium.getEdge(row);
       if (column == IDX_SRC) {
         return edge.source.getMote();
       }
@@ -455,14 +455,14 @@ public class DGRMConfigurator extends VisPlugin {
     }
     @Override
     public void setValueAt(Object value, int row, int column) {
-      if (row < 0 || row >= radioMedium.getEdges().length) {
+      if (row < 0 || row >= radioMedium.getEdgeCount()) {
         return;
       }
       if (column < 0 || column >= COLUMN_NAMES.length) {
         return;
       }
 
-      DirectedGraphMedium.Edge edge = radioMedium.getEdges()[row];
+      DirectedGraphMedium.Edge edge = radioMedium.getEdge(row);
       try {
       	if (column == IDX_RATIO) {
       		((DGRMDestinationRadio)edge.superDest).ratio = ((Number)value).doubleValue();
@@ -477,24 +477,24 @@ public class DGRMConfigurator extends VisPlugin {
       	else {
           super.setValueAt(value, row, column);
       	}
-      	radioMedium.requestEdgeAnalysis();
+      	radioMedium.updateEdge(edge);
       } catch (ClassCastException e) {
       }
     }
 
     @Override
     public boolean isCellEditable(int row, int column) {
-      if (row < 0 || row >= radioMedium.getEdges().length) {
+      if (row < 0 || row >= radioMedium.getEdgeCount()) {
         return false;
       }
 
-      Mote sourceMote = radioMedium.getEdges()[row].source.getMote();
+      Mote sourceMote = radioMedium.getEdge(row).source.getMote();
       if (column == IDX_SRC) {
         gui.signalMoteHighlight(sourceMote);
         return false;
       }
       if (column == IDX_DST) {
-      	gui.signalMoteHighlight(radioMedium.getEdges()[row].superDest.radio.getMote());
+      	gui.signalMoteHighlight(radioMedium.getEdge(row).superDest.radio.getMote());
         return false;
       }
       if (column == IDX_RATIO) {
@@ -101,6 +101,14 @@ public class LogScriptEngine {
 
   private boolean scriptActive = false;
 
+  /* Evaluate WAIT_UNTIL conditions in the simulation thread */
+  private boolean sameThreadConditions = false;
+
+  /* Log filters: set by the script, and compiled from the waiting WAIT_UNTIL */
+  private ScriptLogFilter scriptFilter = null;
+  private ScriptLogFilter waitFilter = null;
+  private ScriptLogFilter[] waitFilters = new ScriptLogFilter[0];
+
   private long timeout;
   private long startTime;
   private long startRealTime;
@@ -143,6 +151,63 @@ public class LogScriptEngine {
     }
   }
 
+  /**
+   * Selects whether WAIT_UNTIL conditions are evaluated by the simulation thread.
+   *
+   * By default, every mote log output wakes the script thread, which evaluates
+   * the condition and blocks again if it is false. In same-thread mode the script
+   * thread stays blocked, and the simulation thread evaluates the waiting
+   * condition itself. The script thread is only woken when the condition is met,
+   * so rejected log output does not cost any thread switches.
+   * Conditions are evaluated exactly once per log output in both modes.
+   *
+   * Must be set before the script is activated.
+   *
+   * @param sameThreadConditions True to evaluate conditions in the simulation thread
+   */
+  public void setSameThreadConditions(boolean sameThreadConditions) {
+    this.sameThreadConditions = sameThreadConditions;
+  }
+
+  public boolean isSameThreadConditions() {
+    return sameThreadConditions;
+  }
+
+  /**
+   * Checks the mote output against the current log filters.
+   * Only called from the simulation loop, while the script thread is blocked.
+   *
+   * @return True if the script should be woken for the given output
+   */
+  private boolean isAcceptedByFilters(int id, long time, String msg) {
+    if (scriptFilter != null && !scriptFilter.accepts(id, time, msg)) {
+      return false;
+    }
+    return waitFilter == null || waitFilter.accepts(id, time, msg);
+  }
+
+  /**
+   * Checks whether the script thread should process the current mote output.
+   * Only called from the simulation loop, while the script thread is blocked.
+   *
+   * @return False if the script waits in a WAIT_UNTIL whose condition is false
+   */
+  private boolean isScriptWaitOver() {
+    if (!sameThreadConditions || engine.get("WAIT_CONDITION") == null) {
+      return true;
+    }
+    try {
+      if (!Boolean.TRUE.equals(((Invocable)engine).invokeFunction("SCRIPT_POLL"))) {
+        return false;
+      }
+      engine.put("WAIT_CONDITION_MET", true);
+      return true;
+    } catch (ScriptException | NoSuchMethodException | RuntimeException e) {
+      /* Let the script thread evaluate the condition and report the error */
+      return true;
+    }
+  }
+
   /* Only called from the simulation loop */
   private void handleNewMoteOutput(Mote mote, int id, long time, String msg) {
     try {
@@ -159,7 +224,9 @@ public class LogScriptEngine {
       engine.put("time", time);
       engine.put("msg", msg);
 
-      stepScript();
+      if (isAcceptedByFilters(id, time, msg) && isScriptWaitOver()) {
+        stepScript();
+      }
     } catch (UndeclaredThrowableException e) {
       logger.fatal("Exception: " + e.getMessage(), e);
       if (Cooja.isVisualized()) {
@@ -260,8 +327,11 @@ public class LogScriptEngine {
     scriptThread = null;
 
     /* Parse current script */
-    ScriptParser parser = new ScriptParser(scriptCode);
+    ScriptParser parser = new ScriptParser(scriptCode, sameThreadConditions);
     String jsCode = parser.getJSCode();
+    waitFilters = parser.getWaitFilters().toArray(new ScriptLogFilter[0]);
+    scriptFilter = null;
+    waitFilter = null;
 
     timeout = parser.getTimeoutTime();
     if (timeout < 0) {
@@ -318,6 +388,13 @@ public class LogScriptEngine {
             if (!Cooja.isVisualized()) {
               logger.fatal("Test script error, terminating Cooja.");
               logger.fatal("Script error:", e);
+              if (simulation.getCooja().hasQuitHandler()) {
+                /* Other simulations share this JVM */
+                exitCode = 1;
+                deactivateScript();
+                quitRunnable.run();
+                return;
+              }
               System.exit(1);
             }
 
@@ -409,6 +486,20 @@ public class LogScriptEngine {
     @Override
     public void run() {
       simulation.stopSimulation();
+      if (simulation.getCooja().hasQuitHandler()) {
+        /* Other simulations share this JVM: quit as soon as this simulation
+         * has stopped, and never kill the JVM */
+        new Thread() {
+          @Override
+          public void run() {
+            while (simulation.isRunning()) {
+              try { Thread.sleep(10); } catch (InterruptedException e) { }
+            }
+            simulation.getCooja().doQuit(false, exitCode);
+          };
+        }.start();
+        return;
+      }
       new Thread() {
         @Override
         public void run() {
@@ -457,6 +548,15 @@ public class LogScriptEngine {
       }
     }
 
+    @Override
+    public void setFilter(ScriptLogFilter filter) {
+      scriptFilter = filter;
+    }
+    @Override
+    public void setWaitFilter(int index) {
+      waitFilter = (index < 0) ? null : waitFilters[index];
+    }
+
     @Override
     public void testOK() {
       exitCode = 0;
@@ -505,7 +605,9 @@ public class LogScriptEngine {
           engine.put("time", currentMote.getSimulation().getSimulationTime());
           engine.put("msg", msg);
 
-          stepScript();
+          if (isAcceptedByFilters(currentMote.getID(), t, msg) && isScriptWaitOver()) {
+            stepScript();
+          }
         }
       };
       simulation.invokeSimulationThread(new Runnable() {
@@ -40,4 +40,6 @@ public interface ScriptLog {
     public void generateMessage(long delay, String msg);
     public void append(String filename, String msg);
     public void writeFile(String filename, String msg);
+    public void setFilter(ScriptLogFilter filter);
+    public void setWaitFilter(int index);
 }
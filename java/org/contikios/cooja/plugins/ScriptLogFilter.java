@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja.plugins;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.regex.Pattern;
+
+/**
+ * Declarative filter of mote log output delivered to a test script.
+ * Filters are evaluated by the simulation thread, and the test script is only
+ * woken for log output accepted by the filter.
+ *
+ * All given constraints must hold. Example from a test script:
+ * <pre>
+ * SET_FILTER(FILTER().motes(1, 2).contains("DONE").between(0, 60000000));
+ * </pre>
+ *
+ * @see LogScriptEngine
+ * @see ScriptParser
+ */
+public class ScriptLogFilter {
+  private HashSet<Integer> moteIDs = null;
+  private ArrayList<String> substrings = new ArrayList<String>();
+  private ArrayList<Pattern> patterns = new ArrayList<Pattern>();
+  private long fromTime = Long.MIN_VALUE;
+  private long toTime = Long.MAX_VALUE;
+
+  /**
+   * Accept output from the given motes only.
+   * Repeated calls add more motes.
+   *
+   * @param ids Mote IDs
+   * @return This filter
+   */
+  public ScriptLogFilter motes(int... ids) {
+    if (moteIDs == null) {
+      moteIDs = new HashSet<Integer>();
+    }
+    for (int id: ids) {
+      moteIDs.add(id);
+    }
+    return this;
+  }
+
+  /**
+   * Accept output containing the given string only.
+   *
+   * @param substring Substring
+   * @return This filter
+   */
+  public ScriptLogFilter contains(String substring) {
+    substrings.add(substring);
+    return this;
+  }
+
+  /**
+   * Accept output containing a match of the given regular expression only.
+   *
+   * @param regex Regular expression
+   * @return This filter
+   */
+  public ScriptLogFilter regex(String regex) {
+    patterns.add(Pattern.compile(regex));
+    return this;
+  }
+
+  /**
+   * Accept output during the given simulation time window only.
+   *
+   * @param from First accepted time (us)
+   * @param to Last accepted time (us)
+   * @return This filter
+   */
+  public ScriptLogFilter between(long from, long to) {
+    fromTime = Math.max(fromTime, from);
+    toTime = Math.min(toTime, to);
+    return this;
+  }
+
+  /**
+   * @param id Mote ID
+   * @param time Simulation time
+   * @param msg Log output
+   * @return True if the output passes this filter
+   */
+  public boolean accepts(int id, long time, String msg) {
+    if (time < fromTime || time > toTime) {
+      return false;
+    }
+    if (moteIDs != null && !moteIDs.contains(id)) {
+      return false;
+    }
+    for (String substring: substrings) {
+      if (!msg.contains(substring)) {
+        return false;
+      }
+    }
+    for (Pattern pattern: patterns) {
+      if (!pattern.matcher(msg).find()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "motes=" + (moteIDs == null ? "all" : moteIDs) +
+        " contains=" + substrings + " regex=" + patterns +
+        " time=[" + fromTime + ", " + toTime + "]";
+  }
+}
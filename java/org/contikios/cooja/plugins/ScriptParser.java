@@ -30,6 +30,7 @@
 
 package org.contikios.cooja.plugins;
 
+import java.util.ArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -49,7 +50,31 @@ public class ScriptParser {
 
   private String code = null;
 
+  private boolean sameThreadConditions = false;
+
+  /* Log filters compiled from WAIT_UNTIL conditions, see compileWaitFilter() */
+  private ArrayList<ScriptLogFilter> waitFilters = new ArrayList<ScriptLogFilter>();
+
+  private static final String LITERAL = "(?:\"([^\"\\\\]*)\"|'([^'\\\\]*)')";
+  private static final Pattern MSG_TERM = Pattern.compile(
+      "msg\\s*\\.\\s*(?:contains|startsWith|endsWith|equals)\\(\\s*" + LITERAL + "\\s*\\)");
+  private static final Pattern ID_TERM = Pattern.compile(
+      "(?:id\\s*===?\\s*([0-9]{1,9}))|(?:([0-9]{1,9})\\s*===?\\s*id)");
+  private static final Pattern TIME_TERM = Pattern.compile(
+      "time\\s*(>=|>|<=|<)\\s*([0-9]{1,18})");
+
   public ScriptParser(String code) throws ScriptSyntaxErrorException {
+    this(code, false);
+  }
+
+  /**
+   * @param code Test script code
+   * @param sameThreadConditions If true, WAIT_UNTIL conditions are compiled to
+   *   functions that the simulation thread may evaluate (see LogScriptEngine)
+   * @throws ScriptSyntaxErrorException
+   */
+  public ScriptParser(String code, boolean sameThreadConditions) throws ScriptSyntaxErrorException {
+    this.sameThreadConditions = sameThreadConditions;
 
     code = fixNewlines(code);
 
@@ -207,16 +232,114 @@ public class ScriptParser {
     Matcher matcher = pattern.matcher(code);
 
     while (matcher.find()) {
-      code = matcher.replaceFirst(
-          "while (!(" + matcher.group(1) + ")) { " +
-          " SCRIPT_SWITCH(); " +
-      "}");
+      int filter = -1;
+      ScriptLogFilter waitFilter = compileWaitFilter(matcher.group(1));
+      if (waitFilter != null) {
+        filter = waitFilters.size();
+        waitFilters.add(waitFilter);
+      }
+
+      if (sameThreadConditions) {
+        code = matcher.replaceFirst(
+            "SCRIPT_WAIT(function() { return (" + matcher.group(1) + "); }, " + filter + ")");
+      } else if (waitFilter != null) {
+        code = matcher.replaceFirst(
+            "while (!(" + matcher.group(1) + ")) { " +
+            " SCRIPT_SWITCH_FILTERED(" + filter + "); " +
+        "}");
+      } else {
+        code = matcher.replaceFirst(
+            "while (!(" + matcher.group(1) + ")) { " +
+            " SCRIPT_SWITCH(); " +
+        "}");
+      }
       matcher.reset(code);
     }
 
     return code;
   }
 
+  /**
+   * Compiles a WAIT_UNTIL condition to an equivalent log filter, so that the
+   * script is not woken for log output that cannot fulfill the condition.
+   * Only conditions that are conjunctions (&&) of the following terms are compiled:
+   * msg.contains/startsWith/endsWith/equals("literal"), id == N and time <,<=,>,>= N.
+   * The condition itself is still evaluated by the script.
+   *
+   * @param condition WAIT_UNTIL condition
+   * @return Log filter, or null if the condition is not recognized
+   */
+  static ScriptLogFilter compileWaitFilter(String condition) {
+    ScriptLogFilter filter = new ScriptLogFilter();
+    boolean hasID = false;
+
+    for (String term: stripParentheses(condition.trim()).split("&&")) {
+      term = stripParentheses(term.trim());
+
+      Matcher matcher = MSG_TERM.matcher(term);
+      if (matcher.matches()) {
+        filter.contains(matcher.group(1) != null ? matcher.group(1) : matcher.group(2));
+        continue;
+      }
+
+      matcher = ID_TERM.matcher(term);
+      if (matcher.matches()) {
+        if (hasID) {
+          return null;
+        }
+        hasID = true;
+        filter.motes(Integer.parseInt(matcher.group(1) != null ? matcher.group(1) : matcher.group(2)));
+        continue;
+      }
+
+      matcher = TIME_TERM.matcher(term);
+      if (matcher.matches()) {
+        long time = Long.parseLong(matcher.group(2));
+        String operator = matcher.group(1);
+        if (operator.equals(">")) {
+          filter.between(time + 1, Long.MAX_VALUE);
+        } else if (operator.equals(">=")) {
+          filter.between(time, Long.MAX_VALUE);
+        } else if (operator.equals("<")) {
+          filter.between(Long.MIN_VALUE, time - 1);
+        } else {
+          filter.between(Long.MIN_VALUE, time);
+        }
+        continue;
+      }
+
+      /* Unknown term: the script must see all log output */
+      return null;
+    }
+    return filter;
+  }
+
+  private static String stripParentheses(String term) {
+    while (term.startsWith("(") && term.endsWith(")")) {
+      /* Only strip if the first parenthesis encloses the whole term */
+      int depth = 0;
+      for (int i=0; i < term.length()-1; i++) {
+        if (term.charAt(i) == '(') {
+          depth++;
+        } else if (term.charAt(i) == ')') {
+          depth--;
+        }
+        if (depth == 0) {
+          return term;
+        }
+      }
+      term = term.substring(1, term.length()-1).trim();
+    }
+    return term;
+  }
+
+  /**
+   * @return Log filters referenced by index from the generated JavaScript code
+   */
+  public ArrayList<ScriptLogFilter> getWaitFilters() {
+    return waitFilters;
+  }
+
   public String getJSCode() {
     return getJSCode(code, timeoutCode);
   }
@@ -224,6 +347,8 @@ public class ScriptParser {
   public static String getJSCode(String code, String timeoutCode) {
     return
     "timeout_function = null; " +
+    "WAIT_CONDITION = null; " +
+    "WAIT_CONDITION_MET = false; " +
     "function run() { " +
     "SEMAPHORE_SIM.acquire(); " +
     "SEMAPHORE_SCRIPT.acquire(); " + /* STARTUP BLOCKS HERE! */
@@ -267,6 +392,35 @@ public class ScriptParser {
     " node.setMoteMsg(mote, msg); " +
     "};\n" +
     "\n" +
+    "function SCRIPT_SWITCH_FILTERED(filter) { " +
+    " log.setWaitFilter(filter); " +
+    " SCRIPT_SWITCH(); " + /* SWITCH BLOCKS HERE! */
+    " log.setWaitFilter(-1); " +
+    "};\n" +
+    "\n" +
+    "function SCRIPT_WAIT(condition, filter) { " +
+    " while (!condition()) { " +
+    "  WAIT_CONDITION = condition; " +
+    "  SCRIPT_SWITCH_FILTERED(filter); " + /* SWITCH BLOCKS HERE! */
+    "  WAIT_CONDITION = null; " +
+    "  if (WAIT_CONDITION_MET) { WAIT_CONDITION_MET = false; return; } " +
+    " } " +
+    "};\n" +
+    "\n" +
+    "function SCRIPT_POLL() { " + /* CALLED FROM SIMULATION THREAD! */
+    " msg = new java.lang.String(msg); " +
+    " node.setMoteMsg(mote, msg); " +
+    " return WAIT_CONDITION() ? true : false; " +
+    "};\n" +
+    "\n" +
+    "function FILTER() { " +
+    " return new Packages.org.contikios.cooja.plugins.ScriptLogFilter(); " +
+    "};\n" +
+    "\n" +
+    "function SET_FILTER(filter) { " +
+    " log.setFilter(filter); " +
+    "};\n" +
+    "\n" +
     "function write(mote,msg) { " +
     " mote.getInterfaces().getLog().writeString(msg); " +
     "};\n";
@@ -48,6 +48,7 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.Observable;
 import java.util.Observer;
 
@@ -114,7 +115,10 @@ public class ScriptRunner extends VisPlugin {
   private Simulation simulation;
   private LogScriptEngine engine;
 
-  private static BufferedWriter logWriter = null; /* For non-GUI tests */
+  /* For non-GUI tests: one writer per test log file, shared by all active test editor plugins */
+  private static final HashMap<File, BufferedWriter> logWriters = new HashMap<File, BufferedWriter>();
+  private File logFile = null;
+  private BufferedWriter logWriter = null;
 
   private JEditorPane codeEditor;
   private JTextArea logTextArea;
@@ -123,6 +127,9 @@ public class ScriptRunner extends VisPlugin {
   private JSyntaxLinkFile actionLinkFile = null;
   private File linkedFile = null;
 
+  /* Evaluate WAIT_UNTIL conditions in the simulation thread, see LogScriptEngine */
+  private boolean sameThreadConditions = false;
+
   public ScriptRunner(Simulation simulation, Cooja gui) {
     super("Simulation script editor", gui, false);
     this.simulation = simulation;
@@ -338,6 +345,7 @@ public class ScriptRunner extends VisPlugin {
 
       /* Create new engine */
       engine = new LogScriptEngine(simulation);
+      engine.setSameThreadConditions(sameThreadConditions);
       if (Cooja.isVisualized()) {
         /* Attach visualized log observer */
         engine.setScriptLogObserver(new Observer() {
@@ -350,23 +358,29 @@ public class ScriptRunner extends VisPlugin {
       } else {
         try {
           /* Continously write test output to file */
-          if (logWriter == null) {
-            /* Warning: static variable, used by all active test editor plugins */
-            File logFile = new File("COOJA.testlog");
-            if (logFile.exists()) {
-              logFile.delete();
+          logFile = simulation.getCooja().getTestLogFile();
+          synchronized (logWriters) {
+            logWriter = logWriters.get(logFile);
+            if (logWriter == null) {
+              if (logFile.exists()) {
+                logFile.delete();
+              }
+              logWriter = new BufferedWriter(new FileWriter(logFile));
+              logWriter.write("Random seed: " + simulation.getRandomSeed() + "\n");
+              logWriter.flush();
+              logWriters.put(logFile, logWriter);
             }
-            logWriter = new BufferedWriter(new FileWriter(logFile));
-            logWriter.write("Random seed: " + simulation.getRandomSeed() + "\n");
-            logWriter.flush();
           }
           engine.setScriptLogObserver(new Observer() {
             @Override
             public void update(Observable obs, Object obj) {
               try {
-                if (logWriter != null) {
-                  logWriter.write((String) obj);
-                  logWriter.flush();
+                BufferedWriter writer = logWriter;
+                if (writer != null) {
+                  synchronized (writer) {
+                    writer.write((String) obj);
+                    writer.flush();
+                  }
                 } else {
                   logger.fatal("No log writer: " + obj);
                 }
@@ -419,13 +433,17 @@ public class ScriptRunner extends VisPlugin {
       }
 
       if (logWriter != null) {
-        try {
-          logWriter.write(
-              "Test ended at simulation time: " +
-              (simulation!=null?simulation.getSimulationTime():"?") + "\n");
-          logWriter.flush();
-          logWriter.close();
-        } catch (IOException e) {
+        synchronized (logWriters) {
+          if (logWriters.remove(logFile) == logWriter) {
+            try {
+              logWriter.write(
+                  "Test ended at simulation time: " +
+                  (simulation!=null?simulation.getSimulationTime():"?") + "\n");
+              logWriter.flush();
+              logWriter.close();
+            } catch (IOException e) {
+            }
+          }
         }
         logWriter = null;
       }
@@ -649,6 +667,12 @@ public class ScriptRunner extends VisPlugin {
       config.add(element);
     }
 
+    if (sameThreadConditions) {
+      element = new Element("same_thread_conditions");
+      element.setText("true");
+      config.add(element);
+    }
+
     element = new Element("active");
     element.setText("" + isActive());
     config.add(element);
@@ -679,6 +703,8 @@ public class ScriptRunner extends VisPlugin {
       } else if ("scriptfile".equals(name)) {
         File file = simulation.getCooja().restorePortablePath(new File(element.getText().trim()));
         setLinkFile(file);
+      } else if ("same_thread_conditions".equals(name)) {
+        sameThreadConditions = Boolean.parseBoolean(element.getText());
       } else if ("active".equals(name)) {
         boolean active = Boolean.parseBoolean(element.getText());
         if (Cooja.isVisualized()) {
@@ -177,8 +177,8 @@ public class UDGMVisualizerSkin implements VisualizerSkin {
     successRatioTxSpinner.addChangeListener(new ChangeListener() {
       @Override
       public void stateChanged(ChangeEvent e) {
-        radioMedium.SUCCESS_RATIO_TX = ((SpinnerNumberModel) successRatioTxSpinner.getModel())
-                .getNumber().doubleValue();
+        radioMedium.setSuccessRatioTx(((SpinnerNumberModel) successRatioTxSpinner.getModel())
+                .getNumber().doubleValue());
         visualizer.repaint();
       }
     });
@@ -186,8 +186,8 @@ public class UDGMVisualizerSkin implements VisualizerSkin {
     successRatioRxSpinner.addChangeListener(new ChangeListener() {
       @Override
       public void stateChanged(ChangeEvent e) {
-        radioMedium.SUCCESS_RATIO_RX = ((SpinnerNumberModel) successRatioRxSpinner.getModel())
-                .getNumber().doubleValue();
+        radioMedium.setSuccessRatioRx(((SpinnerNumberModel) successRatioRxSpinner.getModel())
+                .getNumber().doubleValue());
         visualizer.repaint();
       }
     });
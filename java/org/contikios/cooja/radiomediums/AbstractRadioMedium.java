@@ -30,9 +30,15 @@
 
 package org.contikios.cooja.radiomediums;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Observable;
@@ -84,8 +90,31 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 	
 	private ArrayList<RadioConnection> activeConnections = new ArrayList<RadioConnection>();
 	
+	/* Active connections indexed by source and by destination radio, in activation order */
+	private HashMap<Radio, ArrayList<RadioConnection>> activeConnectionsFrom = new HashMap<Radio, ArrayList<RadioConnection>>();
+	private HashMap<Radio, ArrayList<RadioConnection>> activeConnectionsTo = new HashMap<Radio, ArrayList<RadioConnection>>();
+	private HashMap<RadioConnection, Radio[]> indexedDestinations = new HashMap<RadioConnection, Radio[]>();
+	
+	/* Incremental signal strength updates: active connections involving each radio, in activation order */
+	private boolean incrementalSignalStrengths = false;
+	private boolean signalStrengthsDirty = true;
+	private HashMap<Radio, ArrayList<RadioConnection>> involvedConnections = new HashMap<Radio, ArrayList<RadioConnection>>();
+	private HashMap<RadioConnection, Radio[]> involvedRadios = new HashMap<RadioConnection, Radio[]>();
+	private LinkedHashSet<Radio> receptionsFinished = new LinkedHashSet<Radio>();
+	
+	/* Channel partitioning: registered radios by current channel, see setChannelPartitioning() */
+	private boolean channelPartitioning = false;
+	private long registrationSeq = 0;
+	private HashMap<Radio, Long> registrationOrder = new HashMap<Radio, Long>();
+	private HashMap<Radio, Integer> radioChannels = new HashMap<Radio, Integer>();
+	private HashMap<Integer, LinkedHashSet<Radio>> channelPartitions = new HashMap<Integer, LinkedHashSet<Radio>>();
+	private HashMap<Integer, Radio[]> channelRadios = new HashMap<Integer, Radio[]>();
+	
 	private RadioConnection lastConnection = null;
 	
+	/* Executed delayed reception events, reused for later receptions */
+	private ArrayDeque<DelayedReceptionEvent> receptionEventPool = new ArrayDeque<DelayedReceptionEvent>();
+	
 	private Simulation simulation = null;
 	
 	/* Book-keeping */
@@ -125,6 +154,414 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 		return activeConnections.toArray(new RadioConnection[0]);
 	}
 	
+	/**
+	 * Returns the active connections in which the given radio is a
+	 * non-interfered destination.
+	 *
+	 * @param radio Destination radio
+	 * @return Active connections, in activation order
+	 */
+	public RadioConnection[] getActiveConnectionsTo(Radio radio) {
+		ArrayList<RadioConnection> conns = activeConnectionsTo.get(radio);
+		if (conns == null) {
+			return new RadioConnection[0];
+		}
+		ArrayList<RadioConnection> destConns = new ArrayList<RadioConnection>(conns.size());
+		for (RadioConnection conn : conns) {
+			if (conn.isDestination(radio)) {
+				destConns.add(conn);
+			}
+		}
+		return destConns.toArray(new RadioConnection[0]);
+	}
+	
+	/**
+	 * Interferes the given radio in all active connections in which it is a
+	 * non-interfered destination.
+	 *
+	 * @param radio Destination radio
+	 * @return True if the radio was a destination in any active connection
+	 */
+	protected boolean interfereActiveConnectionsTo(Radio radio) {
+		ArrayList<RadioConnection> conns = activeConnectionsTo.get(radio);
+		if (conns == null) {
+			return false;
+		}
+		boolean interfered = false;
+		for (RadioConnection conn : conns) {
+			if (conn.isDestination(radio)) {
+				conn.addInterfered(radio);
+				interfered = true;
+			}
+		}
+		return interfered;
+	}
+	
+	private void addActiveConnection(RadioConnection conn) {
+		activeConnections.add(conn);
+		activeConnectionsFrom.computeIfAbsent(conn.getSource(), r -> new ArrayList<RadioConnection>(1)).add(conn);
+		Radio[] dests = conn.getAllDestinations();
+		indexedDestinations.put(conn, dests);
+		for (Radio dest : dests) {
+			activeConnectionsTo.computeIfAbsent(dest, r -> new ArrayList<RadioConnection>(2)).add(conn);
+		}
+		
+		Radio[] radios = getConnectionRadios(conn, null);
+		involvedRadios.put(conn, radios);
+		for (Radio radio : radios) {
+			involvedConnections.computeIfAbsent(radio, r -> new ArrayList<RadioConnection>(2)).add(conn);
+		}
+	}
+	
+	private void removeActiveConnection(RadioConnection conn) {
+		activeConnections.remove(conn);
+		removeFromIndex(activeConnectionsFrom, conn.getSource(), conn);
+		/* Destinations may have been removed while active */
+		for (Radio dest : indexedDestinations.remove(conn)) {
+			removeFromIndex(activeConnectionsTo, dest, conn);
+		}
+		for (Radio radio : involvedRadios.remove(conn)) {
+			removeFromIndex(involvedConnections, radio, conn);
+		}
+	}
+	
+	/**
+	 * @param conn Connection
+	 * @param indexed Radios indexed at activation, or null
+	 * @return Source, destination and interfered radios of connection
+	 */
+	private static Radio[] getConnectionRadios(RadioConnection conn, Radio[] indexed) {
+		LinkedHashSet<Radio> radios = new LinkedHashSet<Radio>();
+		if (indexed != null) {
+			radios.addAll(Arrays.asList(indexed));
+		}
+		radios.add(conn.getSource());
+		radios.addAll(Arrays.asList(conn.getAllDestinations()));
+		radios.addAll(Arrays.asList(conn.getInterfered()));
+		return radios.toArray(new Radio[0]);
+	}
+	
+	/**
+	 * Enables or disables incremental signal strength updates.
+	 * <p>
+	 * When enabled, starting or finishing a transmission only updates the
+	 * signal strengths of the radios involved in that connection, using
+	 * {@link #getSignalStrength(Radio, List)}. All other radio events, and
+	 * any change reported by {@link #invalidateSignalStrengths()}, still
+	 * update all radios. The resulting signal strengths are the same as those
+	 * of {@link #updateSignalStrengths()}.
+	 * <p>
+	 * Ignored by radio mediums that do not support incremental updates.
+	 *
+	 * @param enabled True to enable incremental updates
+	 * @see #supportsIncrementalSignalStrengths()
+	 */
+	public void setIncrementalSignalStrengths(boolean enabled) {
+		incrementalSignalStrengths = enabled;
+		signalStrengthsDirty = true;
+	}
+	
+	/**
+	 * @return True if incremental signal strength updates are enabled
+	 */
+	public boolean isIncrementalSignalStrengths() {
+		return incrementalSignalStrengths;
+	}
+	
+	/**
+	 * Radio mediums overriding {@link #updateSignalStrengths()} must also
+	 * override {@link #getSignalStrength(Radio, List)} with the same
+	 * computation before returning true.
+	 *
+	 * @return True if this radio medium supports incremental signal strength updates
+	 */
+	protected boolean supportsIncrementalSignalStrengths() {
+		return false;
+	}
+	
+	/**
+	 * Signals that signal strengths may have changed for reasons other than
+	 * radio events, for example when radios moved. The next update will update
+	 * all radios.
+	 */
+	protected void invalidateSignalStrengths() {
+		signalStrengthsDirty = true;
+	}
+	
+	/**
+	 * Calculates the signal strength of a single radio, as set by
+	 * {@link #updateSignalStrengths()}.
+	 *
+	 * @param radio Radio
+	 * @param conns Active connections in which radio is the source, a
+	 *              destination or interfered, in activation order
+	 * @return Signal strength
+	 */
+	protected double getSignalStrength(Radio radio, List<RadioConnection> conns) {
+		double signalStrength = getBaseRssi(radio);
+		
+		/* Strong on sources and destinations */
+		for (RadioConnection conn : conns) {
+			if (conn.getSource() == radio && signalStrength < SS_STRONG) {
+				signalStrength = SS_STRONG;
+			}
+			if (conn.isDestination(radio) && isSameChannel(conn.getSource(), radio) && signalStrength < SS_STRONG) {
+				signalStrength = SS_STRONG;
+			}
+		}
+		
+		/* Strong on interfered */
+		for (RadioConnection conn : conns) {
+			if (conn.isInterfered(radio) && signalStrength < SS_STRONG) {
+				signalStrength = SS_STRONG;
+			}
+		}
+		return signalStrength;
+	}
+	
+	/**
+	 * @param source Source radio
+	 * @param radio Radio
+	 * @return False if radios are on different (but configured) channels
+	 */
+	private static boolean isSameChannel(Radio source, Radio radio) {
+		return source.getChannel() < 0 || radio.getChannel() < 0 || source.getChannel() == radio.getChannel();
+	}
+	
+	/**
+	 * Updates the signal strengths of all radios.
+	 */
+	private void updateAllSignalStrengths() {
+		updateSignalStrengths();
+		signalStrengthsDirty = false;
+		receptionsFinished.clear();
+	}
+	
+	/**
+	 * Updates the signal strengths after a connection started or finished.
+	 *
+	 * @param radios Radios involved in the connection
+	 */
+	private void updateSignalStrengths(Radio[] radios) {
+		if (!incrementalSignalStrengths || !supportsIncrementalSignalStrengths() || signalStrengthsDirty) {
+			updateAllSignalStrengths();
+			return;
+		}
+		
+		/* Radios that finished receiving may have to be interfered again */
+		LinkedHashSet<Radio> affected = new LinkedHashSet<Radio>(Arrays.asList(radios));
+		affected.addAll(receptionsFinished);
+		receptionsFinished.clear();
+		
+		List<RadioConnection> none = Collections.emptyList();
+		for (Radio radio : affected) {
+			List<RadioConnection> conns = involvedConnections.get(radio);
+			if (conns == null) {
+				conns = none;
+			}
+			radio.setCurrentSignalStrength(getSignalStrength(radio, conns));
+			
+			/* Interfered radios stay interfered while the connection is active */
+			for (RadioConnection conn : conns) {
+				if (conn.isInterfered(radio) && isSameChannel(conn.getSource(), radio) && !radio.isInterfered()) {
+					radio.interfereAnyReception();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Enables or disables channel partitioning.
+	 * <p>
+	 * When enabled, registered radios are indexed by their current channel,
+	 * and radio mediums supporting it only evaluate links to radios on the
+	 * sender's channel when creating connections. Radios move between
+	 * partitions when they report a channel change.
+	 * <p>
+	 * Potential destinations on other channels are still added as dormant
+	 * interferers when a transmission starts, as without partitioning, but
+	 * before links on the sender's channel are evaluated.
+	 * <p>
+	 * Ignored by radio mediums that do not support channel partitioning.
+	 *
+	 * @param enabled True to enable channel partitioning
+	 * @see #supportsChannelPartitioning()
+	 */
+	public void setChannelPartitioning(boolean enabled) {
+		channelPartitioning = enabled;
+		rebuildChannelPartitions();
+	}
+	
+	/**
+	 * @return True if channel partitioning is enabled
+	 */
+	public boolean isChannelPartitioning() {
+		return channelPartitioning;
+	}
+	
+	/**
+	 * Radio mediums returning true must use
+	 * {@link #getDestinationsOnChannel(RadioConnection, DestinationRadio[])}
+	 * when creating connections, and implement
+	 * {@link #isPotentialDestination(Radio, Radio)}.
+	 *
+	 * @return True if this radio medium supports channel partitioning
+	 */
+	protected boolean supportsChannelPartitioning() {
+		return false;
+	}
+	
+	private boolean isChannelPartitioned() {
+		return channelPartitioning && supportsChannelPartitioning();
+	}
+	
+	/**
+	 * Used by channel partitioning to find the potential destinations among
+	 * the radios on the sender's channel.
+	 *
+	 * @param source Source radio
+	 * @param radio Radio
+	 * @return True if radio is a potential destination of source, on any channel
+	 */
+	protected boolean isPotentialDestination(Radio source, Radio radio) {
+		return false;
+	}
+	
+	/**
+	 * Returns the radios that may hear a transmission on the given channel:
+	 * radios tuned to the channel, and radios without a configured channel.
+	 *
+	 * @param channel Channel
+	 * @return Radios in registration order, or null if channel partitioning is
+	 *         disabled or channel is not configured
+	 */
+	protected Radio[] getRadiosOnChannel(int channel) {
+		if (!isChannelPartitioned() || channel < 0) {
+			return null;
+		}
+		Radio[] radios = channelRadios.get(channel);
+		if (radios == null) {
+			ArrayList<Radio> list = new ArrayList<Radio>();
+			if (channelPartitions.containsKey(channel)) {
+				list.addAll(channelPartitions.get(channel));
+			}
+			if (channelPartitions.containsKey(-1)) {
+				list.addAll(channelPartitions.get(-1));
+			}
+			list.sort(Comparator.comparingLong(registrationOrder::get));
+			radios = list.toArray(new Radio[0]);
+			channelRadios.put(channel, radios);
+		}
+		return radios;
+	}
+	
+	/**
+	 * Returns the potential destinations to evaluate links to when creating
+	 * connections. With channel partitioning, only radios that may hear the
+	 * sender's channel are returned, in the order of potential destinations.
+	 * Potential destinations on other channels are then added to the
+	 * connection as dormant interferers.
+	 *
+	 * @param conn New connection
+	 * @param potentialDestinations Potential destinations on any channel, in registration order
+	 * @return Destination radios, or null if all potential destinations
+	 *         should be visited
+	 */
+	protected Radio[] getDestinationsOnChannel(RadioConnection conn, DestinationRadio[] potentialDestinations) {
+		Radio sender = conn.getSource();
+		Radio[] radios = getRadiosOnChannel(sender.getChannel());
+		if (radios == null) {
+			return null;
+		}
+		
+		/* Add dormant connections, and collect the radios on the sender's channel */
+		boolean fewerOnChannel = radios.length < potentialDestinations.length;
+		ArrayList<Radio> dests = new ArrayList<Radio>();
+		for (DestinationRadio dest : potentialDestinations) {
+			if (!isSameChannel(sender, dest.radio)) {
+				conn.addInterfered(dest.radio);
+			} else if (!fewerOnChannel) {
+				dests.add(dest.radio);
+			}
+		}
+		if (fewerOnChannel) {
+			/* Fewer radios on channel than potential destinations */
+			for (Radio radio : radios) {
+				if (radio != sender && isPotentialDestination(sender, radio)) {
+					dests.add(radio);
+				}
+			}
+		}
+		return dests.toArray(new Radio[0]);
+	}
+	
+	private void rebuildChannelPartitions() {
+		radioChannels.clear();
+		channelPartitions.clear();
+		channelRadios.clear();
+		if (!isChannelPartitioned()) {
+			return;
+		}
+		for (Radio radio : registeredRadios) {
+			addToChannelPartition(radio);
+		}
+	}
+	
+	private void addToChannelPartition(Radio radio) {
+		int channel = Math.max(radio.getChannel(), -1);
+		radioChannels.put(radio, channel);
+		channelPartitions.computeIfAbsent(channel, c -> new LinkedHashSet<Radio>()).add(radio);
+		invalidateChannelRadios(channel);
+	}
+	
+	private void removeFromChannelPartition(Radio radio) {
+		Integer channel = radioChannels.remove(radio);
+		if (channel == null) {
+			return;
+		}
+		LinkedHashSet<Radio> partition = channelPartitions.get(channel);
+		partition.remove(radio);
+		if (partition.isEmpty()) {
+			channelPartitions.remove(channel);
+		}
+		invalidateChannelRadios(channel);
+	}
+	
+	private void invalidateChannelRadios(int channel) {
+		if (channel < 0) {
+			/* Radios without channel are on all channels */
+			channelRadios.clear();
+		} else {
+			channelRadios.remove(channel);
+		}
+	}
+	
+	/**
+	 * Moves radio to the partition of its current channel, if changed.
+	 *
+	 * @param radio Radio
+	 */
+	private void updateChannelPartition(Radio radio) {
+		Integer oldChannel = radioChannels.get(radio);
+		if (oldChannel == null || oldChannel == Math.max(radio.getChannel(), -1)) {
+			return;
+		}
+		removeFromChannelPartition(radio);
+		addToChannelPartition(radio);
+
+	}
+	
+	private static void removeFromIndex(HashMap<Radio, ArrayList<RadioConnection>> index, Radio radio, RadioConnection conn) {
+		ArrayList<RadioConnection> conns = index.get(radio);
+		if (conns == null) {
+			return;
+		}
+		conns.remove(conn);
+		if (conns.isEmpty()) {
+			index.remove(radio);
+		}
+	}
+	
 	/**
 	 * Creates a new connection from given radio.
 	 *
@@ -198,23 +635,17 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 		}
 		
 		/* Set interfered if currently a connection destination */
-		for (RadioConnection conn : activeConnections) {
-			if (conn.isDestination(radio)) {
-				conn.addInterfered(radio);
-				if (!radio.isInterfered()) {
-					radio.interfereAnyReception();
-				}
-			}
+		if (interfereActiveConnectionsTo(radio) && !radio.isInterfered()) {
+			radio.interfereAnyReception();
 		}
 	}
 	
 	private RadioConnection getActiveConnectionFrom(Radio source) {
-		for (RadioConnection conn : activeConnections) {
-			if (conn.getSource() == source) {
-				return conn;
-			}
+		ArrayList<RadioConnection> conns = activeConnectionsFrom.get(source);
+		if (conns == null) {
+			return null;
 		}
-		return null;
+		return conns.get(0);
 	}
 	
 	/**
@@ -232,23 +663,32 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 			
 			final Radio.RadioEvent event = radio.getLastEvent();
 			
+			if (isChannelPartitioned()) {
+				/* Channel changes are reported as any radio event */
+				updateChannelPartition(radio);
+			}
+			
 			switch (event) {
+				case RECEPTION_FINISHED:
+					if (incrementalSignalStrengths) {
+						receptionsFinished.add(radio);
+					}
+					break;
 				case RECEPTION_STARTED:
 				case RECEPTION_INTERFERED:
-				case RECEPTION_FINISHED:
 					break;
 
 				case UNKNOWN:
 				case HW_ON: {
 					/* Update signal strengths */
-					updateSignalStrengths();
+					updateAllSignalStrengths();
 				}
 				break;
 				case HW_OFF: {
 					/* Remove any radio connections from this radio */
 					removeFromActiveConnections(radio);
 					/* Update signal strengths */
-					updateSignalStrengths();
+					updateAllSignalStrengths();
 				}
 				break;
 				case TRANSMISSION_STARTED: {
@@ -259,33 +699,21 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 						 * receiving! Ok, but it won't receive the packet
 						 */
 						radio.interfereAnyReception();
-						for (RadioConnection conn : activeConnections) {
-							if (conn.isDestination(radio)) {
-								conn.addInterfered(radio);
-							}
-						}
+						interfereActiveConnectionsTo(radio);
 					}
 					
 					RadioConnection newConnection = createConnections(radio);
-					activeConnections.add(newConnection);
+					addActiveConnection(newConnection);
 					
 					for (Radio r : newConnection.getAllDestinations()) {
 						if (newConnection.getDestinationDelay(r) == 0) {
 							r.signalReceptionStart();
 						} else {
 							/* EXPERIMENTAL: Simulating propagation delay */
-							final Radio delayedRadio = r;
-							TimeEvent delayedEvent = new TimeEvent() {
-								@Override
-								public void execute(long t) {
-									delayedRadio.signalReceptionStart();
-								}
-							};
-							simulation.scheduleEvent(delayedEvent, simulation.getSimulationTime() + newConnection.getDestinationDelay(r));
-							
+							scheduleReceptionEvent(DelayedReception.RECEPTION_START, r, null, newConnection.getDestinationDelay(r));
 						}
 					} /* Update signal strengths */
-					updateSignalStrengths();
+					updateSignalStrengths(involvedRadios.get(newConnection));
 					
 					/* Notify observers */
 					lastConnection = null;
@@ -302,7 +730,8 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 						return;
 					}
 					
-					activeConnections.remove(connection);
+					Radio[] connectionRadios = getConnectionRadios(connection, involvedRadios.get(connection));
+					removeActiveConnection(connection);
 					lastConnection = connection;
 					COUNTER_TX++;
 					for (Radio dstRadio : connection.getAllDestinations()) {
@@ -311,15 +740,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 						} else {
 							
 							/* EXPERIMENTAL: Simulating propagation delay */
-							final Radio delayedRadio = dstRadio;
-							TimeEvent delayedEvent = new TimeEvent() {
-								@Override
-								public void execute(long t) {
-									delayedRadio.signalReceptionEnd();
-								}
-							};
-							simulation.scheduleEvent(delayedEvent,
-									simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
+							scheduleReceptionEvent(DelayedReception.RECEPTION_END, dstRadio, null, connection.getDestinationDelay(dstRadio));
 						}
 					}
 					COUNTER_RX += connection.getDestinations().length;
@@ -332,7 +753,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 					}
 					
 					/* Update signal strengths */
-					updateSignalStrengths();
+					updateSignalStrengths(connectionRadios);
 					
 					/* Notify observers */
 					radioTransmissionObservable.setChangedAndNotify();
@@ -366,17 +787,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 						} else {
 							
 							/* EXPERIMENTAL: Simulating propagation delay */
-							final CustomDataRadio delayedRadio = (CustomDataRadio) dstRadio;
-							final Object delayedData = data;
-							TimeEvent delayedEvent = new TimeEvent() {
-								@Override
-								public void execute(long t) {
-									delayedRadio.receiveCustomData(delayedData);
-								}
-							};
-							simulation.scheduleEvent(delayedEvent,
-									simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
-							
+							scheduleReceptionEvent(DelayedReception.CUSTOM_DATA, dstRadio, data, connection.getDestinationDelay(dstRadio));
 						}
 					}
 					
@@ -413,16 +824,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 						} else {
 							
 							/* EXPERIMENTAL: Simulating propagation delay */
-							final Radio delayedRadio = dstRadio;
-							final RadioPacket delayedPacket = packet;
-							TimeEvent delayedEvent = new TimeEvent() {
-								@Override
-								public void execute(long t) {
-									delayedRadio.setReceivedPacket(delayedPacket);
-								}
-							};
-							simulation.scheduleEvent(delayedEvent,
-									simulation.getSimulationTime() + connection.getDestinationDelay(dstRadio));
+							scheduleReceptionEvent(DelayedReception.PACKET, dstRadio, packet, connection.getDestinationDelay(dstRadio));
 						}
 						
 					}
@@ -434,6 +836,63 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 		}
 	};
 	
+	private enum DelayedReception {
+		RECEPTION_START, RECEPTION_END, CUSTOM_DATA, PACKET
+	}
+	
+	/**
+	 * Delayed reception event, returned to the pool when executed.
+	 */
+	private class DelayedReceptionEvent extends TimeEvent {
+		private DelayedReception reception;
+		private Radio radio;
+		private Object data;
+		
+		@Override
+		public void execute(long t) {
+			DelayedReception reception = this.reception;
+			Radio radio = this.radio;
+			Object data = this.data;
+			this.radio = null;
+			this.data = null;
+			receptionEventPool.push(this);
+			
+			switch (reception) {
+				case RECEPTION_START:
+					radio.signalReceptionStart();
+					break;
+				case RECEPTION_END:
+					radio.signalReceptionEnd();
+					break;
+				case CUSTOM_DATA:
+					((CustomDataRadio) radio).receiveCustomData(data);
+					break;
+				case PACKET:
+					radio.setReceivedPacket((RadioPacket) data);
+					break;
+			}
+		}
+	}
+	
+	/**
+	 * Schedules a delayed reception, reusing executed reception events.
+	 *
+	 * @param reception Reception action
+	 * @param radio Destination radio
+	 * @param data Packet or custom data, or null
+	 * @param delay Propagation delay
+	 */
+	private void scheduleReceptionEvent(DelayedReception reception, Radio radio, Object data, long delay) {
+		DelayedReceptionEvent event = receptionEventPool.poll();
+		if (event == null) {
+			event = new DelayedReceptionEvent();
+		}
+		event.reception = reception;
+		event.radio = radio;
+		event.data = data;
+		simulation.scheduleEvent(event, simulation.getSimulationTime() + delay);
+	}
+	
 	@Override
 	public void registerMote(Mote mote, Simulation sim) {
 		registerRadioInterface(mote.getInterfaces().getRadio(), sim);
@@ -452,11 +911,15 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 		}
 		
 		registeredRadios.add(radio);
+		registrationOrder.put(radio, registrationSeq++);
+		if (isChannelPartitioned()) {
+			addToChannelPartition(radio);
+		}
 		radio.addObserver(radioEventsObserver);
 		radioMediumObservable.setChangedAndNotify();
 		
 		/* Update signal strengths */
-		updateSignalStrengths();
+		updateAllSignalStrengths();
 	}
 	
 	@Override
@@ -468,13 +931,15 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 		
 		radio.deleteObserver(radioEventsObserver);
 		registeredRadios.remove(radio);
+		registrationOrder.remove(radio);
+		removeFromChannelPartition(radio);
 		
 		removeFromActiveConnections(radio);
 		
 		radioMediumObservable.setChangedAndNotify();
 		
 		/* Update signal strengths */
-		updateSignalStrengths();
+		updateAllSignalStrengths();
 	}
 	
 	/**
@@ -505,7 +970,7 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 		simulation.invokeSimulationThread(new Runnable() {				
 			@Override
 			public void run() {
-				updateSignalStrengths();
+				updateAllSignalStrengths();
 			}
 		});
 	}
@@ -605,6 +1070,18 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 			config.add(element);
 		}
 
+		if (incrementalSignalStrengths) {
+			Element element = new Element("incremental_signal_strengths");
+			element.setText("true");
+			config.add(element);
+		}
+
+		if (channelPartitioning) {
+			Element element = new Element("channel_partitioning");
+			element.setText("true");
+			config.add(element);
+		}
+
 		return config;
 	}
 	
@@ -612,6 +1089,14 @@ public abstract class AbstractRadioMedium extends RadioMedium {
 	
 	@Override
 	public boolean setConfigXML(final Collection<Element> configXML, boolean visAvailable) {
+		for (Element element : configXML) {
+			if (element.getName().equals("incremental_signal_strengths")) {
+				setIncrementalSignalStrengths(Boolean.parseBoolean(element.getText()));
+			}
+			if (element.getName().equals("channel_partitioning")) {
+				setChannelPartitioning(Boolean.parseBoolean(element.getText()));
+			}
+		}
 		delayedConfiguration = configXML;
 		return true;
 	}
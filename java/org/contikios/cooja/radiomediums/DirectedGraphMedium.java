@@ -32,9 +32,11 @@ package org.contikios.cooja.radiomediums;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import org.apache.logging.log4j.Logger;
@@ -67,9 +69,16 @@ public class DirectedGraphMedium extends AbstractRadioMedium {
   private Simulation simulation;
   private Random random;
 
-  private ArrayList<Edge> edges = new ArrayList<Edge>();
+  /* Edges in insertion order, and indexed by source and destination radio */
+  private LinkedHashSet<Edge> edges = new LinkedHashSet<Edge>();
+  private HashMap<Radio,LinkedHashSet<Edge>> edgesFrom = new HashMap<Radio,LinkedHashSet<Edge>>();
+  private HashMap<Radio,LinkedHashSet<Edge>> edgesTo = new HashMap<Radio,LinkedHashSet<Edge>>();
+  private Edge[] edgesArray = null;
   private boolean edgesDirty = true;
 
+  /* Source radios whose potential destinations changed since last lookup */
+  private LinkedHashSet<Radio> dirtySources = new LinkedHashSet<Radio>();
+
   /* Used for optimizing lookup time */
   private Hashtable<Radio,DGRMDestinationRadio[]> edgesTable = new Hashtable<Radio,DGRMDestinationRadio[]>();
 
@@ -92,33 +101,94 @@ public class DirectedGraphMedium extends AbstractRadioMedium {
   }
 
   public void addEdge(Edge e) {
-    edges.add(e);
-    requestEdgeAnalysis();
+    if (!edges.add(e)) {
+      logger.warn("Edge already added: " + e);
+      return;
+    }
+    edgesArray = null;
+    edgesFrom.computeIfAbsent(e.source, r -> new LinkedHashSet<Edge>()).add(e);
+    edgesTo.computeIfAbsent(e.superDest.radio, r -> new LinkedHashSet<Edge>()).add(e);
+    dirtySources.add(e.source);
 
     radioTransmissionObservable.setChangedAndNotify();
   }
 
   public void removeEdge(Edge edge) {
-    if (!edges.contains(edge)) {
+    if (!edges.remove(edge)) {
       logger.fatal("Cannot remove edge: " + edge);
       return;
     }
-    edges.remove(edge);
-    requestEdgeAnalysis();
+    edgesArray = null;
+    removeFromIndex(edgesFrom, edge.source, edge);
+    removeFromIndex(edgesTo, edge.superDest.radio, edge);
+    dirtySources.add(edge.source);
 
+    radioTransmissionObservable.setChangedAndNotify();
+  }
+
+  private static void removeFromIndex(HashMap<Radio,LinkedHashSet<Edge>> index, Radio radio, Edge edge) {
+    LinkedHashSet<Edge> radioEdges = index.get(radio);
+    if (radioEdges == null) {
+      return;
+    }
+    radioEdges.remove(edge);
+    if (radioEdges.isEmpty()) {
+      index.remove(radio);
+    }
+  }
+
+  /**
+   * Signals that the destination parameters of an edge, such as ratio or
+   * signal strength, changed.
+   *
+   * @param edge Edge
+   */
+  public void updateEdge(Edge edge) {
+    if (!edges.contains(edge)) {
+      logger.fatal("Cannot update edge: " + edge);
+      return;
+    }
+    dirtySources.add(edge.source);
 
     radioTransmissionObservable.setChangedAndNotify();
   }
 
   public void clearEdges() {
     edges.clear();
+    edgesFrom.clear();
+    edgesTo.clear();
+    edgesArray = null;
     requestEdgeAnalysis();
 
     radioTransmissionObservable.setChangedAndNotify();
   }
 
   public Edge[] getEdges() {
-    return edges.toArray(new Edge[0]);
+    return getEdgesArray().clone();
+  }
+
+  /**
+   * @return Number of edges
+   */
+  public int getEdgeCount() {
+    return edges.size();
+  }
+
+  /**
+   * @param index Edge index, in insertion order
+   * @return Edge
+   */
+  public Edge getEdge(int index) {
+    return getEdgesArray()[index];
+  }
+
+  private Edge[] getEdgesArray() {
+    Edge[] arr = edgesArray;
+    if (arr == null) {
+      arr = edges.toArray(new Edge[0]);
+      edgesArray = arr;
+    }
+    return arr;
   }
 
   /**
@@ -137,10 +207,16 @@ public class DirectedGraphMedium extends AbstractRadioMedium {
   public void unregisterRadioInterface(Radio radio, Simulation sim) {
     super.unregisterRadioInterface(radio, sim);
 
-    for (Edge edge: getEdges()) {
-      if (edge.source == radio || edge.superDest.radio == radio) {
+    ArrayList<Edge> radioEdges = new ArrayList<Edge>();
+    if (edgesFrom.containsKey(radio)) {
+      radioEdges.addAll(edgesFrom.get(radio));
+    }
+    if (edgesTo.containsKey(radio)) {
+      radioEdges.addAll(edgesTo.get(radio));
+    }
+    for (Edge edge: radioEdges) {
+      if (edges.contains(edge)) {
         removeEdge(edge);
-        requestEdgeAnalysis();
       }
     }
   }
@@ -199,34 +275,67 @@ public class DirectedGraphMedium extends AbstractRadioMedium {
    * Generates hash table using current edges for efficient lookup.
    */
   protected void analyzeEdges() {
-    Hashtable<Radio,ArrayList<DGRMDestinationRadio>> listTable =
-      new Hashtable<Radio,ArrayList<DGRMDestinationRadio>>();
+    Hashtable<Radio,DGRMDestinationRadio[]> arrTable =  new Hashtable<Radio,DGRMDestinationRadio[]>();
+    for (Radio source: edgesFrom.keySet()) {
+      arrTable.put(source, getDestinationArray(source));
+    }
 
-    /* Fill edge hash table with all edges */
-    for (Edge edge: getEdges()) {
-      ArrayList<DGRMDestinationRadio> destRadios;
-      if (!listTable.containsKey(edge.source)) {
-        destRadios = new ArrayList<DGRMDestinationRadio>();
+    this.edgesTable = arrTable;
+    dirtySources.clear();
+    edgesDirty = false;
+    
+    /* Radio Medium changed here so notify Observers */
+    radioMediumObservable.setChangedAndNotify();
+  }
+
+  /**
+   * Updates the potential destinations of sources whose edges changed since
+   * last lookup.
+   */
+  private void analyzeDirtySources() {
+    for (Radio source: dirtySources) {
+      if (edgesFrom.containsKey(source)) {
+        edgesTable.put(source, getDestinationArray(source));
       } else {
-        destRadios = listTable.get(edge.source);
+        edgesTable.remove(source);
       }
+    }
+    dirtySources.clear();
 
-      destRadios.add(edge.superDest);
-      listTable.put(edge.source, destRadios);
+    /* Radio Medium changed here so notify Observers */
+    radioMediumObservable.setChangedAndNotify();
+  }
+
+  private DGRMDestinationRadio[] getDestinationArray(Radio source) {
+    LinkedHashSet<Edge> sourceEdges = edgesFrom.get(source);
+    DGRMDestinationRadio[] arr = new DGRMDestinationRadio[sourceEdges.size()];
+    int i = 0;
+    for (Edge edge: sourceEdges) {
+      arr[i++] = edge.superDest;
     }
+    return arr;
+  }
 
-    /* Convert to arrays */
-    Hashtable<Radio,DGRMDestinationRadio[]> arrTable =  new Hashtable<Radio,DGRMDestinationRadio[]>();
-    Enumeration<Radio> sources = listTable.keys();
-    while (sources.hasMoreElements()) {
-      Radio source = sources.nextElement();
-      DGRMDestinationRadio[] arr = listTable.get(source).toArray(new DGRMDestinationRadio[0]);
-      arrTable.put(source, arr);
+  /**
+   * Sets potential destinations without analyzing edges. Used by radio
+   * mediums that track potential destinations themselves, such as
+   * {@link UDGM}.
+   *
+   * @param destinations Potential destinations per source radio
+   * @param replaceAll If true, all other source radios are removed and the
+   *                   edges are considered analyzed. If false, only the given
+   *                   source radios are updated.
+   */
+  protected void setPotentialDestinations(Map<Radio,DGRMDestinationRadio[]> destinations, boolean replaceAll) {
+    if (replaceAll) {
+      this.edgesTable = new Hashtable<Radio,DGRMDestinationRadio[]>(destinations);
+      edgesDirty = false;
+    } else {
+      for (Map.Entry<Radio,DGRMDestinationRadio[]> entry: destinations.entrySet()) {
+        edgesTable.put(entry.getKey(), entry.getValue());
+      }
     }
 
-    this.edgesTable = arrTable;
-    edgesDirty = false;
-    
     /* Radio Medium changed here so notify Observers */
     radioMediumObservable.setChangedAndNotify();
   }
@@ -241,6 +350,8 @@ public class DirectedGraphMedium extends AbstractRadioMedium {
   public DGRMDestinationRadio[] getPotentialDestinations(Radio source) {
     if (edgesDirty) {
       analyzeEdges();
+    } else if (!dirtySources.isEmpty()) {
+      analyzeDirtySources();
     }
     return edgesTable.get(source);
   }
@@ -312,14 +423,7 @@ public class DirectedGraphMedium extends AbstractRadioMedium {
          
          // Find connection, that is sending to that radio
          // and mark the destination as interfered
-         for (RadioConnection conn : getActiveConnections()) {
-           for (Radio dstRadio : conn.getDestinations()) {
-             if (dstRadio == dest.radio) {
-               conn.addInterfered(dest.radio);;
-               break;
-             }
-           }
-         }        
+         interfereActiveConnectionsTo(dest.radio);
          continue;
       }
             
@@ -0,0 +1,335 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja.radiomediums;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.contikios.cooja.Simulation;
+import org.contikios.cooja.interfaces.Radio;
+
+/**
+ * Cache of link qualities between radio pairs, used by radio mediums whose
+ * link qualities only depend on radio positions and medium parameters.
+ * <p>
+ * Each radio is given a dense index, reused after the radio is removed. For
+ * each source radio, the distance, path loss, RSSI and success probability
+ * towards each destination are stored in one primitive array row, indexed by
+ * destination. Links are calculated by a {@link LinkModel} on first use, and
+ * recalculated after either radio moved ({@link #invalidate(Radio)}), after
+ * the medium parameters changed ({@link #setParameters(double...)}), or after
+ * the source parameter of the source radio changed.
+ * <p>
+ * The cache is not synchronized: links are only cached for the simulation
+ * thread, or for any thread while the simulation is not running. Other
+ * threads, such as visualizer skins, get uncached links, and their
+ * invalidations are applied by the simulation thread before its next lookup.
+ *
+ * @see UDGM
+ * @see LogisticLoss
+ */
+public class LinkQualityCache {
+  /* Link fields */
+  public static final int DISTANCE = 0;
+  public static final int PATH_LOSS = 1;
+  public static final int RSSI = 2;
+  public static final int SUCCESS_PROBABILITY = 3;
+  private static final int FIELDS = 4;
+
+  /**
+   * Calculates link qualities.
+   */
+  public interface LinkModel {
+    /**
+     * @param source Source radio
+     * @return Source radio parameter that links depend on, such as output power
+     */
+    double getSourceParameter(Radio source);
+
+    /**
+     * Calculates the link quality from source to destination. Fields not
+     * modelled by the radio medium should be set to NaN.
+     *
+     * @param source Source radio
+     * @param dest Destination radio
+     * @param link Link fields, indexed by {@link #DISTANCE}, {@link #PATH_LOSS},
+     *             {@link #RSSI} and {@link #SUCCESS_PROBABILITY}
+     */
+    void calculate(Radio source, Radio dest, double[] link);
+  }
+
+  private final Simulation simulation;
+  private final LinkModel model;
+  private final double[] link = new double[FIELDS];
+  private double[] parameters = new double[0];
+
+  /* Dense radio indices. Index objects are created once per radio, so lookups do not box */
+  private final IdentityHashMap<Radio, Integer> indices = new IdentityHashMap<Radio, Integer>();
+  private Radio[] radios = new Radio[8];
+  private int count = 0; /* Highest used index + 1 */
+  private int[] freeIndices = new int[8];
+  private int freeCount = 0;
+
+  /* Per source index: source parameter, and links towards each destination index */
+  private double[] sourceParameters = new double[8];
+  private boolean[][] valid = new boolean[8][];
+  private double[][] links = new double[8][];
+
+  /* Changes requested from other threads while the simulation is running */
+  private final ConcurrentLinkedQueue<Runnable> pendingChanges = new ConcurrentLinkedQueue<Runnable>();
+
+  private long hits = 0;
+  private long misses = 0;
+
+  public LinkQualityCache(Simulation simulation, LinkModel model) {
+    this.simulation = simulation;
+    this.model = model;
+  }
+
+  /**
+   * Returns a field of the link from source to destination, calculating the
+   * link if not cached.
+   *
+   * @param source Source radio
+   * @param dest Destination radio
+   * @param field Link field
+   * @return Field value
+   */
+  public double get(Radio source, Radio dest, int field) {
+    if (!simulation.isSimulationThreadOrNull()) {
+      double[] uncached = new double[FIELDS];
+      Arrays.fill(uncached, Double.NaN);
+      model.calculate(source, dest, uncached);
+      return uncached[field];
+    }
+    if (!pendingChanges.isEmpty()) {
+      applyPendingChanges();
+    }
+
+    int s = getIndex(source);
+    int d = getIndex(dest);
+    double sourceParameter = model.getSourceParameter(source);
+    boolean[] sourceValid = valid[s];
+    if (sourceValid == null || sourceValid.length < count) {
+      /* New or reused source index, or more radios since the row was allocated */
+      int length = radios.length;
+      sourceValid = valid[s] = sourceValid == null ? new boolean[length] : Arrays.copyOf(sourceValid, length);
+      links[s] = links[s] == null ? new double[length * FIELDS] : Arrays.copyOf(links[s], length * FIELDS);
+      if (Double.compare(sourceParameters[s], sourceParameter) != 0) {
+        Arrays.fill(sourceValid, false);
+        sourceParameters[s] = sourceParameter;
+      }
+    } else if (Double.compare(sourceParameters[s], sourceParameter) != 0) {
+      /* Source parameter changed: recalculate all links from source */
+      Arrays.fill(sourceValid, false);
+      sourceParameters[s] = sourceParameter;
+    }
+
+    double[] row = links[s];
+    if (sourceValid[d]) {
+      hits++;
+    } else {
+      misses++;
+      Arrays.fill(link, Double.NaN);
+      model.calculate(source, dest, link);
+      System.arraycopy(link, 0, row, d * FIELDS, FIELDS);
+      sourceValid[d] = true;
+    }
+    return row[d * FIELDS + field];
+  }
+
+  private int getIndex(Radio radio) {
+    Integer index = indices.get(radio);
+    if (index != null) {
+      return index;
+    }
+
+    int newIndex;
+    if (freeCount > 0) {
+      newIndex = freeIndices[--freeCount];
+    } else {
+      newIndex = count++;
+      if (newIndex == radios.length) {
+        int length = 2 * newIndex;
+        radios = Arrays.copyOf(radios, length);
+        freeIndices = Arrays.copyOf(freeIndices, length);
+        sourceParameters = Arrays.copyOf(sourceParameters, length);
+        valid = Arrays.copyOf(valid, length);
+        links = Arrays.copyOf(links, length);
+      }
+    }
+    radios[newIndex] = radio;
+    /* Links from and to a reused index were invalidated when it was freed */
+    sourceParameters[newIndex] = Double.NaN;
+    indices.put(radio, newIndex);
+    return newIndex;
+  }
+
+  /* Runs change now if the cache is owned by the calling thread, else before the next lookup */
+  private void change(Runnable change) {
+    if (simulation.isSimulationThreadOrNull()) {
+      if (!pendingChanges.isEmpty()) {
+        applyPendingChanges();
+      }
+      change.run();
+    } else {
+      pendingChanges.offer(change);
+    }
+  }
+
+  private void applyPendingChanges() {
+    Runnable change;
+    while ((change = pendingChanges.poll()) != null) {
+      change.run();
+    }
+  }
+
+  /**
+   * Sets the medium parameters that links depend on. All links are
+   * recalculated if the parameters changed.
+   *
+   * @param parameters Medium parameters
+   */
+  public void setParameters(double... parameters) {
+    final double[] newParameters = parameters.clone();
+    change(new Runnable() {
+      @Override
+      public void run() {
+        if (Arrays.equals(LinkQualityCache.this.parameters, newParameters)) {
+          return;
+        }
+        LinkQualityCache.this.parameters = newParameters;
+        invalidateAll();
+      }
+    });
+  }
+
+  /**
+   * Invalidates all links from and to the given radio, typically because it
+   * moved.
+   *
+   * @param radio Radio
+   */
+  public void invalidate(final Radio radio) {
+    change(new Runnable() {
+      @Override
+      public void run() {
+        Integer index = indices.get(radio);
+        if (index != null) {
+          invalidateIndex(index);
+        }
+      }
+    });
+  }
+
+  /**
+   * Removes all links from and to the given radio. The radio index is reused
+   * by the next new radio.
+   *
+   * @param radio Removed radio
+   */
+  public void remove(final Radio radio) {
+    change(new Runnable() {
+      @Override
+      public void run() {
+        Integer index = indices.remove(radio);
+        if (index == null) {
+          return;
+        }
+        invalidateIndex(index);
+        radios[index] = null;
+        freeIndices[freeCount++] = index;
+      }
+    });
+  }
+
+  private void invalidateIndex(int index) {
+    if (valid[index] != null) {
+      Arrays.fill(valid[index], false);
+    }
+    for (int s = 0; s < count; s++) {
+      if (valid[s] != null && index < valid[s].length) {
+        valid[s][index] = false;
+      }
+    }
+  }
+
+  /**
+   * Invalidates all links.
+   */
+  public void clear() {
+    change(new Runnable() {
+      @Override
+      public void run() {
+        invalidateAll();
+      }
+    });
+  }
+
+  private void invalidateAll() {
+    for (int s = 0; s < count; s++) {
+      if (valid[s] != null) {
+        Arrays.fill(valid[s], false);
+      }
+    }
+  }
+
+  /**
+   * @return Number of cached links
+   */
+  public int size() {
+    int size = 0;
+    for (int s = 0; s < count; s++) {
+      if (valid[s] == null) {
+        continue;
+      }
+      for (boolean v: valid[s]) {
+        if (v) {
+          size++;
+        }
+      }
+    }
+    return size;
+  }
+
+  public long getHits() {
+    return hits;
+  }
+
+  public long getMisses() {
+    return misses;
+  }
+
+  public String getStatistics() {
+    return hits + " hits, " + misses + " misses, " + size() + " links";
+  }
+}
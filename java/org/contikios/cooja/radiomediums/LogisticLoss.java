@@ -32,10 +32,11 @@ package org.contikios.cooja.radiomediums;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Random;
-import java.util.Hashtable;
 import java.util.Map;
 
 import org.apache.logging.log4j.Logger;
@@ -47,7 +48,6 @@ import org.contikios.cooja.Mote;
 import org.contikios.cooja.RadioConnection;
 import org.contikios.cooja.SimEventCentral.MoteCountListener;
 import org.contikios.cooja.Simulation;
-import org.contikios.cooja.interfaces.Position;
 import org.contikios.cooja.interfaces.Radio;
 import org.contikios.cooja.plugins.Visualizer;
 import org.contikios.cooja.plugins.skins.LogisticLossVisualizerSkin;
@@ -156,61 +156,99 @@ public class LogisticLoss extends AbstractRadioMedium {
     private long lastTimeVariationUpdatePeriod = 0;
 
     private DirectedGraphMedium dgrm; /* Used only for efficient destination lookup */
+    private final RadioGrid grid = new RadioGrid();
+    private final LinkQualityCache linkCache;
+    /* Parameters last pushed to linkCache, to detect direct assignments of the public fields */
+    private double linkCacheTxRange, linkCacheRxSensitivity, linkCachePathLossExponent, linkCacheInflectionPoint;
 
     private Random random = null;
 
-    private Hashtable<Index, TimeVaryingEdge> edgesTable = new Hashtable<Index, TimeVaryingEdge>();
+    private final TimeVaryingEdges timeVaryingEdges = new TimeVaryingEdges();
 
     public LogisticLoss(Simulation simulation) {
         super(simulation);
         random = simulation.getRandomGenerator();
         sim = simulation;
+        linkCache = new LinkQualityCache(simulation, new LinkQualityCache.LinkModel() {
+                @Override
+                public double getSourceParameter(Radio source) {
+                    return DEFAULT_TX_POWER_DBM;
+                }
+
+                @Override
+                public void calculate(Radio source, Radio dest, double[] link) {
+                    double d = source.getPosition().getDistanceTo(dest.getPosition());
+                    link[LinkQualityCache.DISTANCE] = d;
+                    if (d <= 0) {
+                        /* Do not allow the distance to be zero */
+                        d = 0.01;
+                    }
+
+                    /* Using the log-distance formula */
+                    double path_loss_dbm = -RX_SENSITIVITY_DBM + 10 * PATH_LOSS_EXPONENT * Math.log10(d / TRANSMITTING_RANGE);
+                    link[LinkQualityCache.PATH_LOSS] = path_loss_dbm;
+
+                    /* Mean RSSI and success probability, without AWGN and time-varying component */
+                    double rssi = DEFAULT_TX_POWER_DBM - path_loss_dbm;
+                    link[LinkQualityCache.RSSI] = rssi;
+                    link[LinkQualityCache.SUCCESS_PROBABILITY] = 1.0 / (1.0 + Math.exp(-(rssi - RSSI_INFLECTION_POINT_DBM)));
+                }
+            });
+        updateLinkCacheParameters();
         dgrm = new DirectedGraphMedium() {
                 @Override
                 protected void analyzeEdges() {
-                    /* Create edges according to distances.
-                     * XXX May be slow for mobile networks */
-                    clearEdges();
+                    /* Create edges according to distances, using a grid of radio positions */
                     /* XXX: do not remove the time-varying edges to preserve their evolution */
+                    grid.rebuild(TRANSMITTING_RANGE, LogisticLoss.this.getRegisteredRadios());
+                    setPotentialDestinations(createDestinations(grid.getRadios()), true);
+                }
+
+                @Override
+                public DGRMDestinationRadio[] getPotentialDestinations(Radio source) {
+                    if (!needsEdgeAnalysis() && grid.hasMoved()) {
+                        /* Update only radios affected by the moved radios */
+                        setPotentialDestinations(createDestinations(grid.update()), false);
+                    }
+                    return super.getPotentialDestinations(source);
+                }
 
-                    for (Radio source: LogisticLoss.this.getRegisteredRadios()) {
-                        Position sourcePos = source.getPosition();
+                private Map<Radio, DGRMDestinationRadio[]> createDestinations(Collection<Radio> sources) {
+                    HashMap<Radio, DGRMDestinationRadio[]> destinations = new HashMap<Radio, DGRMDestinationRadio[]>();
+                    for (Radio source: sources) {
                         int sourceID = source.getMote().getID();
-                        for (Radio dest: LogisticLoss.this.getRegisteredRadios()) {
-                            Position destPos = dest.getPosition();
-                            /* Ignore ourselves */
-                            if (source == dest) {
-                                continue;
-                            }
-                            double distance = sourcePos.getDistanceTo(destPos);
-                            if (distance < TRANSMITTING_RANGE) {
-                                /* Add potential destination */
-                                addEdge(
-                                        new DirectedGraphMedium.Edge(source, 
-                                                new DGRMDestinationRadio(dest)));
-
-                                if (ENABLE_TIME_VARIATION) {
-                                    int destID = dest.getMote().getID();
-                                    if (sourceID < destID) {
-                                        Index key = new Index(sourceID, destID);
-                                        if (!edgesTable.containsKey(key)) {
-                                            edgesTable.put(key, new TimeVaryingEdge());
-                                        }
-                                    }
+                        List<Radio> neighbors = grid.getNeighbors(source);
+                        DGRMDestinationRadio[] arr = new DGRMDestinationRadio[neighbors.size()];
+                        for (int i = 0; i < arr.length; i++) {
+                            Radio dest = neighbors.get(i);
+                            arr[i] = new DGRMDestinationRadio(dest);
+
+                            if (ENABLE_TIME_VARIATION) {
+                                int destID = dest.getMote().getID();
+                                if (sourceID < destID) {
+                                    timeVaryingEdges.add(sourceID, destID);
                                 }
                             }
                         }
+                        destinations.put(source, arr);
                     }
-                    super.analyzeEdges();
+                    return destinations;
                 }
             };
 
         /* Register as position observer.
-         * If any positions change, re-analyze potential receivers. */
+         * If any positions change, update potential receivers of moved radio. */
         final Observer positionObserver = new Observer() {
                 @Override
                 public void update(Observable o, Object arg) {
-                    dgrm.requestEdgeAnalysis();
+                    Radio radio = arg instanceof Mote ? ((Mote) arg).getInterfaces().getRadio() : null;
+                    if (radio != null) {
+                        grid.moved(radio);
+                        linkCache.invalidate(radio);
+                    } else {
+                        dgrm.requestEdgeAnalysis();
+                        linkCache.clear();
+                    }
                 }
             };
         /* Re-analyze potential receivers if radios are added/removed. */
@@ -224,6 +262,9 @@ public class LogisticLoss extends AbstractRadioMedium {
                 public void moteWasRemoved(Mote mote) {
                     mote.getInterfaces().getPosition().deleteObserver(positionObserver);
                     dgrm.requestEdgeAnalysis();
+                    if (mote.getInterfaces().getRadio() != null) {
+                        linkCache.remove(mote.getInterfaces().getRadio());
+                    }
                 }
             });
         for (Mote mote: simulation.getMotes()) {
@@ -235,6 +276,59 @@ public class LogisticLoss extends AbstractRadioMedium {
         Visualizer.registerVisualizerSkin(LogisticLossVisualizerSkin.class);
     }
 
+    /**
+     * Link qualities are cached until radios move or medium parameters change.
+     * The cached RSSI and success probability are mean values, without AWGN
+     * and the time-varying component.
+     *
+     * @return Link quality cache
+     */
+    public LinkQualityCache getLinkQualityCache() {
+        if (TRANSMITTING_RANGE != linkCacheTxRange
+                || RX_SENSITIVITY_DBM != linkCacheRxSensitivity
+                || PATH_LOSS_EXPONENT != linkCachePathLossExponent
+                || RSSI_INFLECTION_POINT_DBM != linkCacheInflectionPoint) {
+            /* Public fields were assigned directly */
+            updateLinkCacheParameters();
+        }
+        return linkCache;
+    }
+
+    /**
+     * Forwards the medium parameters that links depend on to the link cache.
+     * Called whenever TRANSMITTING_RANGE, RX_SENSITIVITY_DBM,
+     * PATH_LOSS_EXPONENT or RSSI_INFLECTION_POINT_DBM changes.
+     */
+    private void updateLinkCacheParameters() {
+        linkCacheTxRange = TRANSMITTING_RANGE;
+        linkCacheRxSensitivity = RX_SENSITIVITY_DBM;
+        linkCachePathLossExponent = PATH_LOSS_EXPONENT;
+        linkCacheInflectionPoint = RSSI_INFLECTION_POINT_DBM;
+        linkCache.setParameters(TRANSMITTING_RANGE, RX_SENSITIVITY_DBM, PATH_LOSS_EXPONENT, RSSI_INFLECTION_POINT_DBM);
+    }
+
+    public void setTxRange(double r) {
+        TRANSMITTING_RANGE = r;
+        INTERFERENCE_RANGE = TRANSMITTING_RANGE;
+        updateLinkCacheParameters();
+        dgrm.requestEdgeAnalysis();
+    }
+
+    public void setRxSensitivity(double dbm) {
+        RX_SENSITIVITY_DBM = dbm;
+        updateLinkCacheParameters();
+    }
+
+    public void setRssiInflectionPoint(double dbm) {
+        RSSI_INFLECTION_POINT_DBM = dbm;
+        updateLinkCacheParameters();
+    }
+
+    public void setPathLossExponent(double exponent) {
+        PATH_LOSS_EXPONENT = exponent;
+        updateLinkCacheParameters();
+    }
+
     @Override
     public void removed() {
         super.removed();
@@ -257,10 +351,14 @@ public class LogisticLoss extends AbstractRadioMedium {
             return newConnection;
         }
 
+        /* With channel partitioning: radios on the sender's channel, else null */
+        Radio[] destinations = getDestinationsOnChannel(newConnection, potentialDestinations);
+
         /* Loop through all potential destinations */
-        Position senderPos = sender.getPosition();
-        for (DestinationRadio dest: potentialDestinations) {
-            Radio recv = dest.radio;
+        LinkQualityCache links = getLinkQualityCache();
+        int nrDestinations = destinations != null ? destinations.length : potentialDestinations.length;
+        for (int i = 0; i < nrDestinations; i++) {
+            Radio recv = destinations != null ? destinations[i] : potentialDestinations[i].radio;
 
             /* Fail if radios are on different (but configured) channels */ 
             if (sender.getChannel() >= 0 &&
@@ -275,9 +373,7 @@ public class LogisticLoss extends AbstractRadioMedium {
 
                 continue;
             }
-            Position recvPos = recv.getPosition();
-
-            double distance = senderPos.getDistanceTo(recvPos);
+            double distance = links.get(sender, recv, LinkQualityCache.DISTANCE);
             if (distance <= TRANSMITTING_RANGE) {
                 /* Within transmission range */
 
@@ -328,11 +424,7 @@ public class LogisticLoss extends AbstractRadioMedium {
 
                         if(doInterfereOld) {
                             /* Find all existing connections and interfere them */
-                            for (RadioConnection conn : getActiveConnections()) {
-                                if (conn.isDestination(recv)) {
-                                    conn.addInterfered(recv);
-                                }
-                            }
+                            interfereActiveConnectionsTo(recv);
 
                             recv.interfereAnyReception();
                         }
@@ -353,6 +445,17 @@ public class LogisticLoss extends AbstractRadioMedium {
         return newConnection;
     }
   
+    @Override
+    protected boolean supportsChannelPartitioning() {
+        return true;
+    }
+
+    @Override
+    protected boolean isPotentialDestination(Radio source, Radio radio) {
+        /* Same as the radio grid */
+        return getLinkQualityCache().get(source, radio, LinkQualityCache.DISTANCE) < TRANSMITTING_RANGE;
+    }
+
     public double getSuccessProbability(Radio source, Radio dest) {
         return getTxSuccessProbability(source) * getRxSuccessProbability(source, dest);
     }
@@ -372,21 +475,14 @@ public class LogisticLoss extends AbstractRadioMedium {
     }
 
     private double getRSSI(Radio source, Radio dst) {
-        double d = source.getPosition().getDistanceTo(dst.getPosition());
-        if (d <= 0) {
-            /* Do not allow the distance to be zero */
-            d = 0.01;
-        }
-
-        /* Using the log-distance formula */
-        double path_loss_dbm = -RX_SENSITIVITY_DBM + 10 * PATH_LOSS_EXPONENT * Math.log10(d / TRANSMITTING_RANGE);
+        /* Using the log-distance formula, cached per link */
+        double path_loss_dbm = getLinkQualityCache().get(source, dst, LinkQualityCache.PATH_LOSS);
 
         /* Add the time-varying component if enabled */
         if (ENABLE_TIME_VARIATION) {
-            Index key = new Index(source.getMote().getID(), dst.getMote().getID());
-            TimeVaryingEdge e = edgesTable.get(key);
-            if (e != null) {
-                path_loss_dbm += e.getPL();
+            double pl = timeVaryingEdges.getPL(source.getMote().getID(), dst.getMote().getID());
+            if (!Double.isNaN(pl)) {
+                path_loss_dbm += pl;
             } else {
                 logger.warn("No edge between " + source.getMote().getID() + " and " + dst.getMote().getID());
             }
@@ -402,12 +498,9 @@ public class LogisticLoss extends AbstractRadioMedium {
             dgrm.analyzeEdges();
         }
 
-        while (period > lastTimeVariationUpdatePeriod) {
-            for (Map.Entry<Index, TimeVaryingEdge> entry : edgesTable.entrySet()) {
-                entry.getValue().evolve();
-            }
-            /* update the time state */
-            lastTimeVariationUpdatePeriod += 1;
+        /* update the time state: links evolve when used */
+        if (period > lastTimeVariationUpdatePeriod) {
+            lastTimeVariationUpdatePeriod = period;
         }
     }
 
@@ -569,67 +662,129 @@ public class LogisticLoss extends AbstractRadioMedium {
                  TIME_VARIATION_MAX_PL_DB = Double.parseDouble(element.getText());
             }
         }
+        updateLinkCacheParameters();
         return true;
     }
 
-    // Invariant: x <= y
-    private class Index {
-        private int x;
-        private int y;
+    /**
+     * Time-varying path loss of the links between radio pairs, kept in an
+     * open-addressing hash table keyed by the (unordered) pair of mote IDs.
+     * <p>
+     * Links evolve lazily: each link stores the period it was last evolved to,
+     * and catches up on the missed steps when used. The random steps of a link
+     * are drawn from a counter-based generator seeded by the simulation seed,
+     * the link and the period, so the evolution of a link does not depend on
+     * when, or how often, it is used.
+     */
+    private class TimeVaryingEdges {
+        private long[] keys = new long[64];
+        private boolean[] used = new boolean[64];
+        private double[] plDb = new double[64];
+        private long[] periods = new long[64];
+        private int size = 0;
+
+        /* Invariant: x <= y */
+        private long getKey(int a, int b) {
+            int x = Math.min(a, b);
+            int y = Math.max(a, b);
+            return ((long) x << 32) | (y & 0xFFFFFFFFL);
+        }
 
-        public Index(int a, int b) {
-            if(a <= b) {
-                this.x = a;
-                this.y = b;
-            } else {
-                this.x = b;
-                this.y = a;
+        private int getSlot(long key) {
+            int mask = keys.length - 1;
+            int slot = (int) mix64(key) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
             }
+            return slot;
         }
 
-        @Override
-        public int hashCode() {
-            return this.x ^ this.y;
+        /**
+         * Adds a link, unless already added. New links start without path loss
+         * at the last time variation update.
+         */
+        public synchronized void add(int a, int b) {
+            long key = getKey(a, b);
+            int slot = getSlot(key);
+            if (used[slot]) {
+                return;
+            }
+            used[slot] = true;
+            keys[slot] = key;
+            plDb[slot] = 0.0;
+            periods[slot] = lastTimeVariationUpdatePeriod;
+            size++;
+
+            if (2 * size > keys.length) {
+                grow();
+            }
         }
 
-        @Override
-        public boolean equals(Object obj) {
-            if (this == obj)
-                return true;
-            if (obj == null)
-                return false;
-            if (getClass() != obj.getClass())
-                return false;
-            Index other = (Index) obj;
-            if (x != other.x)
-                return false;
-            if (y != other.y)
-                return false;
-            return true;
+        private void grow() {
+            long[] oldKeys = keys;
+            boolean[] oldUsed = used;
+            double[] oldPlDb = plDb;
+            long[] oldPeriods = periods;
+            keys = new long[2 * oldKeys.length];
+            used = new boolean[2 * oldKeys.length];
+            plDb = new double[2 * oldKeys.length];
+            periods = new long[2 * oldKeys.length];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (!oldUsed[i]) {
+                    continue;
+                }
+                int slot = getSlot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                plDb[slot] = oldPlDb[i];
+                periods[slot] = oldPeriods[i];
+            }
         }
-    }
 
-    private class TimeVaryingEdge {
-        /* The current value of the time-varying */
-        private double timeVariationPlDb;
-
-        public TimeVaryingEdge() {
-            timeVariationPlDb = 0.0;
-        }
+        /**
+         * Returns the time-varying path loss of a link, evolved up to the last
+         * time variation update.
+         *
+         * @return Path loss (dB), or NaN if no such link
+         */
+        public synchronized double getPL(int a, int b) {
+            long key = getKey(a, b);
+            int slot = getSlot(key);
+            if (!used[slot]) {
+                return Double.NaN;
+            }
 
-        public void evolve() {
-            /* evolve the value */
-            timeVariationPlDb += random.nextDouble() - 0.5;
-            /* bound the value */
-            if (timeVariationPlDb < TIME_VARIATION_MIN_PL_DB) {
-                timeVariationPlDb = TIME_VARIATION_MIN_PL_DB;
-            } else if (timeVariationPlDb > TIME_VARIATION_MAX_PL_DB) {
-                timeVariationPlDb = TIME_VARIATION_MAX_PL_DB;
+            double pl = plDb[slot];
+            long linkSeed = mix64(sim.getRandomSeed() ^ mix64(key));
+            for (long period = periods[slot] + 1; period <= lastTimeVariationUpdatePeriod; period++) {
+                /* evolve the value */
+                pl += getUniform(linkSeed, period) - 0.5;
+                /* bound the value */
+                if (pl < TIME_VARIATION_MIN_PL_DB) {
+                    pl = TIME_VARIATION_MIN_PL_DB;
+                } else if (pl > TIME_VARIATION_MAX_PL_DB) {
+                    pl = TIME_VARIATION_MAX_PL_DB;
+                }
             }
+            plDb[slot] = pl;
+            periods[slot] = Math.max(periods[slot], lastTimeVariationUpdatePeriod);
+            return pl;
         }
 
-        public double getPL() {
-            return timeVariationPlDb;
+        public synchronized int size() {
+            return size;
         }
     }
+
+    /* Uniform value in [0, 1) for the given link and period */
+    private static double getUniform(long linkSeed, long period) {
+        return (mix64(linkSeed + period * 0x9E3779B97F4A7C15L) >>> 11) * 0x1.0p-53;
+    }
+
+    /* MurmurHash3 / SplitMix64 finalizer */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
 }
@@ -0,0 +1,334 @@
+/*
+ * Copyright (c) 2022, Swedish Institute of Computer Science.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ * 3. Neither the name of the Institute nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE INSTITUTE AND CONTRIBUTORS ``AS IS'' AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED.  IN NO EVENT SHALL THE INSTITUTE OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS
+ * OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION)
+ * HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT
+ * LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY
+ * OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF
+ * SUCH DAMAGE.
+ *
+ */
+
+package org.contikios.cooja.radiomediums;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import org.contikios.cooja.interfaces.Position;
+import org.contikios.cooja.interfaces.Radio;
+
+/**
+ * Uniform grid index of radio positions, used by distance based radio
+ * mediums for efficient neighbor lookup.
+ * <p>
+ * Two radios are neighbors if their distance is below the range. The grid
+ * cell size equals the range, so all neighbors of a radio are found in its
+ * own and the 26 adjacent cells. When radios move, only the neighbor lists of
+ * the moved radios and of their old and new neighbors are updated.
+ * <p>
+ * Neighbor lists are kept in the order radios were indexed, which is the
+ * radio registration order: the same order as a scan over all registered
+ * radios.
+ *
+ * @see UDGM
+ * @see LogisticLoss
+ */
+public class RadioGrid {
+  private static final int CELL_BITS = 21;
+  private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+
+  private final LinkedHashMap<Radio, Entry> entries = new LinkedHashMap<Radio, Entry>();
+  private final HashMap<Long, ArrayList<Entry>> cells = new HashMap<Long, ArrayList<Entry>>();
+
+  /* Radios moved since last update, may be written from any thread */
+  private final LinkedHashSet<Radio> moved = new LinkedHashSet<Radio>();
+
+  private double range = 0;
+  private long nextSeq = 0;
+
+  private static class Entry {
+    final Radio radio;
+    final Position position;
+    final long seq;
+    long cell;
+    ArrayList<Entry> neighbors = new ArrayList<Entry>();
+
+    Entry(Radio radio, long seq) {
+      this.radio = radio;
+      this.position = radio.getPosition();
+      this.seq = seq;
+    }
+  }
+
+  /**
+   * Re-indexes all radios.
+   *
+   * @param range Neighbor range, also used as cell size
+   * @param radios Radios, in registration order
+   */
+  public void rebuild(double range, Radio[] radios) {
+    synchronized (moved) {
+      moved.clear();
+    }
+    this.range = range;
+    entries.clear();
+    cells.clear();
+    nextSeq = 0;
+
+    for (Radio radio: radios) {
+      Entry e = new Entry(radio, nextSeq++);
+      entries.put(radio, e);
+      e.cell = cellOf(e.position);
+      addToCell(e);
+    }
+    for (Entry e: entries.values()) {
+      e.neighbors = findNeighbors(e);
+    }
+  }
+
+  /**
+   * Marks a radio as moved. May be called from any thread, typically from a
+   * position observer. The neighbor lists are updated at the next
+   * {@link #update()}.
+   *
+   * @param radio Moved radio
+   */
+  public void moved(Radio radio) {
+    synchronized (moved) {
+      moved.add(radio);
+    }
+  }
+
+  /**
+   * @return True if any radios moved since last update
+   */
+  public boolean hasMoved() {
+    synchronized (moved) {
+      return !moved.isEmpty();
+    }
+  }
+
+  /**
+   * Updates the neighbor lists after radios moved.
+   *
+   * @return Radios whose neighbor lists changed
+   */
+  public Collection<Radio> update() {
+    ArrayList<Entry> movedEntries = new ArrayList<Entry>();
+    synchronized (moved) {
+      for (Radio radio: moved) {
+        Entry e = entries.get(radio);
+        if (e != null) {
+          movedEntries.add(e);
+        }
+      }
+      moved.clear();
+    }
+
+    /* Move all radios to their new cells before looking up neighbors */
+    for (Entry e: movedEntries) {
+      long cell = cellOf(e.position);
+      if (cell != e.cell) {
+        removeFromCell(e);
+        e.cell = cell;
+        addToCell(e);
+      }
+    }
+
+    LinkedHashSet<Radio> changed = new LinkedHashSet<Radio>();
+    for (Entry e: movedEntries) {
+      ArrayList<Entry> oldNeighbors = e.neighbors;
+      ArrayList<Entry> newNeighbors = findNeighbors(e);
+
+      /* Both lists are sorted: merge to find added and removed neighbors */
+      int i = 0, j = 0;
+      while (i < oldNeighbors.size() || j < newNeighbors.size()) {
+        Entry o = i < oldNeighbors.size() ? oldNeighbors.get(i) : null;
+        Entry n = j < newNeighbors.size() ? newNeighbors.get(j) : null;
+        if (o != null && n != null && o.seq == n.seq) {
+          i++;
+          j++;
+        } else if (n == null || (o != null && o.seq < n.seq)) {
+          /* Removed neighbor */
+          removeNeighbor(o, e);
+          changed.add(o.radio);
+          changed.add(e.radio);
+          i++;
+        } else {
+          /* Added neighbor */
+          addNeighbor(n, e);
+          changed.add(n.radio);
+          changed.add(e.radio);
+          j++;
+        }
+      }
+      e.neighbors = newNeighbors;
+    }
+    return changed;
+  }
+
+  /**
+   * @return Indexed radios, in registration order
+   */
+  public Collection<Radio> getRadios() {
+    return Collections.unmodifiableCollection(entries.keySet());
+  }
+
+  /**
+   * @param radio Radio
+   * @return Neighbors of radio, in registration order
+   */
+  public List<Radio> getNeighbors(Radio radio) {
+    Entry e = entries.get(radio);
+    if (e == null) {
+      return Collections.emptyList();
+    }
+    ArrayList<Radio> neighbors = new ArrayList<Radio>(e.neighbors.size());
+    for (Entry n: e.neighbors) {
+      neighbors.add(n.radio);
+    }
+    return neighbors;
+  }
+
+  private ArrayList<Entry> findNeighbors(Entry e) {
+    ArrayList<Entry> neighbors = new ArrayList<Entry>();
+    if (!(range > 0)) {
+      return neighbors;
+    }
+
+    long cx = e.cell >> (2 * CELL_BITS) & CELL_MASK;
+    long cy = e.cell >> CELL_BITS & CELL_MASK;
+    long cz = e.cell & CELL_MASK;
+    long[] visited = new long[27];
+    int nrVisited = 0;
+    for (int dx = -1; dx <= 1; dx++) {
+      for (int dy = -1; dy <= 1; dy++) {
+        for (int dz = -1; dz <= 1; dz++) {
+          long cell = cellKey(cx + dx, cy + dy, cz + dz);
+
+          /* Coordinates wrap around at huge distances: never visit a cell twice */
+          boolean seen = false;
+          for (int i = 0; i < nrVisited; i++) {
+            if (visited[i] == cell) {
+              seen = true;
+              break;
+            }
+          }
+          if (seen) {
+            continue;
+          }
+          visited[nrVisited++] = cell;
+
+          ArrayList<Entry> list = cells.get(cell);
+          if (list == null) {
+            continue;
+          }
+          for (Entry n: list) {
+            if (n != e && e.position.getDistanceTo(n.position) < range) {
+              neighbors.add(n);
+            }
+          }
+        }
+      }
+    }
+    neighbors.sort((a, b) -> Long.compare(a.seq, b.seq));
+    return neighbors;
+  }
+
+  private static void addNeighbor(Entry e, Entry neighbor) {
+    int idx = indexOf(e.neighbors, neighbor.seq);
+    if (idx < 0) {
+      e.neighbors.add(-idx - 1, neighbor);
+    }
+  }
+
+  private static void removeNeighbor(Entry e, Entry neighbor) {
+    int idx = indexOf(e.neighbors, neighbor.seq);
+    if (idx >= 0) {
+      e.neighbors.remove(idx);
+    }
+  }
+
+  private static int indexOf(ArrayList<Entry> list, long seq) {
+    int low = 0;
+    int high = list.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midSeq = list.get(mid).seq;
+      if (midSeq < seq) {
+        low = mid + 1;
+      } else if (midSeq > seq) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  private void addToCell(Entry e) {
+    ArrayList<Entry> list = cells.get(e.cell);
+    if (list == null) {
+      list = new ArrayList<Entry>();
+      cells.put(e.cell, list);
+    }
+    list.add(e);
+  }
+
+  private void removeFromCell(Entry e) {
+    ArrayList<Entry> list = cells.get(e.cell);
+    if (list == null) {
+      return;
+    }
+    list.remove(e);
+    if (list.isEmpty()) {
+      cells.remove(e.cell);
+    }
+  }
+
+  private long cellOf(Position pos) {
+    return cellKey(
+        cellCoordinate(pos.getXCoordinate()),
+        cellCoordinate(pos.getYCoordinate()),
+        cellCoordinate(pos.getZCoordinate()));
+  }
+
+  private long cellCoordinate(double coordinate) {
+    if (!(range > 0)) {
+      return 0;
+    }
+    double c = Math.floor(coordinate / range);
+    if (Double.isNaN(c)) {
+      return 0;
+    }
+    return (long) c;
+  }
+
+  private static long cellKey(long cx, long cy, long cz) {
+    return (cx & CELL_MASK) << (2 * CELL_BITS) | (cy & CELL_MASK) << CELL_BITS | (cz & CELL_MASK);
+  }
+}
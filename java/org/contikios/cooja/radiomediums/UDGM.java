@@ -32,9 +32,14 @@ package org.contikios.cooja.radiomediums;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
 
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.LogManager;
@@ -45,7 +50,6 @@ import org.contikios.cooja.Mote;
 import org.contikios.cooja.RadioConnection;
 import org.contikios.cooja.SimEventCentral.MoteCountListener;
 import org.contikios.cooja.Simulation;
-import org.contikios.cooja.interfaces.Position;
 import org.contikios.cooja.interfaces.Radio;
 import org.contikios.cooja.plugins.Visualizer;
 import org.contikios.cooja.plugins.skins.UDGMVisualizerSkin;
@@ -83,51 +87,109 @@ import org.contikios.cooja.plugins.skins.UDGMVisualizerSkin;
 public class UDGM extends AbstractRadioMedium {
   private static final Logger logger = LogManager.getLogger(UDGM.class);
 
+  /* Prefer the setters below. Direct assignments reach the link cache on its next use, via a
+   * snapshot comparison, but do not trigger a new analysis of potential destinations. */
   public double SUCCESS_RATIO_TX = 1.0; /* Success ratio of TX. If this fails, no radios receive the packet */
   public double SUCCESS_RATIO_RX = 1.0; /* Success ratio of RX. If this fails, the single affected receiver does not receive the packet */
   public double TRANSMITTING_RANGE = 50; /* Transmission range. */
   public double INTERFERENCE_RANGE = 100; /* Interference range. Ignored if below transmission range. */
 
   private DirectedGraphMedium dgrm; /* Used only for efficient destination lookup */
+  private final RadioGrid grid = new RadioGrid();
+  private final LinkQualityCache linkCache;
+  private double linkCacheTxRange, linkCacheSuccessRatioRx; /* Parameters last pushed to linkCache */
 
+  private Simulation sim = null;
   private Random random = null;
 
+  /* Parallel link evaluation, see setParallelFanOut() */
+  private static final int PARALLEL_FAN_OUT_THRESHOLD = 64;
+  private static final byte LINK_NONE = 0;
+  private static final byte LINK_INTERFERED = 1; /* Interfered, reception not affected */
+  private static final byte LINK_INTERFERE = 2; /* Interfered, interfere any reception */
+  private static final byte LINK_INTERFERE_ALL = 3; /* Interfered, also in other active connections */
+  private static final byte LINK_RX_CANDIDATE = 4; /* Receives unless random reception failure */
+  private boolean parallelFanOut = false;
+  private SplittableRandom fanOutRandom = null;
+
   public UDGM(Simulation simulation) {
     super(simulation);
     random = simulation.getRandomGenerator();
+    sim = simulation;
+    linkCache = new LinkQualityCache(simulation, new LinkQualityCache.LinkModel() {
+      @Override
+      public double getSourceParameter(Radio source) {
+        /* Ranges grow with radio output power */
+        return (double) source.getCurrentOutputPowerIndicator() / (double) source.getOutputPowerIndicatorMax();
+      }
+
+      @Override
+      public void calculate(Radio source, Radio dest, double[] link) {
+        double distance = source.getPosition().getDistanceTo(dest.getPosition());
+        double distanceMax = TRANSMITTING_RANGE * getSourceParameter(source);
+        link[LinkQualityCache.DISTANCE] = distance;
+        link[LinkQualityCache.RSSI] = SS_STRONG + (distance/distanceMax)*(SS_WEAK - SS_STRONG);
+
+        if (distanceMax == 0.0) {
+          link[LinkQualityCache.SUCCESS_PROBABILITY] = 0.0;
+          return;
+        }
+        double distanceSquared = Math.pow(distance,2.0);
+        double distanceMaxSquared = Math.pow(distanceMax,2.0);
+        double ratio = distanceSquared / distanceMaxSquared;
+        if (ratio > 1.0) {
+          link[LinkQualityCache.SUCCESS_PROBABILITY] = 0.0;
+          return;
+        }
+        link[LinkQualityCache.SUCCESS_PROBABILITY] = 1.0 - ratio*(1.0-SUCCESS_RATIO_RX);
+      }
+    });
+    updateLinkCacheParameters();
     dgrm = new DirectedGraphMedium() {
       @Override
       protected void analyzeEdges() {
-        /* Create edges according to distances.
-         * XXX May be slow for mobile networks */
-        clearEdges();
-        for (Radio source: UDGM.this.getRegisteredRadios()) {
-          Position sourcePos = source.getPosition();
-          for (Radio dest: UDGM.this.getRegisteredRadios()) {
-            Position destPos = dest.getPosition();
-            /* Ignore ourselves */
-            if (source == dest) {
-              continue;
-            }
-            double distance = sourcePos.getDistanceTo(destPos);
-            if (distance < Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE)) {
-              /* Add potential destination */
-              addEdge(
-                  new DirectedGraphMedium.Edge(source, 
-                      new DGRMDestinationRadio(dest)));
-            }
+        /* Create edges according to distances, using a grid of radio positions */
+        grid.rebuild(Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE), UDGM.this.getRegisteredRadios());
+        setPotentialDestinations(createDestinations(grid.getRadios()), true);
+      }
+
+      @Override
+      public DGRMDestinationRadio[] getPotentialDestinations(Radio source) {
+        if (!needsEdgeAnalysis() && grid.hasMoved()) {
+          /* Update only radios affected by the moved radios */
+          setPotentialDestinations(createDestinations(grid.update()), false);
+        }
+        return super.getPotentialDestinations(source);
+      }
+
+      private Map<Radio, DGRMDestinationRadio[]> createDestinations(Collection<Radio> sources) {
+        HashMap<Radio, DGRMDestinationRadio[]> destinations = new HashMap<Radio, DGRMDestinationRadio[]>();
+        for (Radio source: sources) {
+          List<Radio> neighbors = grid.getNeighbors(source);
+          DGRMDestinationRadio[] arr = new DGRMDestinationRadio[neighbors.size()];
+          for (int i = 0; i < arr.length; i++) {
+            arr[i] = new DGRMDestinationRadio(neighbors.get(i));
           }
+          destinations.put(source, arr);
         }
-        super.analyzeEdges();
+        return destinations;
       }
     };
 
     /* Register as position observer.
-     * If any positions change, re-analyze potential receivers. */
+     * If any positions change, update potential receivers of moved radio. */
     final Observer positionObserver = new Observer() {
       @Override
       public void update(Observable o, Object arg) {
-        dgrm.requestEdgeAnalysis();
+        Radio radio = arg instanceof Mote ? ((Mote) arg).getInterfaces().getRadio() : null;
+        if (radio != null) {
+          grid.moved(radio);
+          linkCache.invalidate(radio);
+        } else {
+          dgrm.requestEdgeAnalysis();
+          linkCache.clear();
+        }
+        invalidateSignalStrengths();
       }
     };
     /* Re-analyze potential receivers if radios are added/removed. */
@@ -141,6 +203,9 @@ public class UDGM extends AbstractRadioMedium {
       public void moteWasRemoved(Mote mote) {
         mote.getInterfaces().getPosition().deleteObserver(positionObserver);
         dgrm.requestEdgeAnalysis();
+        if (mote.getInterfaces().getRadio() != null) {
+          linkCache.remove(mote.getInterfaces().getRadio());
+        }
       }
     });
     for (Mote mote: simulation.getMotes()) {
@@ -159,14 +224,49 @@ public class UDGM extends AbstractRadioMedium {
 		Visualizer.unregisterVisualizerSkin(UDGMVisualizerSkin.class);
   }
   
+  /**
+   * Link qualities are cached until radios move or medium parameters change.
+   *
+   * @return Link quality cache
+   */
+  public LinkQualityCache getLinkQualityCache() {
+    if (TRANSMITTING_RANGE != linkCacheTxRange || SUCCESS_RATIO_RX != linkCacheSuccessRatioRx) {
+      /* Public fields were assigned directly */
+      updateLinkCacheParameters();
+    }
+    return linkCache;
+  }
+
+  /**
+   * Forwards the medium parameters that links depend on to the link cache.
+   * Called whenever TRANSMITTING_RANGE or SUCCESS_RATIO_RX changes.
+   */
+  private void updateLinkCacheParameters() {
+    linkCacheTxRange = TRANSMITTING_RANGE;
+    linkCacheSuccessRatioRx = SUCCESS_RATIO_RX;
+    linkCache.setParameters(TRANSMITTING_RANGE, SUCCESS_RATIO_RX);
+  }
+
   public void setTxRange(double r) {
     TRANSMITTING_RANGE = r;
+    updateLinkCacheParameters();
     dgrm.requestEdgeAnalysis();
+    invalidateSignalStrengths();
   }
 
   public void setInterferenceRange(double r) {
     INTERFERENCE_RANGE = r;
     dgrm.requestEdgeAnalysis();
+    invalidateSignalStrengths();
+  }
+
+  public void setSuccessRatioTx(double ratio) {
+    SUCCESS_RATIO_TX = ratio;
+  }
+
+  public void setSuccessRatioRx(double ratio) {
+    SUCCESS_RATIO_RX = ratio;
+    updateLinkCacheParameters();
   }
 
   @Override
@@ -190,10 +290,19 @@ public class UDGM extends AbstractRadioMedium {
       return newConnection;
     }
 
+    /* With channel partitioning: radios on the sender's channel, else null */
+    Radio[] destinations = getDestinationsOnChannel(newConnection, potentialDestinations);
+
+    if (parallelFanOut) {
+      createConnectionsParallel(newConnection, potentialDestinations, destinations, moteTransmissionRange, moteInterferenceRange);
+      return newConnection;
+    }
+
     /* Loop through all potential destinations */
-    Position senderPos = sender.getPosition();
-    for (DestinationRadio dest: potentialDestinations) {
-      Radio recv = dest.radio;
+    LinkQualityCache links = getLinkQualityCache();
+    int nrDestinations = destinations != null ? destinations.length : potentialDestinations.length;
+    for (int i = 0; i < nrDestinations; i++) {
+      Radio recv = destinations != null ? destinations[i] : potentialDestinations[i].radio;
 
       /* Fail if radios are on different (but configured) channels */ 
       if (sender.getChannel() >= 0 &&
@@ -208,7 +317,6 @@ public class UDGM extends AbstractRadioMedium {
 
         continue;
       }
-      Position recvPos = recv.getPosition();
 
       /* Fail if radio is turned off */
 //      if (!recv.isReceiverOn()) {
@@ -224,7 +332,7 @@ public class UDGM extends AbstractRadioMedium {
 //        }
 //      }
 
-      double distance = senderPos.getDistanceTo(recvPos);
+      double distance = links.get(sender, recv, LinkQualityCache.DISTANCE);
       if (distance <= moteTransmissionRange) {
         /* Within transmission range */
 
@@ -243,11 +351,7 @@ public class UDGM extends AbstractRadioMedium {
           recv.interfereAnyReception();
 
           /* Interfere receiver in all other active radio connections */
-          for (RadioConnection conn : getActiveConnections()) {
-            if (conn.isDestination(recv)) {
-              conn.addInterfered(recv);
-            }
-          }
+          interfereActiveConnectionsTo(recv);
 
         } else {
           /* Success: radio starts receiving */
@@ -263,6 +367,125 @@ public class UDGM extends AbstractRadioMedium {
     return newConnection;
   }
   
+  /**
+   * Enables or disables parallel link evaluation.
+   * <p>
+   * When enabled, the links to all potential destinations of a transmission
+   * are evaluated in parallel, using the fork-join common pool for large
+   * neighborhoods. Random reception failures are then drawn by mixing a
+   * per-transmission seed, derived from the simulation seed, with the source
+   * and destination mote IDs, so results are
+   * deterministic, but differ from those of sequential evaluation. Changes to
+   * radios and connections are applied sequentially, in destination order.
+   *
+   * @param enabled True to enable parallel link evaluation
+   */
+  public void setParallelFanOut(boolean enabled) {
+    parallelFanOut = enabled;
+  }
+
+  /**
+   * @return True if parallel link evaluation is enabled
+   */
+  public boolean isParallelFanOut() {
+    return parallelFanOut;
+  }
+
+  private void createConnectionsParallel(RadioConnection newConnection, DestinationRadio[] potentialDestinations,
+      Radio[] destinations, double moteTransmissionRange, double moteInterferenceRange) {
+    Radio sender = newConnection.getSource();
+    if (fanOutRandom == null) {
+      fanOutRandom = new SplittableRandom(sim.getRandomSeed());
+    }
+    long connectionSeed = fanOutRandom.nextLong();
+    int senderID = sender.getMote().getID();
+
+    /* Evaluate links: reads radio state, but changes nothing */
+    int n = destinations != null ? destinations.length : potentialDestinations.length;
+    byte[] outcomes = new byte[n];
+    double[] draws = new double[n];
+    IntStream indices = IntStream.range(0, n);
+    if (n >= PARALLEL_FAN_OUT_THRESHOLD) {
+      indices = indices.parallel();
+    }
+    indices.forEach(i -> {
+      Radio recv = destinations != null ? destinations[i] : potentialDestinations[i].radio;
+      outcomes[i] = evaluateLink(sender, recv, moteTransmissionRange, moteInterferenceRange);
+      if (outcomes[i] == LINK_RX_CANDIDATE) {
+        draws[i] = linkDraw(connectionSeed, senderID, recv.getMote().getID());
+      }
+    });
+
+    /* Commit: same changes as sequential evaluation, in destination order */
+    for (int i = 0; i < n; i++) {
+      Radio recv = destinations != null ? destinations[i] : potentialDestinations[i].radio;
+      byte outcome = outcomes[i];
+      if (outcome == LINK_RX_CANDIDATE) {
+        outcome = draws[i] > getRxSuccessProbability(sender, recv) ? LINK_INTERFERE_ALL : LINK_RX_CANDIDATE;
+      }
+      switch (outcome) {
+        case LINK_INTERFERED:
+          newConnection.addInterfered(recv);
+          break;
+        case LINK_INTERFERE:
+          newConnection.addInterfered(recv);
+          recv.interfereAnyReception();
+          break;
+        case LINK_INTERFERE_ALL:
+          newConnection.addInterfered(recv);
+          recv.interfereAnyReception();
+          interfereActiveConnectionsTo(recv);
+          break;
+        case LINK_RX_CANDIDATE:
+          newConnection.addDestination(recv);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Stateless uniform draw in [0, 1) for the link from source to destination,
+   * using the SplitMix64 finalizer. Does not depend on destination order.
+   */
+  private static double linkDraw(long seed, int sourceID, int destID) {
+    long z = seed + 0x9E3779B97F4A7C15L * ((((long) sourceID) << 32) ^ (destID & 0xFFFFFFFFL));
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    z = z ^ (z >>> 31);
+    return (z >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Evaluates a link as in createConnections(), without changing any state.
+   * Link state only depends on the receiver, so links to different receivers
+   * may be evaluated concurrently.
+   */
+  private byte evaluateLink(Radio sender, Radio recv, double moteTransmissionRange, double moteInterferenceRange) {
+    if (sender.getChannel() >= 0 &&
+        recv.getChannel() >= 0 &&
+        sender.getChannel() != recv.getChannel()) {
+      return LINK_INTERFERED;
+    }
+    double distance = sender.getPosition().getDistanceTo(recv.getPosition());
+    if (distance <= moteTransmissionRange) {
+      if (!recv.isRadioOn()) {
+        return LINK_INTERFERE;
+      } else if (recv.isInterfered()) {
+        return LINK_INTERFERED;
+      } else if (recv.isTransmitting()) {
+        return LINK_INTERFERED;
+      } else if (recv.isReceiving()) {
+        return LINK_INTERFERE_ALL;
+      }
+      return LINK_RX_CANDIDATE;
+    } else if (distance <= moteInterferenceRange) {
+      return LINK_INTERFERE;
+    }
+    return LINK_NONE;
+  }
+
   public double getSuccessProbability(Radio source, Radio dest) {
   	return getTxSuccessProbability(source) * getRxSuccessProbability(source, dest);
   }
@@ -270,19 +493,7 @@ public class UDGM extends AbstractRadioMedium {
     return SUCCESS_RATIO_TX;
   }
   public double getRxSuccessProbability(Radio source, Radio dest) {
-  	double distance = source.getPosition().getDistanceTo(dest.getPosition());
-    double distanceSquared = Math.pow(distance,2.0);
-    double distanceMax = TRANSMITTING_RANGE * 
-    ((double) source.getCurrentOutputPowerIndicator() / (double) source.getOutputPowerIndicatorMax());
-    if (distanceMax == 0.0) {
-      return 0.0;
-    }
-    double distanceMaxSquared = Math.pow(distanceMax,2.0);
-    double ratio = distanceSquared / distanceMaxSquared;
-    if (ratio > 1.0) {
-    	return 0.0;
-    }
-    return 1.0 - ratio*(1.0-SUCCESS_RATIO_RX);
+    return getLinkQualityCache().get(source, dest, LinkQualityCache.SUCCESS_PROBABILITY);
   }
 
   @Override
@@ -307,11 +518,7 @@ public class UDGM extends AbstractRadioMedium {
           continue;
         }
 
-        double dist = conn.getSource().getPosition().getDistanceTo(dstRadio.getPosition());
-
-        double maxTxDist = TRANSMITTING_RANGE
-        * ((double) conn.getSource().getCurrentOutputPowerIndicator() / (double) conn.getSource().getOutputPowerIndicatorMax());
-        double distFactor = dist/maxTxDist;
+        double distFactor = getDistanceFactor(conn.getSource(), dstRadio);
 
         double signalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
         if (dstRadio.getCurrentSignalStrength() < signalStrength) {
@@ -329,11 +536,7 @@ public class UDGM extends AbstractRadioMedium {
           continue;
         }
 
-        double dist = conn.getSource().getPosition().getDistanceTo(intfRadio.getPosition());
-
-        double maxTxDist = TRANSMITTING_RANGE
-        * ((double) conn.getSource().getCurrentOutputPowerIndicator() / (double) conn.getSource().getOutputPowerIndicatorMax());
-        double distFactor = dist/maxTxDist;
+        double distFactor = getDistanceFactor(conn.getSource(), intfRadio);
 
         if (distFactor < 1) {
           double signalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
@@ -355,6 +558,85 @@ public class UDGM extends AbstractRadioMedium {
     }
   }
 
+  /**
+   * @param source Source radio
+   * @param dest Destination radio
+   * @return Distance relative to the current transmission range of source
+   */
+  private double getDistanceFactor(Radio source, Radio dest) {
+    double dist = getLinkQualityCache().get(source, dest, LinkQualityCache.DISTANCE);
+
+    double maxTxDist = TRANSMITTING_RANGE
+    * ((double) source.getCurrentOutputPowerIndicator() / (double) source.getOutputPowerIndicatorMax());
+    return dist/maxTxDist;
+  }
+
+  @Override
+  protected boolean supportsChannelPartitioning() {
+    return true;
+  }
+
+  @Override
+  protected boolean isPotentialDestination(Radio source, Radio radio) {
+    /* Same as the radio grid */
+    return getLinkQualityCache().get(source, radio, LinkQualityCache.DISTANCE) < Math.max(TRANSMITTING_RANGE, INTERFERENCE_RANGE);
+  }
+
+  @Override
+  protected boolean supportsIncrementalSignalStrengths() {
+    return true;
+  }
+
+  @Override
+  protected double getSignalStrength(Radio radio, List<RadioConnection> conns) {
+    /* Same as updateSignalStrengths(), for a single radio */
+    double signalStrength = getBaseRssi(radio);
+
+    /* Set signal strength to below strong on destinations */
+    for (RadioConnection conn : conns) {
+      Radio source = conn.getSource();
+      if (source == radio && signalStrength < SS_STRONG) {
+        signalStrength = SS_STRONG;
+      }
+      if (!conn.isDestination(radio)) {
+        continue;
+      }
+      if (source.getChannel() >= 0 &&
+          radio.getChannel() >= 0 &&
+          source.getChannel() != radio.getChannel()) {
+        continue;
+      }
+      double distFactor = getDistanceFactor(source, radio);
+      double destSignalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
+      if (signalStrength < destSignalStrength) {
+        signalStrength = destSignalStrength;
+      }
+    }
+
+    /* Set signal strength to below weak on interfered */
+    for (RadioConnection conn : conns) {
+      Radio source = conn.getSource();
+      if (!conn.isInterfered(radio)) {
+        continue;
+      }
+      if (source.getChannel() >= 0 &&
+          radio.getChannel() >= 0 &&
+          source.getChannel() != radio.getChannel()) {
+        continue;
+      }
+      double distFactor = getDistanceFactor(source, radio);
+      if (distFactor < 1) {
+        double intfSignalStrength = SS_STRONG + distFactor*(SS_WEAK - SS_STRONG);
+        if (signalStrength < intfSignalStrength) {
+          signalStrength = intfSignalStrength;
+        }
+      } else {
+        signalStrength = SS_WEAK;
+      }
+    }
+    return signalStrength;
+  }
+
   @Override
   public Collection<Element> getConfigXML() {
     Collection<Element> config = super.getConfigXML();
@@ -380,6 +662,12 @@ public class UDGM extends AbstractRadioMedium {
     element.setText("" + SUCCESS_RATIO_RX);
     config.add(element);
 
+    if (parallelFanOut) {
+      element = new Element("parallel_fan_out");
+      element.setText("true");
+      config.add(element);
+    }
+
     return config;
   }
 
@@ -389,10 +677,16 @@ public class UDGM extends AbstractRadioMedium {
     for (Element element : configXML) {
       if (element.getName().equals("transmitting_range")) {
         TRANSMITTING_RANGE = Double.parseDouble(element.getText());
+        invalidateSignalStrengths();
       }
 
       if (element.getName().equals("interference_range")) {
         INTERFERENCE_RANGE = Double.parseDouble(element.getText());
+        invalidateSignalStrengths();
+      }
+
+      if (element.getName().equals("parallel_fan_out")) {
+        setParallelFanOut(Boolean.parseBoolean(element.getText()));
       }
 
       /* Backwards compatibility */
@@ -409,6 +703,7 @@ public class UDGM extends AbstractRadioMedium {
         SUCCESS_RATIO_RX = Double.parseDouble(element.getText());
       }
     }
+    updateLinkCacheParameters();
     return true;
   }
 
@@ -53,7 +53,7 @@ public class UDGMConstantLoss extends UDGM {
 
   @Override
   public double getRxSuccessProbability(Radio source, Radio dest) {
-    double distance = source.getPosition().getDistanceTo(dest.getPosition());
+    double distance = getLinkQualityCache().get(source, dest, LinkQualityCache.DISTANCE);
     double moteTransmissionRange = TRANSMITTING_RANGE
     * ((double) source.getCurrentOutputPowerIndicator() / (double) source.getOutputPowerIndicatorMax());
     if (distance > moteTransmissionRange) {